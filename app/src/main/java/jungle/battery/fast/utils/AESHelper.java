@@ -2,16 +2,25 @@ package jungle.battery.fast.utils;
 
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
 
 import net.lingala.zip4j.core.ZipFile;
 import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.io.ZipInputStream;
+import net.lingala.zip4j.model.FileHeader;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 import static net.lingala.zip4j.util.InternalZipConstants.BUFF_SIZE;
 
@@ -22,6 +31,12 @@ import static net.lingala.zip4j.util.InternalZipConstants.BUFF_SIZE;
  */
 public class AESHelper {
 
+    private static final String TAG = "ApkProtect";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //解析本地文件头时最多读取的长度，不是WinZip AES格式时回退到这里
+    private static final int HEADER_MARK_LIMIT = 8 * 1024;
+
     public static void loadLibrary() {
         // 加载动态库，数据的加密解密算法实现在动态库中
         System.loadLibrary("protected");
@@ -50,33 +65,200 @@ public class AESHelper {
      */
     public native static String key();
 
+    /**
+     * 打开assets中的加密数据
+     * <p>
+     * 不压缩存储的asset直接映射APK中的数据，不经过AssetManager的缓冲；压缩存储的asset（openFd失败）使用AssetManager.open
+     *
+     * @param path assets中的路径
+     */
+    public static InputStream openAsset(Context context, String path) throws IOException {
+        AssetFileDescriptor fd = null;
+        try {
+            fd = context.getAssets().openFd(path);
+        } catch (IOException e) {
+            // 压缩存储的asset
+            return context.getAssets().open(path);
+        }
+        FileInputStream in = null;
+        try {
+            in = fd.createInputStream();
+            MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+            return new ByteBufferInputStream(buffer);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return context.getAssets().open(path);
+        } finally {
+            // 映射在关闭后仍然有效
+            IO.close(in);
+            IO.close(fd);
+        }
+    }
+
     /**
      * 解压解密
+     * <p>
+     * 流式解密到outFile，不生成临时文件；不是WinZip AES格式时使用zip4j解密
      *
-     * @param outFile
+     * @param filename    加密zip中的文件名
+     * @param inputStream 加密的zip，解密后关闭
+     * @param outFile     解密后的文件
      */
     public static void decryptDex(Context context, String filename, InputStream inputStream, File outFile) {
+        File dir = outFile.getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        BufferedInputStream in = new BufferedInputStream(inputStream, HEADER_MARK_LIMIT);
+        in.mark(HEADER_MARK_LIMIT);
+        WinZipAesInputStream aesIn = null;
+        FileOutputStream out = null;
+        boolean success = false;
         try {
-            File file = new File(outFile.getParent());
-            if (!file.exists()) {
-                file.mkdir();
+            aesIn = new WinZipAesInputStream(in, key());
+            out = new FileOutputStream(outFile);
+            byte[] buff = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = aesIn.read(buff)) != -1) {
+                out.write(buff, 0, len);
             }
-            file = new File(file, "wjcanch");
-            if (!file.exists()) {
-                file.mkdir();
-            }
-            File file1=new File(file,outFile.getName());
+            success = true;
+        } catch (WinZipAesInputStream.UnsupportedFormatException e) {
+            Log.w(TAG, filename + " : " + e.getMessage() + ", decrypt with zip4j");
             try {
-                writeTemp(inputStream, new FileOutputStream(file1));
-            } catch (IOException e) {
-                e.printStackTrace();
+                in.reset();
+                success = decryptDexWithZip4j(filename, in, outFile);
+            } catch (IOException e1) {
+                e1.printStackTrace();
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IO.close(out);
+            IO.close(aesIn);
+            IO.close(in);
+            if (!success) {
+                outFile.delete();
+            }
+        }
+    }
+
+    /**
+     * 写入临时文件，使用zip4j解压解密
+     */
+    private static boolean decryptDexWithZip4j(String filename, InputStream inputStream, File outFile) {
+        File file = new File(outFile.getParentFile(), "wjcanch");
+        if (!file.exists()) {
+            file.mkdir();
+        }
+        File file1 = new File(file, outFile.getName());
+        try {
+            writeTemp(inputStream, new FileOutputStream(file1));
             ZipFile zipFile = new ZipFile(file1);
             zipFile.setPassword(key());
             zipFile.extractFile(filename, outFile.getParent());
+            return true;
+        } catch (ZipException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            file1.delete();
+        }
+        return false;
+    }
+
+    /**
+     * 解压解密到内存，不生成解密后的dex文件
+     *
+     * @param filename    加密zip中的文件名
+     * @param inputStream 加密的zip，解密后关闭
+     * @return 解密后的dex（见{@link InMemoryDex#allocate}），失败返回null
+     */
+    public static ByteBuffer decryptDexToMemory(Context context, String filename, InputStream inputStream) {
+        BufferedInputStream in = new BufferedInputStream(inputStream, HEADER_MARK_LIMIT);
+        in.mark(HEADER_MARK_LIMIT);
+        WinZipAesInputStream aesIn = null;
+        try {
+            aesIn = new WinZipAesInputStream(in, key());
+            if (aesIn.getSize() > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer buffer = InMemoryDex.allocate(filename, (int) aesIn.getSize());
+            byte[] buff = new byte[BUFFER_SIZE];
+            int len;
+            // 读到-1时校验HMAC和大小
+            while ((len = aesIn.read(buff, 0, Math.min(buff.length, Math.max(buffer.remaining(), 1)))) != -1) {
+                if (len > buffer.remaining()) {
+                    return null;
+                }
+                buffer.put(buff, 0, len);
+            }
+            if (buffer.hasRemaining()) {
+                return null;
+            }
+            buffer.flip();
+            return buffer;
+        } catch (WinZipAesInputStream.UnsupportedFormatException e) {
+            Log.w(TAG, filename + " : " + e.getMessage() + ", decrypt with zip4j");
+            try {
+                in.reset();
+                return decryptDexToMemoryWithZip4j(context, filename, in);
+            } catch (IOException e1) {
+                e1.printStackTrace();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IO.close(aesIn);
+            IO.close(in);
+        }
+        return null;
+    }
+
+    /**
+     * 写入临时文件，使用zip4j解压解密到内存
+     */
+    private static ByteBuffer decryptDexToMemoryWithZip4j(Context context, String filename, InputStream inputStream) {
+        File file = new File(context.getDir("apktoolplus_dex", Context.MODE_PRIVATE), "wjcanch");
+        if (!file.exists()) {
+            file.mkdir();
+        }
+        File file1 = new File(file, filename);
+        ZipInputStream zipInputStream = null;
+        try {
+            writeTemp(inputStream, new FileOutputStream(file1));
+            ZipFile zipFile = new ZipFile(file1);
+            zipFile.setPassword(key());
+            FileHeader fileHeader = zipFile.getFileHeader(filename);
+            if (fileHeader == null) {
+                return null;
+            }
+            int size = (int) fileHeader.getUncompressedSize();
+            ByteBuffer buffer = InMemoryDex.allocate(filename, size);
+            zipInputStream = zipFile.getInputStream(fileHeader);
+            byte[] buff = new byte[BUFFER_SIZE];
+            int len;
+            while (buffer.hasRemaining() && (len = zipInputStream.read(buff, 0, Math.min(buff.length, buffer.remaining()))) != -1) {
+                buffer.put(buff, 0, len);
+            }
+            if (buffer.hasRemaining()) {
+                return null;
+            }
+            // 关闭时校验CRC
+            zipInputStream.close();
+            zipInputStream = null;
+            buffer.flip();
+            return buffer;
         } catch (ZipException e) {
             e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IO.close(zipInputStream);
+            file1.delete();
         }
+        return null;
     }
 
     /**
@@ -85,19 +267,54 @@ public class AESHelper {
      * @throws IOException
      */
     private static void writeTemp(InputStream inputStream, OutputStream outputStream) throws IOException {
-        ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
-        byte[] buff = new byte[BUFF_SIZE];
-        int len;
-        while ((len = inputStream.read(buff)) != -1) {
-            byteOutput.write(buff, 0, len);
+        try {
+            byte[] buff = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = inputStream.read(buff)) != -1) {
+                outputStream.write(buff, 0, len);
+            }
+            outputStream.flush();
+        } finally {
+            inputStream.close();
+            outputStream.close();
         }
-        byte[] dexBytes = byteOutput.toByteArray();
-        outputStream.write(dexBytes, 0, dexBytes.length);
-        outputStream.flush();
+    }
 
-        inputStream.close();
-        outputStream.close();
+    /**
+     * 映射的asset数据
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return buffer.remaining();
+        }
     }
+
     /**
      * 写入临时文件
      *
@@ -3,8 +3,11 @@ package jungle.battery.fast.utils;
 import android.content.Context;
 import android.util.Log;
 
-import java.net.URL;
-import java.util.Enumeration;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import dalvik.system.DexClassLoader;
 import dalvik.system.DexFile;
@@ -15,6 +18,7 @@ public class ClassDexLoder extends DexClassLoader {
 
     private int mCookie;
     private Context mContext;
+    private volatile Set<String> mClassNames;
 
     /**
      * 原构造
@@ -56,80 +60,82 @@ public class ClassDexLoder extends DexClassLoader {
         mContext = context;
     }
 
-    private String[] getClassNameList(int cookie) {
-        return (String[]) Reflect.invokeMethod(DexFile.class, null, "getClassNameList", new Object[]{cookie}, int.class);
-    }
-
-    private Class defineClass(String name, ClassLoader loader, int cookie) {
-        return (Class) Reflect.invokeMethod(DexFile.class, null, "defineClass", new Object[]{name, loader, cookie}, String.class, ClassLoader.class,
-                int.class);
-    }
-
-    @Override
-    protected Class<?> findClass(String name) throws ClassNotFoundException {
-        Log.d(TAG, "findClass-" + name);
-        Class<?> cls = null;
-
-        String as[] = getClassNameList(mCookie);
-        for (int z = 0; z < as.length; z++) {
-            if (as[z].equals(name)) {
-                cls = defineClass(as[z].replace('.', '/'),
-                        mContext.getClassLoader(), mCookie);
-            } else {
-                defineClass(as[z].replace('.', '/'), mContext.getClassLoader(),
-                        mCookie);
+    /**
+     * dex中的类名索引，第一次查找类时建立
+     */
+    private Set<String> getClassNames() {
+        Set<String> classNames = mClassNames;
+        if (classNames == null) {
+            synchronized (this) {
+                classNames = mClassNames;
+                if (classNames == null) {
+                    String[] names = (String[]) invoke(DexFileMethods.GET_CLASS_NAME_LIST, mCookie);
+                    if (names == null) {
+                        Log.e(TAG, "getClassNameList failure, cookie " + mCookie);
+                        classNames = Collections.emptySet();
+                    } else {
+                        classNames = new HashSet<>(Arrays.asList(names));
+                        Log.d(TAG, "dex classes " + classNames.size());
+                    }
+                    mClassNames = classNames;
+                }
             }
         }
+        return classNames;
+    }
 
-        if (null == cls) {
-            cls = super.findClass(name);
+    /**
+     * 只定义请求的类，由当前ClassLoader加载，依赖的类再通过findClass按需定义
+     */
+    private synchronized Class<?> defineClass(String name) {
+        // 其他线程可能已经定义过
+        Class<?> cls = findLoadedClass(name);
+        if (cls == null) {
+            cls = (Class<?>) invoke(DexFileMethods.DEFINE_CLASS, name.replace('.', '/'), this, mCookie);
         }
-
         return cls;
     }
 
-    @Override
-    protected URL findResource(String name) {
-        Log.d(TAG, "findResource-" + name);
-        return super.findResource(name);
-    }
-
-    @Override
-    protected Enumeration<URL> findResources(String name) {
-        Log.d(TAG, "findResources ssss-" + name);
-        return super.findResources(name);
-    }
-
-    @Override
-    protected synchronized Package getPackage(String name) {
-        Log.d(TAG, "getPackage-" + name);
-        return super.getPackage(name);
-    }
-
-    @Override
-    protected Class<?> loadClass(String className, boolean resolve)
-            throws ClassNotFoundException {
-        Log.d(TAG, "loadClass-" + className + " resolve " + resolve);
-        Class<?> clazz = super.loadClass(className, resolve);
-        if (null == clazz) {
-            Log.e(TAG, "loadClass fail,maybe get a null-point exception.");
+    private static Object invoke(Method method, Object... args) {
+        if (method == null) {
+            return null;
         }
-        return clazz;
+        try {
+            return method.invoke(null, args);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
     }
 
     @Override
-    protected Package[] getPackages() {
-        Log.d(TAG, "getPackages sss-");
-        return super.getPackages();
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        if (getClassNames().contains(name)) {
+            Class<?> cls = defineClass(name);
+            if (cls != null) {
+                return cls;
+            }
+        }
+        return super.findClass(name);
     }
 
-    @Override
-    protected Package definePackage(String name, String specTitle,
-                                    String specVersion, String specVendor, String implTitle,
-                                    String implVersion, String implVendor, URL sealBase)
-            throws IllegalArgumentException {
-        Log.d(TAG, "definePackage" + name);
-        return super.definePackage(name, specTitle, specVersion, specVendor,
-                implTitle, implVersion, implVendor, sealBase);
+    /**
+     * DexFile的native方法，只反射一次
+     */
+    private static class DexFileMethods {
+
+        static final Method GET_CLASS_NAME_LIST = getMethod("getClassNameList", int.class);
+        static final Method DEFINE_CLASS = getMethod("defineClass", String.class, ClassLoader.class, int.class);
+
+        private static Method getMethod(String name, Class<?>... parameterTypes) {
+            try {
+                Method method = DexFile.class.getDeclaredMethod(name, parameterTypes);
+                method.setAccessible(true);
+                return method;
+            } catch (NoSuchMethodException e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,123 @@
+package jungle.battery.fast.utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 启动时并行解密多个dex
+ * <p>
+ * 只在解密期间创建的小线程池，全部完成后关闭；每个dex的耗时和总耗时输出到日志：
+ * <pre>
+ * decrypt classes2.dex 85ms (dex-decrypt-1)
+ * decrypt 6 dex with 4 threads in 190ms
+ * </pre>
+ *
+ * @author linchaolong
+ */
+public class DecryptPool {
+
+    private static final String TAG = "ApkProtect";
+
+    //默认最多4个线程，低端机上更多线程主要是在争抢IO
+    private static final int MAX_DEFAULT_THREADS = 4;
+
+    /**
+     * 解密一个dex
+     */
+    public interface Task<T> {
+        /**
+         * @return 失败返回null
+         */
+        T decrypt(String dexName) throws Exception;
+    }
+
+    /**
+     * @param threads 配置的线程数，0表示CPU核数（最多4个），不超过dex数量
+     */
+    public static int threadCount(int threads, int dexCount) {
+        if (threads <= 0) {
+            threads = Math.min(MAX_DEFAULT_THREADS, Runtime.getRuntime().availableProcessors());
+        }
+        return Math.max(1, Math.min(threads, dexCount));
+    }
+
+    /**
+     * 解密所有dex，等待全部完成
+     *
+     * @param dexName 加密的dex文件名
+     * @param threads 线程数，见{@link #threadCount}
+     * @return 与dexName顺序相同，失败的为null
+     */
+    public static <T> List<T> run(String[] dexName, int threads, final Task<T> task) {
+        long start = SystemClock.elapsedRealtime();
+        threads = threadCount(threads, dexName.length);
+        List<T> result = new ArrayList<>(dexName.length);
+        if (threads == 1) {
+            for (String name : dexName) {
+                result.add(decrypt(name, task));
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "dex-decrypt-" + count.incrementAndGet());
+                }
+            });
+            try {
+                List<Future<T>> futures = new ArrayList<>(dexName.length);
+                for (final String name : dexName) {
+                    futures.add(executor.submit(new Callable<T>() {
+                        @Override
+                        public T call() throws Exception {
+                            return decrypt(name, task);
+                        }
+                    }));
+                }
+                for (Future<T> future : futures) {
+                    try {
+                        result.add(future.get());
+                    } catch (ExecutionException e) {
+                        e.printStackTrace();
+                        result.add(null);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                e.printStackTrace();
+                while (result.size() < dexName.length) {
+                    result.add(null);
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+        Log.d(TAG, "decrypt " + dexName.length + " dex with " + threads + " threads in "
+                + (SystemClock.elapsedRealtime() - start) + "ms");
+        return result;
+    }
+
+    private static <T> T decrypt(String dexName, Task<T> task) {
+        long start = SystemClock.elapsedRealtime();
+        T result = null;
+        try {
+            result = task.decrypt(dexName);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        Log.d(TAG, "decrypt " + dexName + " " + (SystemClock.elapsedRealtime() - start) + "ms ("
+                + Thread.currentThread().getName() + ")" + (result == null ? " failure" : ""));
+        return result;
+    }
+}
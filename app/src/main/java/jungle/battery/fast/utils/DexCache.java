@@ -0,0 +1,248 @@
+package jungle.battery.fast.utils;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * 解密后的dex和优化后的odex/oat缓存
+ * <p>
+ * 解密后的dex保留在应用私有目录中，DexClassLoader下次启动时直接使用已经优化过的文件，不需要再次解密和dex2oat。
+ * 缓存按PackageInfo.lastUpdateTime和versionCode区分：加密数据在APK中，只有安装和更新才会改变，
+ * 而安装和更新都会改变lastUpdateTime，所以不需要计算加密数据的摘要。启动时只检查清单和dex头，
+ * 不读取加密数据；不匹配或dex损坏时清空缓存重新解密。
+ * <pre>
+ * apktoolplus_cache/manifest   清单，最后写入
+ * apktoolplus_cache/dex/       解密后的dex
+ * apktoolplus_cache/odex/      DexClassLoader的optimizedDirectory
+ * </pre>
+ *
+ * @author linchaolong
+ */
+public class DexCache {
+
+    private static final String TAG = "ApkProtect";
+
+    private static final String CACHE_DIR = "apktoolplus_cache";
+    private static final String MANIFEST = "manifest";
+    private static final String KEY_UPDATE_TIME = "updateTime";
+    private static final String KEY_VERSION_CODE = "versionCode";
+    private static final String KEY_DEX_COUNT = "dex.count";
+    private static final String KEY_DEX = "dex.";
+    //dex头：magic "dex\n"，file_size在偏移32
+    private static final byte[] DEX_MAGIC = {0x64, 0x65, 0x78, 0x0a};
+    private static final int DEX_FILE_SIZE_OFFSET = 32;
+
+    private final Context context;
+    private final File dir;
+
+    public DexCache(Context context) {
+        this.context = context;
+        this.dir = context.getDir(CACHE_DIR, Context.MODE_PRIVATE);
+    }
+
+    public File getDexDir() {
+        File dexDir = new File(dir, "dex");
+        if (!dexDir.exists()) {
+            dexDir.mkdirs();
+        }
+        return dexDir;
+    }
+
+    /**
+     * 解密后的dex文件
+     *
+     * @param dexName 加密的dex文件名
+     */
+    public File getDexFile(String dexName) {
+        return new File(getDexDir(), dexName.replace("jar", "dex"));
+    }
+
+    public File getOdexDir() {
+        File odexDir = new File(dir, "odex");
+        if (!odexDir.exists()) {
+            odexDir.mkdirs();
+        }
+        return odexDir;
+    }
+
+    /**
+     * 检查缓存
+     *
+     * @param dexName 加密的dex文件名
+     * @return 缓存有效时返回解密后的dex，否则返回null
+     */
+    public List<File> load(String[] dexName) {
+        File manifestFile = new File(dir, MANIFEST);
+        if (!manifestFile.exists()) {
+            return null;
+        }
+        Properties manifest = new Properties();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(manifestFile);
+            manifest.load(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            IO.close(in);
+        }
+        PackageInfo packageInfo = getPackageInfo();
+        if (packageInfo == null
+                || !String.valueOf(packageInfo.lastUpdateTime).equals(manifest.getProperty(KEY_UPDATE_TIME))
+                || !String.valueOf(packageInfo.versionCode).equals(manifest.getProperty(KEY_VERSION_CODE))
+                || !String.valueOf(dexName.length).equals(manifest.getProperty(KEY_DEX_COUNT))) {
+            Log.d(TAG, "dex cache outdated");
+            return null;
+        }
+        List<File> files = new ArrayList<>(dexName.length);
+        for (int i = 0; i < dexName.length; i++) {
+            File dexFile = getDexFile(dexName[i]);
+            if (!dexName[i].equals(manifest.getProperty(KEY_DEX + i)) || !isDexValid(dexFile)) {
+                Log.e(TAG, "dex cache corrupted : " + dexName[i]);
+                return null;
+            }
+            files.add(dexFile);
+        }
+        return files;
+    }
+
+    /**
+     * 解密完成后写入清单，清单写入之前缓存都是无效的
+     *
+     * @param dexName 加密的dex文件名
+     */
+    public boolean save(String[] dexName) {
+        PackageInfo packageInfo = getPackageInfo();
+        if (packageInfo == null) {
+            return false;
+        }
+        Properties manifest = new Properties();
+        manifest.setProperty(KEY_UPDATE_TIME, String.valueOf(packageInfo.lastUpdateTime));
+        manifest.setProperty(KEY_VERSION_CODE, String.valueOf(packageInfo.versionCode));
+        manifest.setProperty(KEY_DEX_COUNT, String.valueOf(dexName.length));
+        for (int i = 0; i < dexName.length; i++) {
+            manifest.setProperty(KEY_DEX + i, dexName[i]);
+        }
+        File tempFile = new File(dir, MANIFEST + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            manifest.store(out, null);
+            out.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            IO.close(out);
+        }
+        return tempFile.renameTo(new File(dir, MANIFEST));
+    }
+
+    /**
+     * 把已经在内存中解密的dex写入缓存并保存清单，供下次启动使用
+     *
+     * @param dexName    加密的dex文件名
+     * @param dexBuffers 解密后的dex，与dexName顺序相同，不改变position
+     */
+    public boolean save(String[] dexName, ByteBuffer[] dexBuffers) {
+        for (int i = 0; i < dexName.length; i++) {
+            File dexFile = getDexFile(dexName[i]);
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(dexFile);
+                FileChannel channel = out.getChannel();
+                ByteBuffer buffer = dexBuffers[i].duplicate();
+                buffer.position(0);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            } finally {
+                IO.close(out);
+            }
+            if (!isDexValid(dexFile)) {
+                Log.e(TAG, "dex cache write failure : " + dexName[i]);
+                return false;
+            }
+        }
+        return save(dexName);
+    }
+
+    /**
+     * 删除清单、dex和odex
+     */
+    public void clear() {
+        new File(dir, MANIFEST).delete();
+        deleteDir(new File(dir, "dex"));
+        deleteDir(new File(dir, "odex"));
+    }
+
+    private PackageInfo getPackageInfo() {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 只读取dex头，magic正确且文件大小与头中的file_size一致
+     */
+    static boolean isDexValid(File dexFile) {
+        if (!dexFile.isFile() || dexFile.length() < DEX_FILE_SIZE_OFFSET + 4) {
+            return false;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(dexFile, "r");
+            byte[] header = new byte[DEX_FILE_SIZE_OFFSET + 4];
+            raf.readFully(header);
+            for (int i = 0; i < DEX_MAGIC.length; i++) {
+                if (header[i] != DEX_MAGIC[i]) {
+                    return false;
+                }
+            }
+            long fileSize = (header[DEX_FILE_SIZE_OFFSET] & 0xffL)
+                    | (header[DEX_FILE_SIZE_OFFSET + 1] & 0xffL) << 8
+                    | (header[DEX_FILE_SIZE_OFFSET + 2] & 0xffL) << 16
+                    | (header[DEX_FILE_SIZE_OFFSET + 3] & 0xffL) << 24;
+            return fileSize == dexFile.length();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IO.close(raf);
+        }
+        return false;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDir(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+}
@@ -1,6 +1,8 @@
 package jungle.battery.fast.utils;
 
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
 import android.util.Log;
 
 import java.io.ByteArrayOutputStream;
@@ -12,7 +14,10 @@ import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import dalvik.system.DexClassLoader;
@@ -113,24 +118,44 @@ public class DexDecrypt {
         try {
             //通过反射修改ActivityThread中LoadedApk的ClassLoader字段
             ClassLoader appClassLoader =  ClassLoader.getSystemClassLoader();
-            String pahts="";
-            for (int i = 0; i < dexName.length; i++) {
-                String dexExtName=dexName[i].replace("jar","dex");
-                pahts+=createEncryptDexLoader(dexName[i],context.getAssets().open("libprotected.jar/" + dexName[i]), dexExtName, appClassLoader)+":"; // 优先系统的
+            // 解密后的dex和odex保留在缓存中，安装/更新后或缓存损坏时才重新解密
+            DexCache dexCache = new DexCache(context);
+            List<File> dexFiles = dexCache.load(dexName);
+            if (dexFiles != null) {
+                Log.d(TAG, "dex cache hit");
+            } else {
+                dexCache.clear();
+                // API 26+缓存未命中时在内存中加载，不等待写入磁盘；缓存在后台写入，下次启动使用优化过的dex
+                if (InMemoryDex.isSupported()) {
+                    ClassLoader memoryClassLoader = loadEncryptDexInMemory(dexName, appClassLoader, dexCache);
+                    if (memoryClassLoader != null) {
+                        setAppClassLoader(memoryClassLoader);// 修改当前ClassLoader为自定义ClassLoader
+                        return memoryClassLoader;
+                    }
+                    Log.w(TAG, "load dex in memory failure, fall back to DexClassLoader");
+                }
+                dexFiles = decryptToCache(dexName, dexCache);
+            }
+            StringBuilder pahts = new StringBuilder();
+            for (File dexFile : dexFiles) {
+                if (pahts.length() > 0) {
+                    pahts.append(File.pathSeparatorChar);
+                }
+                pahts.append(dexFile.getPath());
             }
             // 经过优化的dex输出目录
-            File odexDir = context.getDir("apktoolplus_odex", Context.MODE_PRIVATE);
+            File odexDir = dexCache.getOdexDir();
             // libs目录
             String libPath = context.getApplicationInfo().nativeLibraryDir;
             // 创建类加载器，加载解密后的dex文件
             ClassLoader dexClassLoader;
             if (appClassLoader != null) {
-                dexClassLoader = new DexClassLoader(pahts, odexDir.getAbsolutePath(), libPath, appClassLoader);
+                dexClassLoader = new DexClassLoader(pahts.toString(), odexDir.getAbsolutePath(), libPath, appClassLoader);
             } else {
-                dexClassLoader = new DexClassLoader(pahts, odexDir.getAbsolutePath(), libPath, context.getClassLoader());
+                dexClassLoader = new DexClassLoader(pahts.toString(), odexDir.getAbsolutePath(), libPath, context.getClassLoader());
             }
             setAppClassLoader(dexClassLoader);// 修改当前ClassLoader为自定义ClassLoader
-            // 删除解密后的dex文件
+            // 删除旧版本解密到apktoolplus_dex中的dex文件
             deleteDir(context.getDir("apktoolplus_dex", Context.MODE_PRIVATE));
             return dexClassLoader;
         } catch (Exception e) {
@@ -139,6 +164,82 @@ public class DexDecrypt {
         return null;
     }
 
+    /**
+     * 解密所有dex到缓存目录，全部成功后写入缓存清单
+     *
+     * @param dexName  加密的dex文件名
+     * @param dexCache 缓存
+     * @return 解密后的dex文件，顺序与dexName一致
+     */
+    private List<File> decryptToCache(String[] dexName, final DexCache dexCache) {
+        List<File> decrypted = DecryptPool.run(dexName, getDecryptThreads(), new DecryptPool.Task<File>() {
+            @Override
+            public File decrypt(String name) throws Exception {
+                File dexFile = dexCache.getDexFile(name);
+                createEncryptDexLoader(name, AESHelper.openAsset(context, "libprotected.jar/" + name), dexFile.getName(), dexFile.getParentFile());
+                return DexCache.isDexValid(dexFile) ? dexFile : null;
+            }
+        });
+        List<File> dexFiles = new ArrayList<>(dexName.length);
+        for (String name : dexName) {
+            dexFiles.add(dexCache.getDexFile(name));
+        }
+        if (!decrypted.contains(null)) {
+            dexCache.save(dexName);
+        }
+        return dexFiles;
+    }
+
+    /**
+     * 解密线程数，AndroidManifest中meta-data apktoolplus_dex_threads，默认0（CPU核数，最多4个）
+     */
+    private int getDecryptThreads() {
+        try {
+            ApplicationInfo applicationInfo = context.getPackageManager().getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
+            if (applicationInfo != null && applicationInfo.metaData != null) {
+                return applicationInfo.metaData.getInt("apktoolplus_dex_threads", 0);
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * 解密到内存并用InMemoryDexClassLoader加载
+     *
+     * @param dexName  加密的dex文件名
+     * @param parent   父类加载器
+     * @param dexCache 加载成功后在后台写入的缓存
+     * @return 不支持或失败时返回null
+     */
+    private ClassLoader loadEncryptDexInMemory(final String[] dexName, ClassLoader parent, final DexCache dexCache) {
+        List<ByteBuffer> buffers = DecryptPool.run(dexName, getDecryptThreads(), new DecryptPool.Task<ByteBuffer>() {
+            @Override
+            public ByteBuffer decrypt(String name) throws Exception {
+                return AESHelper.decryptDexToMemory(context, name, AESHelper.openAsset(context, "libprotected.jar/" + name));
+            }
+        });
+        if (buffers.contains(null)) {
+            return null;
+        }
+        final ByteBuffer[] dexBuffers = buffers.toArray(new ByteBuffer[buffers.size()]);
+        String libPath = context.getApplicationInfo().nativeLibraryDir;
+        ClassLoader classLoader = InMemoryDex.createClassLoader(dexBuffers, libPath,
+                parent != null ? parent : context.getClassLoader(), context.getClassLoader());
+        if (classLoader != null) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (!dexCache.save(dexName, dexBuffers)) {
+                        dexCache.clear();
+                    }
+                }
+            }, "dex-cache-writer").start();
+        }
+        return classLoader;
+    }
+
     /**
      * 在内存在加载加密的dex文件
      *
@@ -199,9 +300,21 @@ public class DexDecrypt {
      * @return ClassLoader
      */
     public String createEncryptDexLoader(String filename,InputStream in, String outFileName, ClassLoader parent) {
+        return createEncryptDexLoader(filename, in, outFileName, context.getDir("apktoolplus_dex", Context.MODE_PRIVATE));
+    }
+
+    /**
+     * 解密dex文件到指定目录
+     *
+     * @param in          加密的dex文件的输入流
+     * @param outFileName 解密文件输入名称
+     * @param outDir      输出目录
+     * @return 解密后的文件路径
+     */
+    public String createEncryptDexLoader(String filename, InputStream in, String outFileName, File outDir) {
 
         // 解密dex文件的File对象
-        File decryptFile = new File(context.getDir("apktoolplus_dex", Context.MODE_PRIVATE), outFileName);
+        File decryptFile = new File(outDir, outFileName);
         // 解密dex文件
         DexDecrypt.decryptDex(context,filename,in, decryptFile);
 
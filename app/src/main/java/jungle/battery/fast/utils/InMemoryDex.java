@@ -0,0 +1,156 @@
+package jungle.battery.fast.utils;
+
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 内存中加载解密后的dex（InMemoryDexClassLoader），解密的dex不写入磁盘
+ * <p>
+ * 编译用的SDK低于26，相关API都通过反射调用：
+ * <ul>
+ * <li>API 30+：dex放在memfd映射的内存中（不占Java堆），失败时使用直接缓冲区</li>
+ * <li>API 29+：InMemoryDexClassLoader(ByteBuffer[], String, ClassLoader)，支持so路径</li>
+ * <li>API 27/28：InMemoryDexClassLoader(ByteBuffer[], ClassLoader)，so路径从应用的ClassLoader复制</li>
+ * <li>API 26：InMemoryDexClassLoader(ByteBuffer, ClassLoader)，只支持一个dex</li>
+ * <li>更低版本：返回null，使用原来的DexClassLoader</li>
+ * </ul>
+ *
+ * @author linchaolong
+ */
+public class InMemoryDex {
+
+    private static final String TAG = "ApkProtect";
+
+    private static final String CLASS_NAME = "dalvik.system.InMemoryDexClassLoader";
+    private static final int API_O = 26;
+    private static final int API_O_MR1 = 27;
+    private static final int API_Q = 29;
+    private static final int API_R = 30;
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= API_O;
+    }
+
+    /**
+     * 分配存放一个dex的缓冲区，position为0，limit为size
+     *
+     * @param name 用于memfd名称
+     * @param size dex大小
+     */
+    public static ByteBuffer allocate(String name, int size) {
+        if (Build.VERSION.SDK_INT >= API_R) {
+            ByteBuffer buffer = allocateMemfd(name, size);
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * memfd_create + mmap，内存不计入Java堆，映射在fd关闭后仍然有效
+     */
+    private static ByteBuffer allocateMemfd(String name, int size) {
+        FileDescriptor fd = null;
+        ParcelFileDescriptor pfd = null;
+        RandomAccessFile raf = null;
+        try {
+            Class<?> osClass = Class.forName("android.system.Os");
+            Method memfdCreate = osClass.getMethod("memfd_create", String.class, int.class);
+            fd = (FileDescriptor) memfdCreate.invoke(null, name, 0);
+            pfd = ParcelFileDescriptor.dup(fd);
+            raf = new RandomAccessFile("/proc/self/fd/" + pfd.getFd(), "rw");
+            raf.setLength(size);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (Exception e) {
+            Log.w(TAG, "memfd allocate failure : " + e);
+        } finally {
+            IO.close(raf);
+            IO.close(pfd);
+            closeFd(fd);
+        }
+        return null;
+    }
+
+    private static void closeFd(FileDescriptor fd) {
+        if (fd == null) {
+            return;
+        }
+        try {
+            Class.forName("android.system.Os").getMethod("close", FileDescriptor.class).invoke(null, fd);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 创建InMemoryDexClassLoader
+     *
+     * @param dexBuffers  解密后的dex，position为0
+     * @param libPath     so目录
+     * @param parent      父类加载器
+     * @param appLoader   应用原来的ClassLoader，API 27/28从它复制so路径
+     * @return 不支持或失败时返回null
+     */
+    public static ClassLoader createClassLoader(ByteBuffer[] dexBuffers, String libPath, ClassLoader parent, ClassLoader appLoader) {
+        if (!isSupported() || dexBuffers.length == 0) {
+            return null;
+        }
+        try {
+            Class<?> loaderClass = Class.forName(CLASS_NAME);
+            if (Build.VERSION.SDK_INT >= API_Q) {
+                Constructor<?> constructor = loaderClass.getConstructor(ByteBuffer[].class, String.class, ClassLoader.class);
+                return (ClassLoader) constructor.newInstance(dexBuffers, libPath, parent);
+            }
+            ClassLoader loader;
+            if (Build.VERSION.SDK_INT >= API_O_MR1) {
+                Constructor<?> constructor = loaderClass.getConstructor(ByteBuffer[].class, ClassLoader.class);
+                loader = (ClassLoader) constructor.newInstance(dexBuffers, parent);
+            } else if (dexBuffers.length == 1) {
+                Constructor<?> constructor = loaderClass.getConstructor(ByteBuffer.class, ClassLoader.class);
+                loader = (ClassLoader) constructor.newInstance(dexBuffers[0], parent);
+            } else {
+                // API 26只能加载一个dex，多个ClassLoader之间互相看不到类
+                return null;
+            }
+            if (!copyNativeLibraryPath(appLoader, loader)) {
+                // 找不到so时原应用的System.loadLibrary会失败
+                return null;
+            }
+            return loader;
+        } catch (Exception e) {
+            Log.w(TAG, "InMemoryDexClassLoader failure : " + e);
+        }
+        return null;
+    }
+
+    /**
+     * API 29之前InMemoryDexClassLoader没有so路径，使用应用ClassLoader（PathClassLoader）的DexPathList中的so路径
+     */
+    private static boolean copyNativeLibraryPath(ClassLoader from, ClassLoader to) {
+        try {
+            Class<?> baseClass = Class.forName("dalvik.system.BaseDexClassLoader");
+            Class<?> pathListClass = Class.forName("dalvik.system.DexPathList");
+            Object fromPathList = Reflect.getFieldValue(baseClass, from, "pathList");
+            Object toPathList = Reflect.getFieldValue(baseClass, to, "pathList");
+            if (fromPathList == null || toPathList == null) {
+                return false;
+            }
+            return Reflect.setFieldValue(pathListClass, toPathList, "nativeLibraryDirectories",
+                    Reflect.getFieldValue(pathListClass, fromPathList, "nativeLibraryDirectories"))
+                    && Reflect.setFieldValue(pathListClass, toPathList, "nativeLibraryPathElements",
+                    Reflect.getFieldValue(pathListClass, fromPathList, "nativeLibraryPathElements"));
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+}
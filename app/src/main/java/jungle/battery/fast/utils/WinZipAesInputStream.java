@@ -0,0 +1,289 @@
+package jungle.battery.fast.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 流式解密加密zip中的第一个条目（WinZip AES，AE-1/AE-2，即加固时DataProtector.encrypt的格式）
+ * <p>
+ * 密文按块读取、校验HMAC、解密、解压，只使用固定大小的缓冲区，不需要临时文件。
+ * 数据读完时校验HMAC，不一致时抛出IOException。
+ *
+ * @author linchaolong
+ */
+public class WinZipAesInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int AES_METHOD = 99;
+    private static final int AES_EXTRA_ID = 0x9901;
+    private static final int AES_VERIFIER_LENGTH = 2;
+    private static final int AES_MAC_LENGTH = 10;
+    private static final int AES_ITERATIONS = 1000;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    //bit 3: 大小写在数据之后
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+
+    /**
+     * 不是支持的格式（如旧版本的加密数据），数据没有被读取超过本地文件头
+     */
+    public static class UnsupportedFormatException extends IOException {
+        public UnsupportedFormatException(String message) {
+            super(message);
+        }
+    }
+
+    private final InputStream in;
+    private final Cipher cipher;
+    private final Mac mac;
+    private final Inflater inflater;
+    private final long size;
+    // 缓冲区大小是16的整数倍，除最后一次外每次都按整块解密
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] counters = new byte[BUFFER_SIZE + 16];
+    private final byte[] keyStream = new byte[BUFFER_SIZE + 16];
+    private int keyStreamPos;
+    private int keyStreamLength;
+    private long counter = 1;
+    // 剩余的密文长度
+    private long remaining;
+    private int bufferPos;
+    private int bufferLength;
+    private long count;
+    private boolean finished;
+
+    /**
+     * 读取本地文件头和密钥校验值
+     *
+     * @param in       加密zip
+     * @param password 密码
+     * @throws UnsupportedFormatException 不是WinZip AES或没有写入大小
+     */
+    public WinZipAesInputStream(InputStream in, String password) throws IOException {
+        this.in = in;
+        byte[] header = new byte[LOCAL_HEADER_LENGTH];
+        readFully(header, 0, header.length);
+        if (readInt(header, 0) != LOCAL_HEADER_SIG || readShort(header, 8) != AES_METHOD) {
+            throw new UnsupportedFormatException("not a WinZip AES entry");
+        }
+        long compressedSize = readInt(header, 18) & 0xffffffffL;
+        if ((readShort(header, 6) & FLAG_DATA_DESCRIPTOR) != 0 && compressedSize == 0) {
+            throw new UnsupportedFormatException("entry size not in local header");
+        }
+        size = readInt(header, 22) & 0xffffffffL;
+        int nameLength = readShort(header, 26);
+        int extraLength = readShort(header, 28);
+        byte[] nameAndExtra = new byte[nameLength + extraLength];
+        readFully(nameAndExtra, 0, nameAndExtra.length);
+
+        int strength = -1;
+        int method = -1;
+        for (int pos = nameLength; pos + 4 <= nameAndExtra.length; ) {
+            int id = readShort(nameAndExtra, pos);
+            int length = readShort(nameAndExtra, pos + 2);
+            if (id == AES_EXTRA_ID && length >= 7 && pos + 4 + length <= nameAndExtra.length) {
+                strength = nameAndExtra[pos + 8] & 0xff;
+                method = readShort(nameAndExtra, pos + 9);
+            }
+            pos += 4 + length;
+        }
+        if (strength < 1 || strength > 3 || (method != METHOD_STORED && method != METHOD_DEFLATED)) {
+            throw new UnsupportedFormatException("unsupported AES extra field");
+        }
+        // 1: AES-128 2: AES-192 3: AES-256
+        int keyLength = 8 + strength * 8;
+        int saltLength = 4 + strength * 4;
+        remaining = compressedSize - saltLength - AES_VERIFIER_LENGTH - AES_MAC_LENGTH;
+        if (remaining < 0) {
+            throw new IOException("entry too short");
+        }
+
+        byte[] salt = new byte[saltLength];
+        readFully(salt, 0, salt.length);
+        byte[] verifier = new byte[AES_VERIFIER_LENGTH];
+        readFully(verifier, 0, verifier.length);
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+            byte[] derivedKey = factory.generateSecret(new PBEKeySpec(password.toCharArray(), salt, AES_ITERATIONS,
+                    (keyLength * 2 + AES_VERIFIER_LENGTH) * 8)).getEncoded();
+            if (derivedKey[keyLength * 2] != verifier[0] || derivedKey[keyLength * 2 + 1] != verifier[1]) {
+                throw new IOException("wrong password");
+            }
+            cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(derivedKey, 0, keyLength, "AES"));
+            mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(derivedKey, keyLength, keyLength, "HmacSHA1"));
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        inflater = method == METHOD_DEFLATED ? new Inflater(true) : null;
+    }
+
+    /**
+     * 解密后的大小
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (finished) {
+            return -1;
+        }
+        int n;
+        if (inflater == null) {
+            if (bufferPos == bufferLength && !fill()) {
+                return end();
+            }
+            n = Math.min(len, bufferLength - bufferPos);
+            System.arraycopy(buffer, bufferPos, b, off, n);
+            bufferPos += n;
+        } else {
+            try {
+                while ((n = inflater.inflate(b, off, len)) == 0) {
+                    if (inflater.finished() || inflater.needsDictionary()) {
+                        return end();
+                    }
+                    if (inflater.needsInput()) {
+                        if (!fill()) {
+                            throw new EOFException("unexpected end of deflate data");
+                        }
+                        inflater.setInput(buffer, 0, bufferLength);
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            }
+        }
+        count += n;
+        return n;
+    }
+
+    /**
+     * 读取并解密下一块密文
+     *
+     * @return 密文已读完时返回false
+     */
+    private boolean fill() throws IOException {
+        if (remaining == 0) {
+            return false;
+        }
+        int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (n == -1) {
+            throw new EOFException("unexpected end of encrypted data");
+        }
+        remaining -= n;
+        mac.update(buffer, 0, n);
+        decrypt(buffer, n);
+        bufferPos = 0;
+        bufferLength = n;
+        return true;
+    }
+
+    /**
+     * WinZip AES的CTR模式：计数器为小端序，从1开始；上次剩余的密钥流先使用
+     */
+    private void decrypt(byte[] data, int length) throws IOException {
+        int i = 0;
+        while (i < length && keyStreamPos < keyStreamLength) {
+            data[i++] ^= keyStream[keyStreamPos++];
+        }
+        if (i == length) {
+            return;
+        }
+        int blocks = (length - i + 15) / 16;
+        for (int block = 0; block < blocks; block++) {
+            long value = counter++;
+            for (int j = 0; j < 16; j++) {
+                counters[block * 16 + j] = j < 8 ? (byte) (value >>> (8 * j)) : 0;
+            }
+        }
+        try {
+            cipher.update(counters, 0, blocks * 16, keyStream, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        keyStreamPos = 0;
+        keyStreamLength = blocks * 16;
+        while (i < length) {
+            data[i++] ^= keyStream[keyStreamPos++];
+        }
+    }
+
+    /**
+     * 读完剩余密文，校验HMAC和大小
+     */
+    private int end() throws IOException {
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n == -1) {
+                throw new EOFException("unexpected end of encrypted data");
+            }
+            remaining -= n;
+            mac.update(buffer, 0, n);
+        }
+        byte[] expected = new byte[AES_MAC_LENGTH];
+        readFully(expected, 0, expected.length);
+        byte[] actual = mac.doFinal();
+        byte[] actualPrefix = new byte[AES_MAC_LENGTH];
+        System.arraycopy(actual, 0, actualPrefix, 0, AES_MAC_LENGTH);
+        if (!MessageDigest.isEqual(expected, actualPrefix)) {
+            throw new IOException("authentication code mismatch");
+        }
+        if (count != size) {
+            throw new IOException("size mismatch : " + count + " != " + size);
+        }
+        finished = true;
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) {
+            inflater.end();
+        }
+        in.close();
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = in.read(b, off, len);
+            if (n == -1) {
+                throw new EOFException();
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    private static int readShort(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+}
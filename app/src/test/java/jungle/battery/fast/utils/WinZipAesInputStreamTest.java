@@ -0,0 +1,94 @@
+package jungle.battery.fast.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 解密加固时DataProtector.encrypt的输出
+ * <p>
+ * classes2.dex由lib中的DataProtector.encrypt(new ByteArrayInputStream(original()), "classes2.dex", file)生成，
+ * DataProtector的输出格式改变时需要重新生成。
+ */
+public class WinZipAesInputStreamTest {
+
+    private static final String PASSWORD = "libprotected";
+    private static final String FIXTURE = "classes2.dex";
+
+    /**
+     * 加密前的数据，大于解密缓冲区，一部分可压缩
+     */
+    static byte[] original() {
+        Random random = new Random(1);
+        byte[] text = "public final class Synthetic { int value; }\n".getBytes();
+        byte[] data = new byte[150 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i % 3 == 0 ? (byte) random.nextInt() : text[i % text.length];
+        }
+        return data;
+    }
+
+    @Test
+    public void decryptsDataProtectorOutput() throws Exception {
+        WinZipAesInputStream in = new WinZipAesInputStream(fixture(), PASSWORD);
+        try {
+            assertEquals(original().length, in.getSize());
+            assertArrayEquals(original(), readFully(in, 1000));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void rejectsTamperedData() throws Exception {
+        byte[] data = readFully(fixture(), 4096);
+        data[data.length / 2] ^= 1;
+        WinZipAesInputStream in = new WinZipAesInputStream(new ByteArrayInputStream(data), PASSWORD);
+        try {
+            readFully(in, 4096);
+            fail("tampered data decrypted");
+        } catch (IOException expected) {
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsWrongPassword() throws Exception {
+        new WinZipAesInputStream(fixture(), "wrong").close();
+    }
+
+    @Test(expected = WinZipAesInputStream.UnsupportedFormatException.class)
+    public void rejectsOtherFormats() throws Exception {
+        new WinZipAesInputStream(new ByteArrayInputStream(original()), PASSWORD).close();
+    }
+
+    private InputStream fixture() {
+        InputStream in = getClass().getResourceAsStream(FIXTURE);
+        if (in == null) {
+            throw new IllegalStateException("fixture not found : " + FIXTURE);
+        }
+        return in;
+    }
+
+    /**
+     * 每次最多读取step字节，覆盖跨缓冲区的读取
+     */
+    private static byte[] readFully(InputStream in, int step) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[step];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+}
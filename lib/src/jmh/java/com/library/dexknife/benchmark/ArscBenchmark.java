@@ -0,0 +1,93 @@
+package com.library.dexknife.benchmark;
+
+import com.library.dexknife.shell.res.ApkDecoder;
+import com.library.dexknife.shell.res.Configuration;
+import com.library.dexknife.shell.res.data.ResPackage;
+import com.library.dexknife.shell.res.decoder.ARSCDecoder;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AndResGuard资源混淆：ARSCDecoder.decode（读取资源表、混淆并复制res文件）和write（写出新的resources.arsc）
+ * <p>
+ * ApkDecoder的工作目录在setup中由一次完整的decode建立。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArscBenchmark {
+
+    //混淆配置，不使用白名单和keepmapping
+    private static final String CONFIG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<resproguard>\n"
+            + "    <issue id=\"property\">\n"
+            + "        <seventzip value=\"false\"/>\n"
+            + "        <metaname value=\"META-INF\"/>\n"
+            + "        <keeproot value=\"false\"/>\n"
+            + "    </issue>\n"
+            + "</resproguard>\n";
+
+    @Param({"small", "medium"})
+    public String scale;
+
+    private byte[] arsc;
+    private ApkDecoder decoder;
+    private ResPackage[] packages;
+
+    @Setup
+    public void setup() throws Exception {
+        File apk = Fixtures.apk(scale);
+        File dir = Fixtures.dir("arsc_" + scale);
+        File config = new File(dir, "andresguard.xml");
+        FileUtils.writeStringToFile(config, CONFIG, "UTF-8");
+        decoder = new ApkDecoder(new Configuration(config, null, null, null, null, null));
+        decoder.setApkFile(apk);
+        decoder.setOutDir(new File(dir, "out"));
+        decoder.decode();
+        arsc = SyntheticApk.of(scale).resourceTable();
+        decoder.getTableStringsProguard().clear();
+        packages = ARSCDecoder.decode(new ByteArrayInputStream(arsc), decoder);
+    }
+
+    /**
+     * decode会跳过已混淆过的路径，每次调用前清空
+     */
+    @State(Scope.Thread)
+    public static class TableStrings {
+
+        @Setup(Level.Invocation)
+        public void clear(ArscBenchmark benchmark) {
+            benchmark.decoder.getTableStringsProguard().clear();
+        }
+    }
+
+    @Benchmark
+    public ResPackage[] decode(TableStrings tableStrings) throws Exception {
+        return ARSCDecoder.decode(new ByteArrayInputStream(arsc), decoder);
+    }
+
+    @Benchmark
+    public File write() throws Exception {
+        ARSCDecoder.write(new ByteArrayInputStream(arsc), decoder, packages);
+        return decoder.getOutARSCFile();
+    }
+}
@@ -0,0 +1,62 @@
+package com.library.dexknife.benchmark;
+
+import com.library.dexknife.shell.utils.DataProtector;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DataProtector加密：文件加密（压缩+AES，加固时加密dex用的路径）和内存中的异或加密
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DataProtectorBenchmark {
+
+    @Param({"65536", "1048576", "8388608"})
+    public int size;
+
+    private byte[] data;
+    private File input;
+    private File output;
+
+    @Setup
+    public void setup() throws IOException {
+        data = SyntheticApk.payload(new Random(1), size);
+        File dir = Fixtures.dir("data_protector_" + size);
+        input = new File(dir, "classes.dex");
+        output = new File(dir, "classes.jar");
+        FileUtils.writeByteArrayToFile(input, data);
+    }
+
+    @Benchmark
+    public File encryptFile() {
+        DataProtector.encrypt(input, output);
+        return output;
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public byte[] encryptBytes() {
+        //原地异或，重复调用只是来回切换，不影响耗时
+        return DataProtector.encrypt(data);
+    }
+}
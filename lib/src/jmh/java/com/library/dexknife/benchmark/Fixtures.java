@@ -0,0 +1,54 @@
+package com.library.dexknife.benchmark;
+
+import com.library.dexknife.shell.utils.FileHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * 基准测试的输入文件
+ * <p>
+ * 每个规模的合成apk在一个JVM中只生成一次，放在临时目录中，JVM退出时删除。
+ */
+public class Fixtures {
+
+    private static File root;
+
+    /**
+     * 合成apk
+     * @param scale 见{@link SyntheticApk#of(String)}
+     */
+    public static synchronized File apk(String scale) throws IOException {
+        File apk = new File(root(), "synthetic_" + scale + ".apk");
+        if (!apk.isFile()) {
+            SyntheticApk.of(scale).write(apk);
+        }
+        return apk;
+    }
+
+    /**
+     * 新建空目录
+     * @param name
+     */
+    public static synchronized File dir(String name) throws IOException {
+        File dir = new File(root(), name);
+        FileHelper.delete(dir);
+        dir.mkdirs();
+        return dir;
+    }
+
+    private static File root() throws IOException {
+        if (root == null) {
+            root = Files.createTempDirectory("dexknife-jmh").toFile();
+            final File dir = root;
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    FileHelper.delete(dir);
+                }
+            }));
+        }
+        return root;
+    }
+}
@@ -0,0 +1,96 @@
+package com.library.dexknife.benchmark;
+
+import com.library.dexknife.shell.apkparser.parser.BinaryXmlParser;
+import com.library.dexknife.shell.apkparser.parser.DexParser;
+import com.library.dexknife.shell.apkparser.parser.ResourceTableParser;
+import com.library.dexknife.shell.apkparser.parser.XmlTranslator;
+import com.library.dexknife.shell.apkparser.struct.resource.ResourceTable;
+import com.library.dexknife.shell.res.decoder.StringBlock;
+import com.library.dexknife.shell.res.ledatastream.LEDataInputStream;
+import com.library.dexknife.shell.res.util.ExtDataInput;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内存中的解析：二进制xml、resources.arsc、dex和字符串池，不含IO
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"small", "medium", "large"})
+    public String scale;
+
+    private byte[] manifest;
+    private byte[] resourceTable;
+    private byte[] dex;
+    private byte[] stringPool;
+    private ResourceTable table;
+
+    @Setup
+    public void setup() {
+        SyntheticApk apk = SyntheticApk.of(scale);
+        manifest = apk.manifest();
+        resourceTable = apk.resourceTable();
+        dex = apk.dex();
+        List<String> strings = new ArrayList<>(apk.drawableCount);
+        for (int i = 0; i < apk.drawableCount; i++) {
+            strings.add(SyntheticApk.drawablePath(i));
+        }
+        stringPool = SyntheticApk.stringPool(strings, true);
+        table = parseResourceTable();
+    }
+
+    @Benchmark
+    public String binaryXmlParse() {
+        BinaryXmlParser parser = new BinaryXmlParser(ByteBuffer.wrap(manifest), table);
+        XmlTranslator translator = new XmlTranslator();
+        parser.setXmlStreamer(translator);
+        parser.parse();
+        return translator.getXml();
+    }
+
+    @Benchmark
+    public ResourceTable resourceTableParse() {
+        return parseResourceTable();
+    }
+
+    @Benchmark
+    public Object dexParse() {
+        DexParser parser = new DexParser(ByteBuffer.wrap(dex));
+        parser.parse();
+        return parser.getDexClasses();
+    }
+
+    @Benchmark
+    public StringBlock stringBlockRead() throws IOException {
+        return StringBlock.read(new ExtDataInput(new LEDataInputStream(new ByteArrayInputStream(stringPool))));
+    }
+
+    private ResourceTable parseResourceTable() {
+        ResourceTableParser parser = new ResourceTableParser(ByteBuffer.wrap(resourceTable));
+        parser.parse();
+        return parser.getResourceTable();
+    }
+}
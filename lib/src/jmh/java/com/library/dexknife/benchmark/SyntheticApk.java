@@ -0,0 +1,580 @@
+package com.library.dexknife.benchmark;
+
+import com.library.dexknife.shell.utils.IO;
+import com.library.dexknife.shell.utils.ZipWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+/**
+ * 基准测试用的合成apk
+ * <p>
+ * 不依赖aapt和dx，按格式直接生成：
+ * <pre>
+ * AndroidManifest.xml  二进制xml（UTF-16字符串池、资源id表、命名空间、manifest/application/activity）
+ * resources.arsc       资源表（UTF-8字符串池，drawable和string两种类型，drawable指向res/drawable/*.png）
+ * classes.dex          只有string_ids、type_ids、class_defs的dex
+ * res/drawable/*.png   随机内容
+ * assets/payload.bin   随机内容，压缩率与真实apk的资源接近
+ * </pre>
+ * 同样的参数和种子生成的内容完全相同，各版本的测试结果可以直接比较。
+ * 也可以单独运行生成apk：SyntheticApk [输出apk] [规模]
+ */
+public class SyntheticApk {
+
+    public static final String PACKAGE_NAME = "com.library.dexknife.benchmark";
+    public static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_TABLE_TYPE = 0x0002;
+    private static final int RES_XML_TYPE = 0x0003;
+    private static final int RES_XML_START_NAMESPACE_TYPE = 0x0100;
+    private static final int RES_XML_END_NAMESPACE_TYPE = 0x0101;
+    private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+    private static final int RES_XML_END_ELEMENT_TYPE = 0x0103;
+    private static final int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+    private static final int RES_TABLE_PACKAGE_TYPE = 0x0200;
+    private static final int RES_TABLE_TYPE_TYPE = 0x0201;
+    private static final int RES_TABLE_TYPE_SPEC_TYPE = 0x0202;
+
+    private static final int UTF8_FLAG = 0x100;
+    private static final int TYPE_REFERENCE = 0x01;
+    private static final int TYPE_STRING = 0x03;
+    private static final int TYPE_INT_DEC = 0x10;
+    private static final int PACKAGE_ID = 0x7f;
+    //ResTable_config的最小长度
+    private static final int CONFIG_SIZE = 28;
+    private static final int NO_INDEX = 0xffffffff;
+
+    /**
+     * 生成规模
+     */
+    public final int classCount;
+    public final int drawableCount;
+    public final int stringCount;
+    public final int assetSize;
+    public final long seed;
+
+    /**
+     * @param classCount    dex中的类数量
+     * @param drawableCount drawable资源数量（每个对应一个res/drawable/下的文件）
+     * @param stringCount   string资源数量
+     * @param assetSize     assets/payload.bin的大小
+     * @param seed          随机种子
+     */
+    public SyntheticApk(int classCount, int drawableCount, int stringCount, int assetSize, long seed) {
+        this.classCount = classCount;
+        this.drawableCount = drawableCount;
+        this.stringCount = stringCount;
+        this.assetSize = assetSize;
+        this.seed = seed;
+    }
+
+    /**
+     * 预设的规模
+     * @param scale small、medium、large
+     */
+    public static SyntheticApk of(String scale) {
+        if ("small".equals(scale)) {
+            return new SyntheticApk(200, 50, 200, 256 * 1024, 1);
+        } else if ("large".equals(scale)) {
+            return new SyntheticApk(20000, 2000, 10000, 16 * 1024 * 1024, 1);
+        }
+        return new SyntheticApk(2000, 500, 2000, 2 * 1024 * 1024, 1);
+    }
+
+    /**
+     * 写出apk
+     * @param apkFile
+     * @return apkFile
+     */
+    public File write(File apkFile) throws IOException {
+        Random random = new Random(seed);
+        apkFile.getParentFile().mkdirs();
+        ZipWriter writer = new ZipWriter(apkFile);
+        try {
+            writer.putBytes("AndroidManifest.xml", manifest(), true);
+            //aapt不压缩resources.arsc
+            writer.putBytes("resources.arsc", resourceTable(), false);
+            writer.putBytes("classes.dex", dex(), true);
+            for (int i = 0; i < drawableCount; i++) {
+                //png本身已压缩，和aapt一样存储
+                writer.putBytes(drawablePath(i), png(random, 512 + random.nextInt(4096)), false);
+            }
+            writer.putBytes("assets/payload.bin", payload(random, assetSize), true);
+        } finally {
+            IO.close(writer);
+        }
+        return apkFile;
+    }
+
+    public static String drawablePath(int index) {
+        return "res/drawable/icon_" + index + ".png";
+    }
+
+    public static String className(int index) {
+        return "L" + PACKAGE_NAME.replace('.', '/') + "/gen/C" + index + ";";
+    }
+
+    /**
+     * 二进制AndroidManifest.xml
+     */
+    public byte[] manifest() {
+        //有资源id的属性名在字符串池的最前面，与资源id表一一对应
+        List<String> strings = new ArrayList<>();
+        strings.add("versionCode");
+        strings.add("versionName");
+        strings.add("label");
+        strings.add("name");
+        strings.add("android");
+        strings.add(ANDROID_NS);
+        strings.add("manifest");
+        strings.add("package");
+        strings.add("application");
+        strings.add("activity");
+        strings.add(PACKAGE_NAME);
+        strings.add("1.0");
+        int[] attrIds = {0x0101021b, 0x0101021c, 0x01010001, 0x01010003};
+        int activityCount = Math.max(1, classCount / 100);
+        int firstActivity = strings.size();
+        for (int i = 0; i < activityCount; i++) {
+            strings.add(PACKAGE_NAME + ".gen.C" + i);
+        }
+
+        LEBuffer body = new LEBuffer();
+        body.putBytes(stringPool(strings, false));
+
+        body.putShort(RES_XML_RESOURCE_MAP_TYPE);
+        body.putShort(8);
+        body.putInt(8 + attrIds.length * 4);
+        for (int id : attrIds) {
+            body.putInt(id);
+        }
+
+        int prefix = strings.indexOf("android");
+        int uri = strings.indexOf(ANDROID_NS);
+        namespace(body, RES_XML_START_NAMESPACE_TYPE, prefix, uri);
+        startElement(body, strings.indexOf("manifest"), new int[][]{
+                {uri, 0, -1, TYPE_INT_DEC, 1},
+                {uri, 1, strings.indexOf("1.0"), TYPE_STRING, strings.indexOf("1.0")},
+                {-1, strings.indexOf("package"), strings.indexOf(PACKAGE_NAME), TYPE_STRING, strings.indexOf(PACKAGE_NAME)},
+        });
+        //label引用第一个string资源
+        startElement(body, strings.indexOf("application"), new int[][]{
+                {uri, 2, -1, TYPE_REFERENCE, resourceId(2, 0)},
+        });
+        for (int i = 0; i < activityCount; i++) {
+            startElement(body, strings.indexOf("activity"), new int[][]{
+                    {uri, 3, firstActivity + i, TYPE_STRING, firstActivity + i},
+            });
+            endElement(body, strings.indexOf("activity"));
+        }
+        endElement(body, strings.indexOf("application"));
+        endElement(body, strings.indexOf("manifest"));
+        namespace(body, RES_XML_END_NAMESPACE_TYPE, prefix, uri);
+
+        LEBuffer xml = new LEBuffer();
+        xml.putShort(RES_XML_TYPE);
+        xml.putShort(8);
+        xml.putInt(8 + body.size());
+        xml.putBytes(body.toByteArray());
+        return xml.toByteArray();
+    }
+
+    private static void namespace(LEBuffer out, int type, int prefix, int uri) {
+        out.putShort(type);
+        out.putShort(16);
+        out.putInt(24);
+        out.putInt(1);
+        out.putInt(NO_INDEX);
+        out.putInt(prefix);
+        out.putInt(uri);
+    }
+
+    /**
+     * @param attrs {命名空间, 名称, 原始值, 类型, 数据}
+     */
+    private static void startElement(LEBuffer out, int name, int[][] attrs) {
+        out.putShort(RES_XML_START_ELEMENT_TYPE);
+        out.putShort(16);
+        out.putInt(36 + attrs.length * 20);
+        out.putInt(1);
+        out.putInt(NO_INDEX);
+        out.putInt(NO_INDEX);
+        out.putInt(name);
+        out.putShort(20);
+        out.putShort(20);
+        out.putShort(attrs.length);
+        out.putShort(0);
+        out.putShort(0);
+        out.putShort(0);
+        for (int[] attr : attrs) {
+            out.putInt(attr[0]);
+            out.putInt(attr[1]);
+            out.putInt(attr[2]);
+            out.putShort(8);
+            out.put(0);
+            out.put(attr[3]);
+            out.putInt(attr[4]);
+        }
+    }
+
+    private static void endElement(LEBuffer out, int name) {
+        out.putShort(RES_XML_END_ELEMENT_TYPE);
+        out.putShort(16);
+        out.putInt(24);
+        out.putInt(1);
+        out.putInt(NO_INDEX);
+        out.putInt(NO_INDEX);
+        out.putInt(name);
+    }
+
+    private static int resourceId(int type, int entry) {
+        return PACKAGE_ID << 24 | type << 16 | entry;
+    }
+
+    /**
+     * resources.arsc，类型1为drawable，类型2为string
+     */
+    public byte[] resourceTable() {
+        List<String> values = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < drawableCount; i++) {
+            values.add(drawablePath(i));
+            keys.add("icon_" + i);
+        }
+        for (int i = 0; i < stringCount; i++) {
+            values.add("Synthetic string value " + i);
+            keys.add("text_" + i);
+        }
+        List<String> types = new ArrayList<>();
+        types.add("drawable");
+        types.add("string");
+
+        LEBuffer pkg = new LEBuffer();
+        byte[] typeStrings = stringPool(types, true);
+        byte[] keyStrings = stringPool(keys, true);
+        int headerSize = 284;
+        pkg.putShort(RES_TABLE_PACKAGE_TYPE);
+        pkg.putShort(headerSize);
+        int sizePos = pkg.size();
+        pkg.putInt(0);
+        pkg.putInt(PACKAGE_ID);
+        byte[] name = PACKAGE_NAME.getBytes(UTF_16LE);
+        pkg.putBytes(name);
+        pkg.putBytes(new byte[256 - name.length]);
+        pkg.putInt(headerSize);
+        pkg.putInt(types.size());
+        pkg.putInt(headerSize + typeStrings.length);
+        pkg.putInt(keys.size());
+        pkg.putBytes(typeStrings);
+        pkg.putBytes(keyStrings);
+        type(pkg, 1, 0, drawableCount);
+        type(pkg, 2, drawableCount, stringCount);
+        pkg.setInt(sizePos, pkg.size());
+
+        byte[] valueStrings = stringPool(values, true);
+        LEBuffer table = new LEBuffer();
+        table.putShort(RES_TABLE_TYPE);
+        table.putShort(12);
+        table.putInt(12 + valueStrings.length + pkg.size());
+        table.putInt(1);
+        table.putBytes(valueStrings);
+        table.putBytes(pkg.toByteArray());
+        return table.toByteArray();
+    }
+
+    /**
+     * typeSpec和默认配置的type，条目的key和值都是字符串池中从first开始的连续字符串
+     */
+    private static void type(LEBuffer out, int id, int first, int count) {
+        out.putShort(RES_TABLE_TYPE_SPEC_TYPE);
+        out.putShort(16);
+        out.putInt(16 + count * 4);
+        out.put(id);
+        out.put(0);
+        out.putShort(0);
+        out.putInt(count);
+        for (int i = 0; i < count; i++) {
+            out.putInt(0);
+        }
+
+        int headerSize = 20 + CONFIG_SIZE;
+        int entriesStart = headerSize + count * 4;
+        out.putShort(RES_TABLE_TYPE_TYPE);
+        out.putShort(headerSize);
+        out.putInt(entriesStart + count * 16);
+        out.put(id);
+        out.put(0);
+        out.putShort(0);
+        out.putInt(count);
+        out.putInt(entriesStart);
+        out.putInt(CONFIG_SIZE);
+        out.putBytes(new byte[CONFIG_SIZE - 4]);
+        for (int i = 0; i < count; i++) {
+            out.putInt(i * 16);
+        }
+        for (int i = 0; i < count; i++) {
+            out.putShort(8);
+            out.putShort(0);
+            out.putInt(first + i);
+            out.putShort(8);
+            out.put(0);
+            out.put(TYPE_STRING);
+            out.putInt(first + i);
+        }
+    }
+
+    /**
+     * ResStringPool块，字符串数据按4字节对齐
+     * @param strings
+     * @param utf8    true为UTF-8（resources.arsc），false为UTF-16（二进制xml）
+     */
+    public static byte[] stringPool(List<String> strings, boolean utf8) {
+        LEBuffer data = new LEBuffer();
+        int[] offsets = new int[strings.size()];
+        for (int i = 0; i < strings.size(); i++) {
+            offsets[i] = data.size();
+            String string = strings.get(i);
+            if (utf8) {
+                byte[] bytes = string.getBytes(UTF_8);
+                putLength8(data, string.length());
+                putLength8(data, bytes.length);
+                data.putBytes(bytes);
+                data.put(0);
+            } else {
+                data.putShort(string.length());
+                data.putBytes(string.getBytes(UTF_16LE));
+                data.putShort(0);
+            }
+        }
+        while (data.size() % 4 != 0) {
+            data.put(0);
+        }
+        int headerSize = 28;
+        int stringsStart = headerSize + strings.size() * 4;
+        LEBuffer pool = new LEBuffer();
+        pool.putShort(RES_STRING_POOL_TYPE);
+        pool.putShort(headerSize);
+        pool.putInt(stringsStart + data.size());
+        pool.putInt(strings.size());
+        pool.putInt(0);
+        pool.putInt(utf8 ? UTF8_FLAG : 0);
+        pool.putInt(stringsStart);
+        pool.putInt(0);
+        for (int offset : offsets) {
+            pool.putInt(offset);
+        }
+        pool.putBytes(data.toByteArray());
+        return pool.toByteArray();
+    }
+
+    private static void putLength8(LEBuffer out, int length) {
+        if (length > 0x7f) {
+            out.put(0x80 | (length >> 8));
+        }
+        out.put(length & 0xff);
+    }
+
+    /**
+     * classes.dex，classCount个继承Object的空类
+     */
+    public byte[] dex() {
+        List<String> strings = new ArrayList<>(classCount + 1);
+        for (int i = 0; i < classCount; i++) {
+            strings.add(className(i));
+        }
+        strings.add("Ljava/lang/Object;");
+        //string_ids和type_ids都要求有序
+        Collections.sort(strings);
+        int objectIndex = strings.indexOf("Ljava/lang/Object;");
+
+        int headerSize = 0x70;
+        int stringIdsOff = headerSize;
+        int typeIdsOff = stringIdsOff + strings.size() * 4;
+        int classDefsOff = typeIdsOff + strings.size() * 4;
+        int dataOff = classDefsOff + classCount * 32;
+
+        LEBuffer data = new LEBuffer();
+        int[] stringOffsets = new int[strings.size()];
+        for (int i = 0; i < strings.size(); i++) {
+            stringOffsets[i] = dataOff + data.size();
+            //类名都是ASCII，MUTF-8与UTF-8相同
+            byte[] bytes = strings.get(i).getBytes(UTF_8);
+            putUleb128(data, strings.get(i).length());
+            data.putBytes(bytes);
+            data.put(0);
+        }
+        while (data.size() % 4 != 0) {
+            data.put(0);
+        }
+        int mapOff = dataOff + data.size();
+        int[][] map = {
+                {0x0000, 1, 0},
+                {0x0001, strings.size(), stringIdsOff},
+                {0x0002, strings.size(), typeIdsOff},
+                {0x0006, classCount, classDefsOff},
+                {0x2002, strings.size(), dataOff},
+                {0x1000, 1, mapOff},
+        };
+        data.putInt(map.length);
+        for (int[] item : map) {
+            data.putShort(item[0]);
+            data.putShort(0);
+            data.putInt(item[1]);
+            data.putInt(item[2]);
+        }
+        int fileSize = dataOff + data.size();
+
+        LEBuffer dex = new LEBuffer();
+        dex.putBytes("dex\n035\0".getBytes(UTF_8));
+        dex.putInt(0);
+        dex.putBytes(new byte[20]);
+        dex.putInt(fileSize);
+        dex.putInt(headerSize);
+        dex.putInt(0x12345678);
+        dex.putInt(0);
+        dex.putInt(0);
+        dex.putInt(mapOff);
+        dex.putInt(strings.size());
+        dex.putInt(stringIdsOff);
+        dex.putInt(strings.size());
+        dex.putInt(typeIdsOff);
+        //proto_ids、field_ids、method_ids
+        for (int i = 0; i < 6; i++) {
+            dex.putInt(0);
+        }
+        dex.putInt(classCount);
+        dex.putInt(classDefsOff);
+        dex.putInt(fileSize - dataOff);
+        dex.putInt(dataOff);
+        for (int offset : stringOffsets) {
+            dex.putInt(offset);
+        }
+        for (int i = 0; i < strings.size(); i++) {
+            dex.putInt(i);
+        }
+        for (int i = 0; i < strings.size(); i++) {
+            if (i == objectIndex) {
+                continue;
+            }
+            dex.putInt(i);
+            dex.putInt(0x1);
+            dex.putInt(objectIndex);
+            dex.putInt(0);
+            dex.putInt(NO_INDEX);
+            dex.putInt(0);
+            dex.putInt(0);
+            dex.putInt(0);
+        }
+        dex.putBytes(data.toByteArray());
+
+        byte[] bytes = dex.toByteArray();
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            sha1.update(bytes, 32, bytes.length - 32);
+            System.arraycopy(sha1.digest(), 0, bytes, 12, 20);
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        }
+        Adler32 adler32 = new Adler32();
+        adler32.update(bytes, 12, bytes.length - 12);
+        LEBuffer.setInt(bytes, 8, (int) adler32.getValue());
+        return bytes;
+    }
+
+    private static void putUleb128(LEBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.put(value);
+    }
+
+    /**
+     * png文件头+随机数据
+     */
+    private static byte[] png(Random random, int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        byte[] signature = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+        System.arraycopy(signature, 0, data, 0, signature.length);
+        return data;
+    }
+
+    /**
+     * 一半随机、一半重复文本，压缩率约为50%
+     */
+    public static byte[] payload(Random random, int size) {
+        byte[] data = new byte[size];
+        byte[] text = "public final class Synthetic { int value; }\n".getBytes(UTF_8);
+        int block = 4096;
+        for (int offset = 0; offset < size; offset += block) {
+            int length = Math.min(block, size - offset);
+            if ((offset / block) % 2 == 0) {
+                byte[] bytes = new byte[length];
+                random.nextBytes(bytes);
+                System.arraycopy(bytes, 0, data, offset, length);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    data[offset + i] = text[i % text.length];
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 小端序的可回填缓冲区
+     */
+    private static class LEBuffer extends ByteArrayOutputStream {
+
+        void put(int value) {
+            write(value);
+        }
+
+        void putShort(int value) {
+            write(value);
+            write(value >> 8);
+        }
+
+        void putInt(int value) {
+            putShort(value);
+            putShort(value >> 16);
+        }
+
+        void putBytes(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+
+        void setInt(int pos, int value) {
+            setInt(buf, pos, value);
+        }
+
+        static void setInt(byte[] bytes, int pos, int value) {
+            bytes[pos] = (byte) value;
+            bytes[pos + 1] = (byte) (value >> 8);
+            bytes[pos + 2] = (byte) (value >> 16);
+            bytes[pos + 3] = (byte) (value >> 24);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        File apkFile = new File(args.length > 0 ? args[0] : "build/benchmark/synthetic.apk");
+        String scale = args.length > 1 ? args[1] : "medium";
+        of(scale).write(apkFile);
+        System.out.println("synthetic apk==:" + apkFile.getAbsolutePath() + " (" + scale + ", " + apkFile.length() + " bytes)");
+    }
+}
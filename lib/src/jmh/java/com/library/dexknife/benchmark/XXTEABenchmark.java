@@ -0,0 +1,54 @@
+package com.library.dexknife.benchmark;
+
+import com.library.dexknife.shell.utils.XXTEA;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * XXTEA加解密，按数据大小
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XXTEABenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private final byte[] key = "lcl_apktoolplus".getBytes();
+    private byte[] data;
+    private byte[] encrypted;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(1).nextBytes(data);
+        encrypted = XXTEA.encrypt(data, key);
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return XXTEA.encrypt(data, key);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return XXTEA.decrypt(encrypted, key);
+    }
+}
@@ -0,0 +1,78 @@
+package com.library.dexknife.benchmark;
+
+import com.library.dexknife.shell.res.util.FileOperation;
+import com.library.dexknife.shell.utils.ZipHelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压缩和解压：ZipHelper（zip4j，加固流程）和FileOperation（AndResGuard）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZipBenchmark {
+
+    @Param({"small", "medium"})
+    public String scale;
+
+    private File apk;
+    private File unzipDir;
+    private List<File> unzipFiles;
+    private HashMap<String, Integer> compressData;
+    private File outDir;
+    private File outZip;
+
+    @Setup
+    public void setup() throws IOException {
+        apk = Fixtures.apk(scale);
+        unzipDir = Fixtures.dir("zip_input_" + scale);
+        compressData = FileOperation.unZipAPk(apk.getAbsolutePath(), unzipDir.getAbsolutePath());
+        unzipFiles = Arrays.asList(unzipDir.listFiles());
+        outDir = Fixtures.dir("zip_output_" + scale);
+        outZip = new File(outDir, "out.zip");
+    }
+
+    @Benchmark
+    public boolean zipHelperZip() {
+        //zip4j会追加到已存在的zip
+        outZip.delete();
+        return ZipHelper.zip(unzipDir, outZip);
+    }
+
+    @Benchmark
+    public boolean zipHelperUnzip() {
+        return ZipHelper.unzip(apk, new File(outDir, "unzip"));
+    }
+
+    @Benchmark
+    public File fileOperationZipFiles() throws IOException {
+        FileOperation.zipFiles(unzipFiles, outZip, compressData);
+        return outZip;
+    }
+
+    @Benchmark
+    public HashMap<String, Integer> fileOperationUnZipApk() throws IOException {
+        return FileOperation.unZipAPk(apk.getAbsolutePath(), new File(outDir, "unzip").getAbsolutePath());
+    }
+}
@@ -14,6 +14,10 @@ class DexKnifeExtension {
     String jiaguzippath=""
     String shellname=""
     boolean andresguard=""
+    boolean directpatch=false//直接修改apk，不经过apktool
+    boolean jiaguCache=true//加固缓存
+    boolean jiaguReport=true//加固耗时报告
+    int jiaguDaemonPort=0//加固守护进程端口，0表示在当前进程加固
 
     //多渠道打包
     static final String DEFAULT_NAME_TEMPLATE = '${appPkg}-${flavorName}-${buildType}-v${versionName}-${versionCode}'
@@ -22,6 +26,7 @@ class DexKnifeExtension {
     boolean checkSigningConfig
     boolean checkZipAlign
     String archiveNameFormat
+    int packerNgThreads=0//并行生成渠道包的线程数，0表示CPU核数（最多4个）
     DexKnifeExtension(Project project) {
         archiveOutput = new File(project.rootProject.buildDir, "archives")
         tempOutput = new File(project.rootProject.buildDir, "temp")
@@ -110,6 +110,10 @@ public class DexKnifePlugin implements Plugin<Project> {
                         JiaGu.andres_pz=project.file(andres_pz)
                         JiaGu.andres_map=project.file(andres_map)
                     }
+                    JiaGu.DIRECTPATCH=dexKnifeExtension.directpatch
+                    JiaGu.CACHE=dexKnifeExtension.jiaguCache
+                    JiaGu.REPORT=dexKnifeExtension.jiaguReport
+                    JiaGu.DAEMON_PORT=dexKnifeExtension.jiaguDaemonPort
 
                     if(!dexKnifeExtension.application.isEmpty()){
                         JiaGu.PROXY_APPLICATION_NAME=dexKnifeExtension.application//初始化
@@ -168,6 +172,10 @@ public class DexKnifePlugin implements Plugin<Project> {
 
         AppManager.APKTOOLJARPATH=dexKnifeExtension.apktoolpath;//apktool地址
         JiaGu.JIAGU_ZIP_PATH=dexKnifeExtension.jiaguzippath;
+        JiaGu.DIRECTPATCH=dexKnifeExtension.directpatch
+        JiaGu.CACHE=dexKnifeExtension.jiaguCache
+        JiaGu.REPORT=dexKnifeExtension.jiaguReport
+        JiaGu.DAEMON_PORT=dexKnifeExtension.jiaguDaemonPort
         if(!dexKnifeExtension.application.isEmpty()){
             JiaGu.PROXY_APPLICATION_NAME=dexKnifeExtension.application//初始化
         }
@@ -7,8 +7,8 @@ import com.library.dexknife.DexKnifePlugin
 import com.library.dexknife.shell.AppManager
 import com.library.dexknife.shell.Callback
 import com.library.dexknife.shell.jiagu.JiaGu
-import com.library.dexknife.shell.utils.HASH
-import com.library.dexknife.shell.utils.PackerNg
+import com.library.dexknife.shell.utils.ApkSigningBlock
+import com.library.dexknife.shell.utils.MarketPacker
 import groovy.io.FileType
 import groovy.text.SimpleTemplateEngine
 import org.gradle.api.DefaultTask
@@ -71,13 +71,9 @@ public class ArchiveAllApkTask extends DefaultTask {
                     "please check your signingConfig!")
         }
 
-        // ensure APK Signature Scheme v2 disabled.
-        if (signingConfig.hasProperty("v2SigningEnabled") &&
-                signingConfig.v2SigningEnabled == true) {
-            throw new GradleException("Please add 'v2SigningEnabled false' " +
-                    "to signingConfig to disable APK Signature Scheme v2, " +
-                    "as it's not compatible with packer-ng plugin, more details at " +
-                    "https://github.com/mcxiaoke/packer-ng-plugin/blob/master/compatibility.md.")
+        // v2/v3签名的apk渠道写入APK Signing Block，不需要关闭v2签名
+        if (signingConfig != null && signingConfig.hasProperty("v2SigningEnabled")) {
+            logger.info(":${name} v2SigningEnabled = ${signingConfig.v2SigningEnabled}")
         }
     }
 
@@ -86,7 +82,9 @@ public class ArchiveAllApkTask extends DefaultTask {
         JarFile jarFile = new JarFile(file)
         JarEntry mfEntry = jarFile.getJarEntry("META-INF/MANIFEST.MF")
         JarEntry certEntry = jarFile.getJarEntry("META-INF/CERT.SF")
-        if (mfEntry == null || certEntry == null) {
+        jarFile.close()
+        // 只有v2/v3签名时没有META-INF/CERT.SF
+        if ((mfEntry == null || certEntry == null) && !ApkSigningBlock.parse(file).isSchemeV2Signed()) {
             throw new GradleException(":${name} " +
                     "apk ${apkPath} not signed, please check your signingConfig!")
         }
@@ -120,23 +118,26 @@ public class ArchiveAllApkTask extends DefaultTask {
             }
         }
         logger.info(":${project.name}:${name} markets:[${theMarkets.join(', ')}]")
-        for (String market : theMarkets) {
-            File tempFile = new File(outputDir, market + ".tmp")
-            copyTo(originalFile, tempFile)
-            try {
-                PackerNg.Helper.writeMarket(tempFile, market)
-                String apkName = buildApkName(theVariant, market, tempFile)
+        def buildTime = new SimpleDateFormat('yyyyMMdd-HHmmss').format(new Date())
+        List<MarketPacker.Result> results
+        try {
+            // 各渠道包并行生成，md5/sha1在生成时同时算出
+            results = new MarketPacker(originalFile, outputDir, theExtension.packerNgThreads).pack(theMarkets)
+        } catch (IOException ex) {
+            throw new GradleException(":${name} apk generate failed.", ex)
+        }
+        try {
+            for (MarketPacker.Result result : results) {
+                String apkName = buildApkName(theVariant, result.market, result.md5, result.sha1, buildTime)
                 File finalFile = new File(outputDir, apkName)
-                if (PackerNg.Helper.verifyMarket(tempFile, market)) {
-                    println(":${project.name}:${name} Generating apk for ${market}")
-                    tempFile.renameTo(finalFile)
-                } else {
-                    throw new GradleException(":${name} ${market} apk verify failed.")
+                println(":${project.name}:${name} Generating apk for ${result.market}")
+                if (!result.file.renameTo(finalFile)) {
+                    throw new GradleException(":${name} ${result.market} apk rename failed.")
                 }
-            } catch (IOException ex) {
-                throw new GradleException(":${name} ${market} apk generate failed.", ex)
-            } finally {
-                tempFile.delete()
+            }
+        } finally {
+            for (MarketPacker.Result result : results) {
+                result.file.delete()
             }
         }
         println(":${project.name}:${name} all ${theMarkets.size()} apks saved to ${outputDir.path}")
@@ -153,6 +154,7 @@ public class ArchiveAllApkTask extends DefaultTask {
 
         AppManager.APKTOOLJARPATH=theExtension.apktoolpath;//apktool地址
         JiaGu.JIAGU_ZIP_PATH=theExtension.jiaguzippath;
+        JiaGu.DAEMON_PORT=theExtension.jiaguDaemonPort//守护进程在运行时提交到守护进程
         if(!theExtension.application.isEmpty()){
             JiaGu.PROXY_APPLICATION_NAME=theExtension.application//初始化
         }
@@ -196,11 +198,7 @@ public class ArchiveAllApkTask extends DefaultTask {
      * @param variant Variant
      * @return final apk name
      */
-    String buildApkName(variant, market, apkFile) {
-        def buildTime = new SimpleDateFormat('yyyyMMdd-HHmmss').format(new Date())
-        File file = apkFile
-        def fileMD5 = HASH.md5(file)
-        def fileSHA1 = HASH.sha1(file)
+    String buildApkName(variant, market, fileMD5, fileSHA1, buildTime) {
         def nameMap = [
                 'appName'    : project.name,
                 'projectName': project.rootProject.name,
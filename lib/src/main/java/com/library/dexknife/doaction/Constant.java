@@ -50,6 +50,28 @@ public class Constant {
     public static String ANDRES_MAP=FileDir+"resource_mapping.txt";
     public static String APK_SUFFIX="jiagu";
     public static boolean ANDRESGUARD=GradleFind.getValue("ANDRESGUARD").equals("true")?true:false;
+    public static boolean DIRECTPATCH="true".equals(GradleFind.getValue("DIRECTPATCH"));
+    public static boolean JIAGU_CACHE=!"false".equals(GradleFind.getValue("JIAGU_CACHE"));
+    public static int JIAGU_CACHE_MAX_SIZE_MB=toInt(GradleFind.getValue("JIAGU_CACHE_MAX_SIZE_MB"),1024);//0表示不限制
+    public static boolean JIAGU_REPORT=!"false".equals(GradleFind.getValue("JIAGU_REPORT"));
+    public static int APKTOOL_TIMEOUT_MINUTES=toInt(GradleFind.getValue("APKTOOL_TIMEOUT_MINUTES"));//0表示不限制
+    public static int JIAGU_DAEMON_PORT=toInt(GradleFind.getValue("JIAGU_DAEMON_PORT"));
+
+    private static int toInt(String value){
+        return toInt(value,0);
+    }
+
+    private static int toInt(String value,int defaultValue){
+        if(value==null||value.trim().isEmpty()){
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            return defaultValue;
+        }
+    }
 
 
 
@@ -1,5 +1,6 @@
 package com.library.dexknife.doaction;
 
+import com.library.dexknife.shell.ApkToolPlus;
 import com.library.dexknife.shell.AppManager;
 import com.library.dexknife.shell.Callback;
 import com.library.dexknife.shell.jiagu.JiaGu;
@@ -19,11 +20,17 @@ public class ToJiaGu {
         keystoreConfig.alias=Constant.KEY_ALIAS;
         keystoreConfig.aliasPassword=Constant.KEY_ALIAS_PASSWORD;
         JiaGu.ANDRESGUARD=Constant.ANDRESGUARD;
+        JiaGu.DIRECTPATCH=Constant.DIRECTPATCH;
+        JiaGu.CACHE=Constant.JIAGU_CACHE;
+        JiaGu.CACHE_MAX_SIZE_MB=Constant.JIAGU_CACHE_MAX_SIZE_MB;
+        JiaGu.REPORT=Constant.JIAGU_REPORT;
+        JiaGu.DAEMON_PORT=Constant.JIAGU_DAEMON_PORT;
         JiaGu.andres_pz=Constant.ANDRES_PZ;
         JiaGu.andres_map=Constant.ANDRES_MAP;
         JiaGu.ISSHELL=true;
         JiaGu.SHELLAPKNAME=Constant.APK_SUFFIX;
         AppManager.APKTOOLJARPATH=Constant.APKTOOL_PATH;
+        ApkToolPlus.APKTOOL_TIMEOUT=Constant.APKTOOL_TIMEOUT_MINUTES*60*1000L;
         JiaGu.JIAGU_ZIP_PATH=Constant.SHELL_TO;
         encryptApk(new File(Constant.APK_FROM),keystoreConfig);
 
@@ -0,0 +1,38 @@
+package com.library.dexknife.doaction;
+
+import com.library.dexknife.shell.ApkToolPlus;
+import com.library.dexknife.shell.AppManager;
+import com.library.dexknife.shell.jiagu.JiaGuClient;
+import com.library.dexknife.shell.jiagu.JiaGuDaemon;
+
+import java.io.IOException;
+
+/**
+ * 启动加固守护进程，之后zipToApk和插件的加固任务提交到这里执行
+ * 参数 stop 停止正在运行的守护进程
+ */
+public class ToJiaGuDaemon {
+
+    public static void main(String[] args) {
+        int port = Constant.JIAGU_DAEMON_PORT > 0 ? Constant.JIAGU_DAEMON_PORT : JiaGuDaemon.DEFAULT_PORT;
+        if (args.length > 0 && "stop".equals(args[0])) {
+            System.out.println(JiaGuClient.shutdown(port) ? "加固守护进程已停止" : "加固守护进程没有运行");
+            return;
+        }
+        if (JiaGuClient.isRunning(port)) {
+            System.out.println("加固守护进程已经在运行==:127.0.0.1:" + port);
+            return;
+        }
+        AppManager.APKTOOLJARPATH=Constant.APKTOOL_PATH;
+        ApkToolPlus.APKTOOL_TIMEOUT=Constant.APKTOOL_TIMEOUT_MINUTES*60*1000L;
+        JiaGuDaemon daemon = new JiaGuDaemon(port, 0);
+        try {
+            daemon.start();
+            daemon.await();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.library.dexknife.doaction;
 
-import com.library.dexknife.shell.AppManager;
 import com.library.dexknife.shell.jiagu.JiaGu;
 
 import java.io.File;
@@ -22,7 +21,6 @@ public class ToZip {
     public static void main(String[] args) {
 
         UpdateZipTask task = new UpdateZipTask();
-        AppManager.APKTOOLJARPATH=Constant.APKTOOL_PATH;
         task.setProjectDir(new File(Constant.SHELL_FROM));
         String packagePath = JiaGu.class.getPackage().getName().replaceAll("\\.", "/");
         task.addOutFile(new File(Constant.SHELL_TO));
@@ -1,17 +1,19 @@
 package com.library.dexknife.doaction;
 
 
-import com.library.dexknife.shell.ApkToolPlus;
-import com.library.dexknife.shell.Callback;
 import com.library.dexknife.shell.jiagu.JiaGu;
+import com.library.dexknife.shell.jiagu.ShellTemplate;
 import com.library.dexknife.shell.utils.Debug;
 import com.library.dexknife.shell.utils.FileHelper;
-import com.library.dexknife.shell.utils.ZipHelper;
+import com.library.dexknife.shell.utils.IO;
+import com.library.dexknife.shell.utils.ZipIndex;
+import com.library.dexknife.shell.utils.ZipWriter;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -46,36 +48,46 @@ public class UpdateZipTask extends Task {
         updateJiaGuZip();
     }
 
+    /**
+     * 生成壳模板：直接从壳apk中读取classes.dex和lib/，不需要apktool反编译，
+     * 加固时也不需要再由smali编译壳dex
+     */
     public void updateJiaGuZip() {
 
-        File jiaguProject = getProjectDir();
-
-        File bin=new File(projectDir.getParent(),"wjcanch");
-        if(!bin.exists()){
-            bin.mkdirs();
-        }else {
-            FileHelper.cleanDirectory(bin);
-        }
-        //反编译
-        File decompile = new File(JiaGu.workDir, "decompile");
-        FileHelper.cleanDirectory(decompile);
-        boolean decompileResult = ApkToolPlus.decompile(projectDir, decompile, new Callback<Exception>() {
-            @Override
-            public void callback(Exception e) {
-            }
-        });
-       //samil
-        File smali=new File(bin,"smali");
-        FileHelper.copyDirInclude(new File(decompile,"smali"),smali);
-        // lib
-        File projectLibs = new File(decompile, "lib");
-        File libs = new File(bin, "libs");
-        FileHelper.copyDirInclude(projectLibs,libs);
-        // zip
-        Debug.d("genearte "+ JIAGU_ZIP +"..");
+        File shellApk = getProjectDir();
         File jiaguZip = outFileList.get(0);
+        Debug.d("genearte "+ JIAGU_ZIP +"..");
+        File tempZip = new File(jiaguZip.getPath() + ".tmp");
+        ZipIndex index = null;
+        ZipWriter writer = null;
+        try {
+            index = new ZipIndex(shellApk);
+            ZipIndex.Entry dexEntry = index.getEntry(ShellTemplate.SHELL_DEX);
+            if (dexEntry == null) {
+                throw new BuildException("classes.dex not found : " + shellApk.getAbsolutePath());
+            }
+            writer = new ZipWriter(tempZip);
+            //dex
+            writer.copyRaw(index, dexEntry);
+            // lib -> libs
+            for (ZipIndex.Entry entry : index.getEntries()) {
+                if (entry.getName().startsWith("lib/") && !entry.isDirectory()) {
+                    writer.copyRaw(index, entry, "libs/" + entry.getName().substring("lib/".length()));
+                }
+            }
+            writer.close();
+            writer = null;
+        } catch (IOException e) {
+            throw new BuildException(e);
+        } finally {
+            IO.close(writer);
+            IO.close(index);
+        }
         jiaguZip.delete();
-        ZipHelper.zip(new File[]{smali, libs}, jiaguZip);
+        if (!tempZip.renameTo(jiaguZip)) {
+            FileHelper.copyFile(tempZip, jiaguZip);
+            tempZip.delete();
+        }
 
 //        for(int i = 1; i<outFileList.size(); ++i){
 //            File outFile = outFileList.get(i);
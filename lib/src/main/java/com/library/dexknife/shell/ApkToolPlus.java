@@ -6,6 +6,7 @@ import com.googlecode.dex2jar.tools.StdApkCmd;
 import com.library.dexknife.shell.jiagu.KeystoreConfig;
 import com.library.dexknife.shell.utils.Cmd;
 import com.library.dexknife.shell.utils.Debug;
+import com.library.dexknife.shell.utils.ProcessRunner;
 
 import org.jf.baksmali.baksmali;
 import org.jf.baksmali.baksmaliOptions;
@@ -18,6 +19,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import brut.androlib.AndrolibException;
@@ -34,6 +36,8 @@ public class ApkToolPlus {
 
     public static final String TAG = ApkToolPlus.class.getSimpleName();
 
+    public static long APKTOOL_TIMEOUT = 0;//apktool反编译/回编译超时（毫秒），大apk可能很慢，0表示不限制
+
     public static ClassLoader initClassPath(String[] classpaths){
         if (classpaths == null || classpaths.length == 0)
             return null;
@@ -57,15 +61,38 @@ public class ApkToolPlus {
     }
 
     public static boolean decompile(File apk, File outDir, Callback<Exception> onExceptioin){
+        return decompile(apk, outDir, false, onExceptioin);
+    }
+
+    /**
+     * 反编译
+     * @param noSrc true则不反编译dex（apktool -s），classes*.dex原样拷贝到输出目录
+     */
+    public static boolean decompile(File apk, File outDir, boolean noSrc, Callback<Exception> onExceptioin){
+        return decompile(null, apk, outDir, noSrc, onExceptioin);
+    }
+
+    /**
+     * 反编译
+     * @param apkTool 使用的apktool.jar，为null时使用AppManager中的apktool
+     */
+    public static boolean decompile(File apkTool, File apk, File outDir, boolean noSrc, Callback<Exception> onExceptioin){
         try {
             if(!outDir.exists()){
                 outDir.mkdirs();
             }
-            if(outDir == null){
-                runApkTool(new String[]{"d", apk.getPath()});
-            }else{
-                runApkTool(new String[]{"d", apk.getPath(), "-o", outDir.getPath(), "-f"});
+            List<String> args = new ArrayList<>();
+            args.add("d");
+            args.add(apk.getPath());
+            if(outDir != null){
+                args.add("-o");
+                args.add(outDir.getPath());
+                args.add("-f");
+            }
+            if(noSrc){
+                args.add("-s");
             }
+            runApkTool(apkTool, args.toArray(new String[args.size()]));
         } catch (Exception e) {
             e.printStackTrace();
             if(onExceptioin != null){
@@ -77,11 +104,19 @@ public class ApkToolPlus {
     }
 
     public static boolean recompile(File folder, File outApk, Callback<Exception> onExceptioin){
+        return recompile(null, folder, outApk, onExceptioin);
+    }
+
+    /**
+     * 回编译
+     * @param apkTool 使用的apktool.jar，为null时使用AppManager中的apktool
+     */
+    public static boolean recompile(File apkTool, File folder, File outApk, Callback<Exception> onExceptioin){
         try {
             if(outApk == null){
-                runApkTool(new String[]{"b", folder.getPath()});
+                runApkTool(apkTool, new String[]{"b", folder.getPath()});
             }else{
-                runApkTool(new String[]{"b", folder.getPath(), "-o", outApk.getPath()});
+                runApkTool(apkTool, new String[]{"b", folder.getPath(), "-o", outApk.getPath()});
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -251,35 +286,42 @@ public class ApkToolPlus {
             throw new RuntimeException("sign apk error : file '" + apk.getPath() + "' is no exits or not a file.");
         }
 
-        File apkCopy = new File(apk.getParentFile(), "copy_"+apk.getName());
-        com.library.dexknife.shell.utils.FileHelper.delete(apkCopy);
-
-        com.library.dexknife.shell.utils.FileHelper.copyFile(apk,apkCopy);
-        com.library.dexknife.shell.utils.ZipHelper.removeFileFromZip(apkCopy,"META-INF");
+        // 签名后的apk和输入同名，先把输入重命名，输出只写一次
+        File unsignedApk = new File(apk.getParentFile(), "unsigned_"+apk.getName());
+        com.library.dexknife.shell.utils.FileHelper.delete(unsignedApk);
+        if (!apk.renameTo(unsignedApk)) {
+            throw new RuntimeException("sign apk error : rename '" + apk.getPath() + "' failure.");
+        }
 
         File signedApk = new File(apk.getParentFile(), com.library.dexknife.shell.utils.FileHelper.getNoSuffixName(apk) + ".apk");
         com.library.dexknife.shell.utils.FileHelper.delete(signedApk);
 
-//        String jdkpath=Cmd.execAndGetOutput("cmd set JAVA_HOME");
-//        System.out.println(jdkpath+"------------------");
-//        Cmd.exec("cd "+jdkpath);
-        //jarsigner -digestalg SHA1 -sigalg MD5withRSA -keystore keystore·�� -storepass ���� -keypass �������� -signedjar signed_xxx.apk xxx.apk ����
-        StringBuilder cmdBuilder = new StringBuilder("jarsigner -digestalg SHA1 -sigalg MD5withRSA");
-        cmdBuilder.append(" -keystore ").append(config.keystorePath);
-        cmdBuilder.append(" -storepass ").append(config.keystorePassword);
-        cmdBuilder.append(" -keypass ").append(config.aliasPassword);
-        cmdBuilder.append(" -signedjar ").append(signedApk.getPath()).append(" ").append(apkCopy.getPath()).append(" ");
-        cmdBuilder.append(" ").append(config.alias);
-        String cmd = cmdBuilder.toString();
-
-        Cmd.exec(cmd);
-
-        // clean
-        com.library.dexknife.shell.utils.FileHelper.delete(apkCopy);
+        if (signApk(unsignedApk, signedApk, config)) {
+            // clean
+            com.library.dexknife.shell.utils.FileHelper.delete(unsignedApk);
+        } else {
+            unsignedApk.renameTo(apk);
+        }
 
         return signedApk;
     }
 
+    /**
+     * 签名apk（v1 + v2 + v3），输出已经对齐
+     * @param apk       输入
+     * @param signedApk 输出，不能和输入相同
+     * @param config
+     * @return 是否成功
+     */
+    public static boolean signApk(File apk, File signedApk, KeystoreConfig config){
+        com.library.dexknife.shell.jiagu.ApkSigner signer = com.library.dexknife.shell.jiagu.ApkSigner.get(config);
+        if (signer == null) {
+            Debug.e("load keystore failure : " + config.keystorePath);
+            return false;
+        }
+        return signer.sign(apk, signedApk);
+    }
+
     private static void safeRunApkTool(String[] args){
         try {
             Main.main(args);
@@ -292,20 +334,24 @@ public class ApkToolPlus {
         }
     }
 
-    public static void installFramework(File apkToolFile, File frameworkFile){
-        Cmd.exec("java -jar " + apkToolFile.getAbsolutePath() + " if " + frameworkFile.getAbsolutePath());
+    public static boolean installFramework(File apkToolFile, File frameworkFile){
+        return Cmd.run(Arrays.asList("java", "-jar", apkToolFile.getAbsolutePath(), "if", frameworkFile.getAbsolutePath()), null).isSuccess();
     }
 
-    private static void runApkTool(String[] args) throws InterruptedException, BrutException, IOException {
-       AppManager.initApkTool();
+    private static void runApkTool(File apkTool, String[] args) throws InterruptedException, BrutException, IOException {
+        if(apkTool == null){
+            apkTool = AppManager.getApkTool();
+        }
         //java -jar apktool.jar d test.apk -f
-        StringBuilder cmdBuilder = new StringBuilder();
-        cmdBuilder.append("java -jar ")
-                .append(AppManager.getApkTool().getPath());
-        for(String arg : args){
-            cmdBuilder.append(" ").append(arg);
+        List<String> command = new ArrayList<>();
+        command.add("java");
+        command.add("-jar");
+        command.add(apkTool.getPath());
+        command.addAll(Arrays.asList(args));
+        ProcessRunner.Result result = Cmd.run(command, null, APKTOOL_TIMEOUT);
+        if(!result.isSuccess()){
+            throw new IOException("apktool failure : " + result.describe());
         }
-        Cmd.exec(cmdBuilder.toString());
     }
 }
 
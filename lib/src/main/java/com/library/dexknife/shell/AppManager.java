@@ -37,7 +37,7 @@ public class AppManager {
         return apkTool;
     }
 
-    public static void initApkTool(){
+    public static synchronized void initApkTool(){
         if(!FileHelper.exists(apkTool)){
 //            File frameworkRes = new File(apkTool.getParentFile(), FRAMEWORK_RES);
             if(AppManager.isReleased()){
@@ -0,0 +1,624 @@
+package com.library.dexknife.shell.apkparser.parser;
+
+import com.library.dexknife.shell.apkparser.exception.ParserException;
+import com.library.dexknife.shell.apkparser.struct.ChunkType;
+import com.library.dexknife.shell.apkparser.struct.ResValue;
+import com.library.dexknife.shell.apkparser.struct.StringPool;
+import com.library.dexknife.shell.apkparser.struct.StringPoolHeader;
+import com.library.dexknife.shell.apkparser.utils.Buffers;
+import com.library.dexknife.shell.apkparser.utils.ParseUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Edit android binary xml without decoding resources.
+ * <p>
+ * The chunk stream is read into a light model that keeps string references as pool indexes.
+ * New strings are appended, and {@link #toByteArray()} rebuilds the string pool and the resource map
+ * in one pass: strings with a resource id stay at the front of the pool (the resource map
+ * only covers the first strings), and every reference in the chunk stream is remapped.
+ */
+public class BinaryXmlEditor {
+
+    public static final String ANDROID_NAMESPACE = "http://schemas.android.com/apk/res/android";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int XML_HEADER_SIZE = 8;
+    private static final int STRING_POOL_HEADER_SIZE = 28;
+    private static final int NODE_HEADER_SIZE = 16;
+    private static final int ATTRIBUTE_SIZE = 20;
+
+    private final ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
+    // strings of the pool, new strings are appended
+    private final List<String> strings = new ArrayList<>();
+    // resource ids of the first strings
+    private final List<Integer> resourceIds = new ArrayList<>();
+    // resource ids of the appended strings, 0 if none
+    private final List<Integer> appendedIds = new ArrayList<>();
+    private int originStringCount;
+    private long stringPoolFlags;
+    private final List<Chunk> chunks = new ArrayList<>();
+
+    public BinaryXmlEditor(byte[] data) {
+        this(ByteBuffer.wrap(data));
+    }
+
+    public BinaryXmlEditor(ByteBuffer data) {
+        ByteBuffer buffer = data.duplicate();
+        buffer.order(byteOrder);
+        parse(buffer);
+    }
+
+    private void parse(ByteBuffer buffer) {
+        int chunkType = Buffers.readUShort(buffer);
+        int headerSize = Buffers.readUShort(buffer);
+        long chunkSize = Buffers.readUInt(buffer);
+        ParseUtils.checkChunkType(ChunkType.XML, chunkType);
+        buffer.position(headerSize);
+        int end = (int) Math.min(chunkSize, buffer.limit());
+
+        while (buffer.position() < end) {
+            int begin = buffer.position();
+            chunkType = Buffers.readUShort(buffer);
+            headerSize = Buffers.readUShort(buffer);
+            chunkSize = Buffers.readUInt(buffer);
+            switch (chunkType) {
+                case ChunkType.STRING_POOL:
+                    StringPoolHeader header = new StringPoolHeader(chunkType, headerSize, chunkSize);
+                    header.setStringCount(Buffers.readUInt(buffer));
+                    header.setStyleCount(Buffers.readUInt(buffer));
+                    header.setFlags(Buffers.readUInt(buffer));
+                    header.setStringsStart(Buffers.readUInt(buffer));
+                    header.setStylesStart(Buffers.readUInt(buffer));
+                    if (header.getStyleCount() > 0) {
+                        throw new ParserException("String pool with styles is not supported");
+                    }
+                    buffer.position(begin + headerSize);
+                    StringPool stringPool = ParseUtils.readStringPool(buffer, header);
+                    for (int i = 0; i < header.getStringCount(); i++) {
+                        strings.add(stringPool.get(i));
+                    }
+                    originStringCount = strings.size();
+                    stringPoolFlags = header.getFlags();
+                    break;
+                case ChunkType.XML_RESOURCE_MAP:
+                    buffer.position(begin + headerSize);
+                    int count = (int) ((chunkSize - headerSize) / 4);
+                    for (int i = 0; i < count; i++) {
+                        resourceIds.add(buffer.getInt());
+                    }
+                    break;
+                case ChunkType.XML_START_NAMESPACE:
+                case ChunkType.XML_END_NAMESPACE:
+                case ChunkType.XML_START_ELEMENT:
+                case ChunkType.XML_END_ELEMENT:
+                case ChunkType.XML_CDATA:
+                    chunks.add(readNode(buffer, chunkType, headerSize, begin));
+                    break;
+                default:
+                    if (chunkType >= ChunkType.XML_FIRST_CHUNK && chunkType <= ChunkType.XML_LAST_CHUNK) {
+                        Chunk raw = new Chunk(chunkType);
+                        raw.raw = new byte[(int) chunkSize];
+                        buffer.position(begin);
+                        buffer.get(raw.raw);
+                        chunks.add(raw);
+                    } else {
+                        throw new ParserException("Unexpected chunk type:" + chunkType);
+                    }
+            }
+            buffer.position((int) (begin + chunkSize));
+        }
+        if (resourceIds.size() > originStringCount) {
+            throw new ParserException("Resource map is larger than string pool");
+        }
+    }
+
+    private Chunk readNode(ByteBuffer buffer, int chunkType, int headerSize, int begin) {
+        Chunk chunk = new Chunk(chunkType);
+        chunk.lineNumber = buffer.getInt();
+        chunk.comment = buffer.getInt();
+        buffer.position(begin + headerSize);
+        switch (chunkType) {
+            case ChunkType.XML_START_NAMESPACE:
+            case ChunkType.XML_END_NAMESPACE:
+                // prefix, uri
+                chunk.namespace = buffer.getInt();
+                chunk.name = buffer.getInt();
+                break;
+            case ChunkType.XML_END_ELEMENT:
+                chunk.namespace = buffer.getInt();
+                chunk.name = buffer.getInt();
+                break;
+            case ChunkType.XML_CDATA:
+                // data, typed data
+                chunk.name = buffer.getInt();
+                chunk.value = readValue(buffer);
+                break;
+            case ChunkType.XML_START_ELEMENT:
+                int extStart = buffer.position();
+                chunk.namespace = buffer.getInt();
+                chunk.name = buffer.getInt();
+                int attributeStart = Buffers.readUShort(buffer);
+                int attributeSize = Buffers.readUShort(buffer);
+                int attributeCount = Buffers.readUShort(buffer);
+                int idIndex = Buffers.readUShort(buffer);
+                int classIndex = Buffers.readUShort(buffer);
+                int styleIndex = Buffers.readUShort(buffer);
+                chunk.attributes = new ArrayList<>(attributeCount + 2);
+                for (int i = 0; i < attributeCount; i++) {
+                    buffer.position(extStart + attributeStart + i * attributeSize);
+                    Attribute attribute = new Attribute();
+                    attribute.namespace = buffer.getInt();
+                    attribute.name = buffer.getInt();
+                    attribute.rawValue = buffer.getInt();
+                    attribute.value = readValue(buffer);
+                    chunk.attributes.add(attribute);
+                }
+                chunk.idAttribute = attributeAt(chunk.attributes, idIndex);
+                chunk.classAttribute = attributeAt(chunk.attributes, classIndex);
+                chunk.styleAttribute = attributeAt(chunk.attributes, styleIndex);
+                break;
+        }
+        return chunk;
+    }
+
+    private static Attribute attributeAt(List<Attribute> attributes, int index) {
+        // id, class and style index start from 1, 0 means none
+        return index > 0 && index <= attributes.size() ? attributes.get(index - 1) : null;
+    }
+
+    private static Value readValue(ByteBuffer buffer) {
+        Value value = new Value();
+        value.size = Buffers.readUShort(buffer);
+        value.res0 = Buffers.readUByte(buffer);
+        value.dataType = Buffers.readUByte(buffer);
+        value.data = buffer.getInt();
+        return value;
+    }
+
+    /**
+     * Whether the first element with the tag name has the attribute, whatever the value type is.
+     */
+    public boolean hasAttribute(String tag, int attrResId) {
+        Chunk element = findStartElement(tag);
+        return element != null && findAttribute(element, attrResId) != null;
+    }
+
+    /**
+     * Get the string value of the attribute of the first element with the tag name.
+     *
+     * @return null if the element or the attribute not found, or the value is not a string
+     */
+    public String getAttributeValue(String tag, int attrResId) {
+        Chunk element = findStartElement(tag);
+        if (element == null) {
+            return null;
+        }
+        Attribute attribute = findAttribute(element, attrResId);
+        if (attribute == null) {
+            return null;
+        }
+        if (attribute.value.dataType == ResValue.ResType.STRING && attribute.value.data >= 0) {
+            return strings.get(attribute.value.data);
+        }
+        return attribute.rawValue >= 0 ? strings.get(attribute.rawValue) : null;
+    }
+
+    /**
+     * Get the boolean value of the attribute of the first element with the tag name.
+     *
+     * @return null if the element or the attribute not found, or the value is not a boolean
+     */
+    public Boolean getAttributeBoolean(String tag, int attrResId) {
+        Chunk element = findStartElement(tag);
+        if (element == null) {
+            return null;
+        }
+        Attribute attribute = findAttribute(element, attrResId);
+        if (attribute == null || attribute.value.dataType != ResValue.ResType.INT_BOOLEAN) {
+            return null;
+        }
+        return attribute.value.data != 0;
+    }
+
+    /**
+     * Set the string value of the android attribute of the first element with the tag name,
+     * the attribute is added if not exists.
+     *
+     * @return false if the element not found
+     */
+    public boolean setAttributeValue(String tag, String attrName, int attrResId, String value) {
+        Chunk element = findStartElement(tag);
+        if (element == null) {
+            return false;
+        }
+        int valueRef = addString(value);
+        Attribute attribute = findAttribute(element, attrResId);
+        if (attribute == null) {
+            attribute = newAttribute(attrName, attrResId);
+            element.attributes.add(attribute);
+            sortAttributes(element.attributes);
+        }
+        attribute.rawValue = valueRef;
+        attribute.value.size = 8;
+        attribute.value.res0 = 0;
+        attribute.value.dataType = ResValue.ResType.STRING;
+        attribute.value.data = valueRef;
+        return true;
+    }
+
+    /**
+     * Append a child element with android string attributes to the first element with the tag name.
+     *
+     * @param attrNames  android attribute names, e.g. "name"
+     * @param attrResIds resource ids of the attributes, e.g. 0x01010003
+     * @param values     string values
+     * @return false if the parent element not found
+     */
+    public boolean appendChild(String parentTag, String tag, String[] attrNames, int[] attrResIds, String[] values) {
+        int start = -1;
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            if (chunk.type == ChunkType.XML_START_ELEMENT && tag(chunk).equals(parentTag)) {
+                start = i;
+                break;
+            }
+        }
+        if (start < 0) {
+            return false;
+        }
+        // find the end tag of the parent
+        int depth = 0;
+        int end = -1;
+        for (int i = start; i < chunks.size(); i++) {
+            int type = chunks.get(i).type;
+            if (type == ChunkType.XML_START_ELEMENT) {
+                depth++;
+            } else if (type == ChunkType.XML_END_ELEMENT && --depth == 0) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ParserException("End tag of " + parentTag + " not found");
+        }
+
+        Chunk parent = chunks.get(start);
+        Chunk startTag = new Chunk(ChunkType.XML_START_ELEMENT);
+        startTag.lineNumber = parent.lineNumber;
+        startTag.comment = -1;
+        startTag.namespace = -1;
+        startTag.name = addString(tag);
+        startTag.attributes = new ArrayList<>(attrNames.length);
+        for (int i = 0; i < attrNames.length; i++) {
+            Attribute attribute = newAttribute(attrNames[i], attrResIds[i]);
+            int valueRef = addString(values[i]);
+            attribute.rawValue = valueRef;
+            attribute.value.dataType = ResValue.ResType.STRING;
+            attribute.value.data = valueRef;
+            startTag.attributes.add(attribute);
+        }
+        sortAttributes(startTag.attributes);
+
+        Chunk endTag = new Chunk(ChunkType.XML_END_ELEMENT);
+        endTag.lineNumber = parent.lineNumber;
+        endTag.comment = -1;
+        endTag.namespace = -1;
+        endTag.name = startTag.name;
+
+        chunks.add(end, endTag);
+        chunks.add(end, startTag);
+        return true;
+    }
+
+    private Chunk findStartElement(String tag) {
+        for (Chunk chunk : chunks) {
+            if (chunk.type == ChunkType.XML_START_ELEMENT && tag(chunk).equals(tag)) {
+                return chunk;
+            }
+        }
+        return null;
+    }
+
+    private String tag(Chunk chunk) {
+        return chunk.name >= 0 ? strings.get(chunk.name) : "";
+    }
+
+    private Attribute findAttribute(Chunk element, int attrResId) {
+        for (Attribute attribute : element.attributes) {
+            if (resourceId(attribute.name) == attrResId) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+
+    private Attribute newAttribute(String attrName, int attrResId) {
+        Attribute attribute = new Attribute();
+        attribute.namespace = addString(ANDROID_NAMESPACE);
+        attribute.name = addAttributeName(attrName, attrResId);
+        attribute.value = new Value();
+        attribute.value.size = 8;
+        return attribute;
+    }
+
+    /**
+     * Attributes must be sorted by resource id, attributes without id at the end.
+     */
+    private void sortAttributes(List<Attribute> attributes) {
+        Collections.sort(attributes, new Comparator<Attribute>() {
+            @Override
+            public int compare(Attribute o1, Attribute o2) {
+                long id1 = resourceId(o1.name) & 0xffffffffL;
+                long id2 = resourceId(o2.name) & 0xffffffffL;
+                if (id1 == 0) {
+                    id1 = Long.MAX_VALUE;
+                }
+                if (id2 == 0) {
+                    id2 = Long.MAX_VALUE;
+                }
+                return Long.compare(id1, id2);
+            }
+        });
+    }
+
+    private int resourceId(int ref) {
+        if (ref < 0) {
+            return 0;
+        }
+        if (ref < resourceIds.size()) {
+            return resourceIds.get(ref);
+        }
+        if (ref >= originStringCount) {
+            return appendedIds.get(ref - originStringCount);
+        }
+        return 0;
+    }
+
+    private int addString(String value) {
+        for (int i = 0; i < strings.size(); i++) {
+            if (resourceId(i) == 0 && strings.get(i).equals(value)) {
+                return i;
+            }
+        }
+        strings.add(value);
+        appendedIds.add(0);
+        return strings.size() - 1;
+    }
+
+    private int addAttributeName(String name, int resId) {
+        for (int i = 0; i < strings.size(); i++) {
+            if (resourceId(i) == resId) {
+                return i;
+            }
+        }
+        strings.add(name);
+        appendedIds.add(resId);
+        return strings.size() - 1;
+    }
+
+    /**
+     * Rebuild the binary xml.
+     */
+    public byte[] toByteArray() {
+        // new order: strings with resource id first, then the others
+        int[] remap = new int[strings.size()];
+        List<String> newStrings = new ArrayList<>(strings.size());
+        List<Integer> newIds = new ArrayList<>(resourceIds.size() + appendedIds.size());
+        for (int i = 0; i < resourceIds.size(); i++) {
+            remap[i] = newStrings.size();
+            newStrings.add(strings.get(i));
+            newIds.add(resourceIds.get(i));
+        }
+        for (int i = originStringCount; i < strings.size(); i++) {
+            int id = appendedIds.get(i - originStringCount);
+            if (id != 0) {
+                remap[i] = newStrings.size();
+                newStrings.add(strings.get(i));
+                newIds.add(id);
+            }
+        }
+        for (int i = resourceIds.size(); i < strings.size(); i++) {
+            if (i >= originStringCount && appendedIds.get(i - originStringCount) != 0) {
+                continue;
+            }
+            remap[i] = newStrings.size();
+            newStrings.add(strings.get(i));
+        }
+
+        byte[] stringPool = writeStringPool(newStrings);
+        ByteBuffer resourceMap = allocate(8 + newIds.size() * 4);
+        resourceMap.putShort((short) ChunkType.XML_RESOURCE_MAP);
+        resourceMap.putShort((short) 8);
+        resourceMap.putInt(resourceMap.capacity());
+        for (int id : newIds) {
+            resourceMap.putInt(id);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer header = allocate(XML_HEADER_SIZE);
+        out.write(header.array(), 0, XML_HEADER_SIZE);
+        out.write(stringPool, 0, stringPool.length);
+        if (!newIds.isEmpty()) {
+            out.write(resourceMap.array(), 0, resourceMap.capacity());
+        }
+        for (Chunk chunk : chunks) {
+            byte[] data = writeChunk(chunk, remap);
+            out.write(data, 0, data.length);
+        }
+        byte[] result = out.toByteArray();
+        header = ByteBuffer.wrap(result).order(byteOrder);
+        header.putShort((short) ChunkType.XML);
+        header.putShort((short) XML_HEADER_SIZE);
+        header.putInt(result.length);
+        return result;
+    }
+
+    private byte[] writeChunk(Chunk chunk, int[] remap) {
+        if (chunk.raw != null) {
+            return chunk.raw;
+        }
+        int bodySize;
+        switch (chunk.type) {
+            case ChunkType.XML_START_ELEMENT:
+                bodySize = 20 + chunk.attributes.size() * ATTRIBUTE_SIZE;
+                break;
+            case ChunkType.XML_CDATA:
+                bodySize = 12;
+                break;
+            default:
+                bodySize = 8;
+        }
+        ByteBuffer buffer = allocate(NODE_HEADER_SIZE + bodySize);
+        buffer.putShort((short) chunk.type);
+        buffer.putShort((short) NODE_HEADER_SIZE);
+        buffer.putInt(buffer.capacity());
+        buffer.putInt(chunk.lineNumber);
+        buffer.putInt(ref(chunk.comment, remap));
+        switch (chunk.type) {
+            case ChunkType.XML_CDATA:
+                buffer.putInt(ref(chunk.name, remap));
+                writeValue(buffer, chunk.value, remap);
+                break;
+            case ChunkType.XML_START_ELEMENT:
+                buffer.putInt(ref(chunk.namespace, remap));
+                buffer.putInt(ref(chunk.name, remap));
+                buffer.putShort((short) 20);
+                buffer.putShort((short) ATTRIBUTE_SIZE);
+                buffer.putShort((short) chunk.attributes.size());
+                buffer.putShort((short) (chunk.attributes.indexOf(chunk.idAttribute) + 1));
+                buffer.putShort((short) (chunk.attributes.indexOf(chunk.classAttribute) + 1));
+                buffer.putShort((short) (chunk.attributes.indexOf(chunk.styleAttribute) + 1));
+                for (Attribute attribute : chunk.attributes) {
+                    buffer.putInt(ref(attribute.namespace, remap));
+                    buffer.putInt(ref(attribute.name, remap));
+                    buffer.putInt(ref(attribute.rawValue, remap));
+                    writeValue(buffer, attribute.value, remap);
+                }
+                break;
+            default:
+                buffer.putInt(ref(chunk.namespace, remap));
+                buffer.putInt(ref(chunk.name, remap));
+        }
+        return buffer.array();
+    }
+
+    private static void writeValue(ByteBuffer buffer, Value value, int[] remap) {
+        buffer.putShort((short) value.size);
+        buffer.put((byte) value.res0);
+        buffer.put((byte) value.dataType);
+        if (value.dataType == ResValue.ResType.STRING) {
+            buffer.putInt(ref(value.data, remap));
+        } else {
+            buffer.putInt(value.data);
+        }
+    }
+
+    private static int ref(int ref, int[] remap) {
+        return ref >= 0 && ref < remap.length ? remap[ref] : ref;
+    }
+
+    private byte[] writeStringPool(List<String> pool) {
+        boolean utf8 = (stringPoolFlags & StringPoolHeader.UTF8_FLAG) != 0;
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] offsets = new int[pool.size()];
+        for (int i = 0; i < pool.size(); i++) {
+            offsets[i] = data.size();
+            String str = pool.get(i);
+            if (utf8) {
+                byte[] bytes = str.getBytes(UTF_8);
+                writeUtf8Length(data, str.length());
+                writeUtf8Length(data, bytes.length);
+                data.write(bytes, 0, bytes.length);
+                data.write(0);
+            } else {
+                int len = str.length();
+                if (len > 0x7fff) {
+                    writeShort(data, 0x8000 | (len >>> 16));
+                }
+                writeShort(data, len & 0xffff);
+                for (int c = 0; c < len; c++) {
+                    writeShort(data, str.charAt(c));
+                }
+                writeShort(data, 0);
+            }
+        }
+        while (data.size() % 4 != 0) {
+            data.write(0);
+        }
+        int stringsStart = STRING_POOL_HEADER_SIZE + pool.size() * 4;
+        ByteBuffer buffer = allocate(stringsStart + data.size());
+        buffer.putShort((short) ChunkType.STRING_POOL);
+        buffer.putShort((short) STRING_POOL_HEADER_SIZE);
+        buffer.putInt(buffer.capacity());
+        buffer.putInt(pool.size());
+        buffer.putInt(0);
+        // the pool is no longer sorted
+        buffer.putInt((int) (stringPoolFlags & ~StringPoolHeader.SORTED_FLAG));
+        buffer.putInt(stringsStart);
+        buffer.putInt(0);
+        for (int offset : offsets) {
+            buffer.putInt(offset);
+        }
+        buffer.put(data.toByteArray());
+        return buffer.array();
+    }
+
+    private static void writeUtf8Length(ByteArrayOutputStream out, int len) {
+        if (len > 0x7f) {
+            out.write(0x80 | (len >> 8));
+        }
+        out.write(len & 0xff);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+    }
+
+    private ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(byteOrder);
+    }
+
+    private static class Chunk {
+        final int type;
+        int lineNumber;
+        int comment;
+        // namespace prefix for namespace chunks
+        int namespace;
+        // namespace uri for namespace chunks, data for cdata
+        int name;
+        Value value;
+        List<Attribute> attributes;
+        Attribute idAttribute;
+        Attribute classAttribute;
+        Attribute styleAttribute;
+        // chunks that are copied as is
+        byte[] raw;
+
+        Chunk(int type) {
+            this.type = type;
+        }
+    }
+
+    private static class Attribute {
+        int namespace;
+        int name;
+        int rawValue = -1;
+        Value value;
+    }
+
+    private static class Value {
+        int size = 8;
+        int res0;
+        int dataType;
+        int data;
+    }
+}
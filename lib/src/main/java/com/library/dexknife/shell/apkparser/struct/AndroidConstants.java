@@ -27,6 +27,17 @@ public class AndroidConstants {
      */
     public static final int ATTR_ID_START = 0x01010000;
 
+    /**
+     * android:name and android:value attr id.
+     */
+    public static final int ATTR_ID_NAME = 0x01010003;
+    public static final int ATTR_ID_VALUE = 0x01010024;
+
+    /**
+     * android:extractNativeLibs attr id.
+     */
+    public static final int ATTR_ID_EXTRACT_NATIVE_LIBS = 0x010104ea;
+
     /**
      * start offset for system android.R.style
      */
@@ -2,6 +2,7 @@ package com.library.dexknife.shell.apkparser.utils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
@@ -18,8 +19,12 @@ public class ResourceLoader {
      * load system attr ids for parse binary xml.
      */
     public static Map<Integer, String> loadSystemAttrIds() {
+        Map<Integer, String> map = new HashMap<>();
         try (BufferedReader reader = toReader("/res/r_values.ini")) {
-            Map<Integer, String> map = new HashMap<>();
+            if (reader == null) {
+                // only used as names of attributes with an empty name in the string pool
+                return map;
+            }
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] items = line.trim().split("=");
@@ -30,15 +35,18 @@ public class ResourceLoader {
                 Integer id = Integer.valueOf(items[1].trim());
                 map.put(id, name);
             }
-            return map;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        return map;
     }
 
     public static Map<Integer, String> loadSystemStyles() {
         Map<Integer, String> map = new HashMap<>();
         try (BufferedReader reader = toReader("/res/r_styles.ini")) {
+            if (reader == null) {
+                return map;
+            }
             String line;
             while ((line = reader.readLine()) != null) {
                 line = line.trim();
@@ -57,8 +65,14 @@ public class ResourceLoader {
     }
 
 
+    /**
+     * @return null if the resource is not in the classpath
+     */
     private static BufferedReader toReader(String path) {
-        return new BufferedReader(new InputStreamReader(
-                ResourceLoader.class.getResourceAsStream(path)));
+        InputStream in = ResourceLoader.class.getResourceAsStream(path);
+        if (in == null) {
+            return null;
+        }
+        return new BufferedReader(new InputStreamReader(in));
     }
 }
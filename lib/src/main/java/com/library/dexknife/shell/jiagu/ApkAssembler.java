@@ -0,0 +1,274 @@
+package com.library.dexknife.shell.jiagu;
+
+import com.library.dexknife.shell.utils.Debug;
+import com.library.dexknife.shell.utils.FileHelper;
+import com.library.dexknife.shell.utils.IO;
+import com.library.dexknife.shell.utils.ZipIndex;
+import com.library.dexknife.shell.utils.ZipWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * 输出apk组装
+ * <p>
+ * 前面各个阶段（直接修改、apktool回编译、资源混淆）只把条目登记到这里，
+ * 未改动的条目引用原apk中的原始数据，新条目引用文件或内存数据。
+ * 最后由{@link #write(File, KeystoreConfig)}统一决定顺序和压缩方式，对齐并签名，只写一次输出。
+ */
+public class ApkAssembler implements Closeable {
+
+    public static final String TAG = ApkAssembler.class.getSimpleName();
+
+    static final Pattern SIGNATURE_PATTERN = Pattern.compile(
+            "META-INF/(MANIFEST\\.MF|[^/]+\\.(SF|RSA|DSA|EC)|SIG-[^/]+)");
+
+    private static final String MANIFEST = "AndroidManifest.xml";
+    private static final String RESOURCES = "resources.arsc";
+
+    /**
+     * 已经压缩过的格式直接存储（和aapt的默认列表一致）
+     */
+    private static final Set<String> NO_COMPRESS_EXTENSIONS = new HashSet<>(Arrays.asList(
+            ".jpg", ".jpeg", ".png", ".gif", ".webp", ".wav", ".mp2", ".mp3", ".ogg", ".aac",
+            ".mpg", ".mpeg", ".mid", ".midi", ".smf", ".jet", ".rtttl", ".imy", ".xmf", ".mp4",
+            ".m4a", ".m4v", ".3gp", ".3gpp", ".3g2", ".3gpp2", ".amr", ".awb", ".wma", ".wmv",
+            ".webm", ".mkv", ".zip", ".jar", ".apk"));
+
+    private final Map<String, Source> sources = new LinkedHashMap<>();
+    private final List<Closeable> resources = new ArrayList<>();
+    private final List<File> tempFiles = new ArrayList<>();
+
+    /**
+     * 打开apk，关闭时一起关闭
+     */
+    public ZipIndex open(File apk) throws IOException {
+        ZipIndex index = new ZipIndex(apk);
+        resources.add(index);
+        return index;
+    }
+
+    /**
+     * 添加apk中的所有条目（目录除外）
+     */
+    public void addAll(ZipIndex index) {
+        for (ZipIndex.Entry entry : index.getEntries()) {
+            if (!entry.isDirectory()) {
+                addRaw(index, entry);
+            }
+        }
+    }
+
+    /**
+     * 按原始数据拷贝，不解压也不重新压缩
+     */
+    public void addRaw(ZipIndex index, ZipIndex.Entry entry) {
+        sources.put(entry.getName(), new RawSource(index, entry));
+    }
+
+    public void addFile(String name, File file, boolean compress) {
+        sources.put(name, new FileSource(file, shouldCompress(name, compress)));
+    }
+
+    public void addBytes(String name, byte[] data, boolean compress) {
+        sources.put(name, new BytesSource(data, shouldCompress(name, compress)));
+    }
+
+    public boolean contains(String name) {
+        return sources.containsKey(name);
+    }
+
+    public boolean remove(String name) {
+        return sources.remove(name) != null;
+    }
+
+    /**
+     * 去掉原有的签名文件
+     */
+    public void removeSignatureFiles() {
+        Iterator<String> iterator = sources.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (SIGNATURE_PATTERN.matcher(iterator.next()).matches()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 输出顺序：AndroidManifest.xml在最前，其余按添加顺序
+     */
+    public List<String> getNames() {
+        List<String> names = new ArrayList<>(sources.size());
+        if (sources.containsKey(MANIFEST)) {
+            names.add(MANIFEST);
+        }
+        for (String name : sources.keySet()) {
+            if (!name.equals(MANIFEST)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 关闭时删除的临时文件或目录
+     */
+    public void deleteOnClose(File file) {
+        tempFiles.add(file);
+    }
+
+    /**
+     * 条目解压后的数据，可以在多个线程中同时调用
+     */
+    InputStream openStream(String name) throws IOException {
+        Source source = sources.get(name);
+        if (source == null) {
+            throw new IOException("entry not found : " + name);
+        }
+        return source.open();
+    }
+
+    /**
+     * 按{@link #getNames()}的顺序写入所有条目
+     */
+    void writeEntries(ZipWriter writer) throws IOException {
+        for (String name : getNames()) {
+            sources.get(name).write(writer, name);
+        }
+    }
+
+    /**
+     * 写出最终的apk
+     * @param outApk 输出，不能是已添加的apk
+     * @param config 签名配置，为null时只对齐不签名
+     * @return 是否成功
+     */
+    public boolean write(File outApk, KeystoreConfig config) {
+        if (config != null) {
+            ApkSigner signer = ApkSigner.get(config);
+            if (signer == null) {
+                Debug.e("load keystore failure : " + config.keystorePath);
+                return false;
+            }
+            return signer.sign(this, outApk);
+        }
+        ZipWriter writer = null;
+        try {
+            writer = new ZipWriter(outApk);
+            writer.setAlign(true);
+            writeEntries(writer);
+            writer.close();
+            writer = null;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IO.close(writer);
+        }
+        outApk.delete();
+        return false;
+    }
+
+    /**
+     * 压缩方式：resources.arsc和已经压缩过的格式不压缩
+     */
+    static boolean shouldCompress(String name, boolean compress) {
+        if (!compress || name.equals(RESOURCES)) {
+            return false;
+        }
+        int dot = name.lastIndexOf('.');
+        return dot < 0 || !NO_COMPRESS_EXTENSIONS.contains(name.substring(dot).toLowerCase());
+    }
+
+    @Override
+    public void close() {
+        for (Closeable resource : resources) {
+            IO.close(resource);
+        }
+        resources.clear();
+        for (File file : tempFiles) {
+            FileHelper.delete(file);
+        }
+        tempFiles.clear();
+        sources.clear();
+    }
+
+    private interface Source {
+        InputStream open() throws IOException;
+
+        void write(ZipWriter writer, String name) throws IOException;
+    }
+
+    private static class RawSource implements Source {
+        private final ZipIndex index;
+        private final ZipIndex.Entry entry;
+
+        RawSource(ZipIndex index, ZipIndex.Entry entry) {
+            this.index = index;
+            this.entry = entry;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return index.openStream(entry);
+        }
+
+        @Override
+        public void write(ZipWriter writer, String name) throws IOException {
+            writer.copyRaw(index, entry, name);
+        }
+    }
+
+    private static class FileSource implements Source {
+        private final File file;
+        private final boolean compress;
+
+        FileSource(File file, boolean compress) {
+            this.file = file;
+            this.compress = compress;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return new FileInputStream(file);
+        }
+
+        @Override
+        public void write(ZipWriter writer, String name) throws IOException {
+            writer.putFile(name, file, compress);
+        }
+    }
+
+    private static class BytesSource implements Source {
+        private final byte[] data;
+        private final boolean compress;
+
+        BytesSource(byte[] data, boolean compress) {
+            this.data = data;
+            this.compress = compress;
+        }
+
+        @Override
+        public InputStream open() {
+            return new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public void write(ZipWriter writer, String name) throws IOException {
+            writer.putBytes(name, data, compress);
+        }
+    }
+}
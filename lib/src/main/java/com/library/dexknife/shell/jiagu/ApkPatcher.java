@@ -0,0 +1,154 @@
+package com.library.dexknife.shell.jiagu;
+
+import com.library.dexknife.shell.apkparser.parser.BinaryXmlEditor;
+import com.library.dexknife.shell.apkparser.struct.AndroidConstants;
+import com.library.dexknife.shell.utils.Debug;
+import com.library.dexknife.shell.utils.FileHelper;
+import com.library.dexknife.shell.utils.ZipIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 直接修改apk（不经过apktool反编译/回编译）
+ * <p>
+ * 未改动的条目按原始数据直接拷贝，替换classes.dex为壳dex，
+ * 写入加密后的assets/libprotected.jar/*和lib/*&#47;libprotected.so，并直接修改二进制AndroidManifest.xml。
+ * 条目只登记到{@link ApkAssembler}，由它统一写出
+ */
+public class ApkPatcher {
+
+    public static final String TAG = ApkPatcher.class.getSimpleName();
+
+    private static final String MANIFEST = "AndroidManifest.xml";
+    private static final Pattern LIB_PATTERN = Pattern.compile("lib/([^/]+)/[^/]+");
+    private static final Pattern SO_PATTERN = Pattern.compile("lib/[^/]+/[^/]+\\.so");
+    private static final String SHELL_LIB_NAME = "libprotected.so";
+
+    /**
+     * 加固apk
+     *
+     * @param apk         原apk
+     * @param assembler   输出，临时文件在它关闭时删除
+     * @param workDir     临时工作目录
+     * @param template    壳模板
+     * @param dataBin     加密dex在assets中的目录名
+     * @param appKey      签名信息，可以为null
+     * @param config      加固配置
+     * @return 是否成功
+     */
+    public static boolean patch(File apk, ApkAssembler assembler, File workDir, ShellTemplate template, String dataBin, byte[] appKey, JiaGuConfig config) {
+        File patchDir = new File(workDir, "patch");
+        FileHelper.delete(patchDir);
+        patchDir.mkdirs();
+        assembler.deleteOnClose(patchDir);
+        try {
+            ZipIndex index = assembler.open(apk);
+
+            ZipIndex.Entry manifestEntry = index.getEntry(MANIFEST);
+            if (manifestEntry == null) {
+                Debug.e("AndroidManifest.xml not found : " + apk.getAbsolutePath());
+                return false;
+            }
+            byte[] originManifest = index.readBytes(manifestEntry);
+            byte[] manifest = JiaGuEngine.updateMenifest(originManifest, config.proxyApplicationName);
+            if (manifest == null) {
+                return false;
+            }
+
+            List<ZipIndex.Entry> dexEntries = DexEncryptor.listDex(index);
+            if (dexEntries.isEmpty()) {
+                Debug.e("classes.dex not found : " + apk.getAbsolutePath());
+                return false;
+            }
+            List<ZipIndex.Entry> mergeEntries = new ArrayList<>();
+            dexEntries = DexMerger.split(dexEntries, config, mergeEntries);
+
+            byte[] shellDex = DexMerger.shellDex(template, index, mergeEntries, patchDir);
+            if (shellDex == null) {
+                return false;
+            }
+            Map<String, byte[]> shellLibs = template.getShellLibs();
+
+            List<File> payloads = DexEncryptor.encrypt(index, dexEntries, new File(patchDir, dataBin), config);
+            if (payloads == null) {
+                return false;
+            }
+
+            Set<String> abis = new LinkedHashSet<>();
+            for (ZipIndex.Entry entry : index.getEntries()) {
+                Matcher matcher = LIB_PATTERN.matcher(entry.getName());
+                if (matcher.matches()) {
+                    abis.add(matcher.group(1));
+                }
+            }
+
+            String assetsPrefix = "assets/" + dataBin + "/";
+            for (ZipIndex.Entry entry : index.getEntries()) {
+                String name = entry.getName();
+                if (name.equals(MANIFEST)) {
+                    assembler.addBytes(MANIFEST, manifest, true);
+                } else if (name.equals("classes.dex")) {
+                    assembler.addBytes(name, shellDex, true);
+                } else if (DexEncryptor.DEX_PATTERN.matcher(name).matches()
+                        || ApkAssembler.SIGNATURE_PATTERN.matcher(name).matches()
+                        || name.startsWith(assetsPrefix)
+                        || name.equals("assets/app.key")
+                        || entry.isDirectory()) {
+                    // 原dex已加密到assets中，签名文件重新签名时生成
+                } else {
+                    assembler.addRaw(index, entry);
+                }
+            }
+            for (File payload : payloads) {
+                // 加密后的数据已经压缩过，直接存储
+                assembler.addFile(assetsPrefix + payload.getName(), payload, false);
+            }
+            if (appKey != null) {
+                assembler.addBytes("assets/app.key", appKey, true);
+            }
+            // 与原apk中的so相同的存储方式，STORED时写出时按页对齐
+            boolean compressLibs = isCompressLibs(index, originManifest);
+            for (Map.Entry<String, byte[]> lib : shellLibs.entrySet()) {
+                String abi = lib.getKey();
+                String name = "lib/" + abi + "/" + SHELL_LIB_NAME;
+                if ((abis.isEmpty() || abis.contains(abi)) && !assembler.contains(name)) {
+                    assembler.addBytes(name, lib.getValue(), compressLibs);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * 壳so是否压缩
+     * <p>
+     * extractNativeLibs="false"时so必须不压缩且页对齐，否则无法安装。
+     * 原apk中有so时使用相同的存储方式，没有时按AndroidManifest中的extractNativeLibs（默认为true）。
+     */
+    static boolean isCompressLibs(ZipIndex index, byte[] manifest) {
+        for (ZipIndex.Entry entry : index.getEntries()) {
+            if (SO_PATTERN.matcher(entry.getName()).matches()) {
+                return entry.getMethod() != ZipIndex.METHOD_STORED;
+            }
+        }
+        try {
+            Boolean extractNativeLibs = new BinaryXmlEditor(manifest)
+                    .getAttributeBoolean("application", AndroidConstants.ATTR_ID_EXTRACT_NATIVE_LIBS);
+            return extractNativeLibs == null || extractNativeLibs;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+}
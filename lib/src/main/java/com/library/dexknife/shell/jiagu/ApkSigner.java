@@ -0,0 +1,590 @@
+package com.library.dexknife.shell.jiagu;
+
+import com.library.dexknife.shell.utils.Debug;
+import com.library.dexknife.shell.utils.IO;
+import com.library.dexknife.shell.utils.ZipWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * apk签名（v1 + v2 + v3），代替jarsigner
+ * <p>
+ * 1.v1：并行计算每个条目的SHA1，生成MANIFEST.MF、CERT.SF和CERT.RSA（PKCS#7）；
+ * 2.v2/v3：条目写完后按1MB分块并行计算SHA-256，在中央目录前插入APK Signing Block。
+ * <p>
+ * 输出只写一次，条目按原始数据拷贝并对齐，不需要再zipalign。
+ * 同一个{@link KeystoreConfig}的密钥只加载一次。
+ */
+public class ApkSigner {
+
+    public static final String TAG = ApkSigner.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+    private static final String SIGNATURE_FILE_NAME = "META-INF/CERT.SF";
+    private static final String CREATED_BY = "1.0 (Android)";
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final long APK_SIG_BLOCK_MAGIC_LO = 0x20676953204b5041L;
+    private static final long APK_SIG_BLOCK_MAGIC_HI = 0x3234206b636f6c42L;
+    private static final int APK_SIGNATURE_SCHEME_V2_BLOCK_ID = 0x7109871a;
+    private static final int APK_SIGNATURE_SCHEME_V3_BLOCK_ID = 0xf05368c0;
+    private static final int STRIPPING_PROTECTION_ATTR_ID = 0xbeeff00d;
+    private static final int SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA256 = 0x0103;
+    private static final int SIGNATURE_ECDSA_WITH_SHA256 = 0x0201;
+    private static final int SIGNATURE_DSA_WITH_SHA256 = 0x0301;
+    private static final int V3_MIN_SDK = 28;
+    private static final int V3_MAX_SDK = Integer.MAX_VALUE;
+
+    private static final Map<String, ApkSigner> signers = new HashMap<>();
+
+    private final PrivateKey privateKey;
+    private final X509Certificate[] certificates;
+    private final String certName;
+
+    private ApkSigner(PrivateKey privateKey, X509Certificate[] certificates, String certName) {
+        this.privateKey = privateKey;
+        this.certificates = certificates;
+        this.certName = certName;
+    }
+
+    /**
+     * 加载签名配置，相同配置只加载一次
+     * @param config
+     * @return 加载失败返回null
+     */
+    public static synchronized ApkSigner get(KeystoreConfig config) {
+        String key = config.fingerprint();
+        ApkSigner signer = signers.get(key);
+        if (signer == null) {
+            signer = load(config);
+            if (signer != null) {
+                signers.put(key, signer);
+            }
+        }
+        return signer;
+    }
+
+    private static ApkSigner load(KeystoreConfig config) {
+        char[] storePassword = config.keystorePassword != null ? config.keystorePassword.toCharArray() : null;
+        char[] keyPassword = config.aliasPassword != null ? config.aliasPassword.toCharArray() : storePassword;
+        for (String type : new String[]{KeyStore.getDefaultType(), "JKS", "PKCS12"}) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(config.keystorePath);
+                KeyStore keyStore = KeyStore.getInstance(type);
+                keyStore.load(in, storePassword);
+                PrivateKey privateKey = (PrivateKey) keyStore.getKey(config.alias, keyPassword);
+                Certificate[] chain = keyStore.getCertificateChain(config.alias);
+                if (privateKey == null || chain == null || chain.length == 0) {
+                    Debug.e("alias not found in keystore : " + config.alias);
+                    return null;
+                }
+                X509Certificate[] certificates = new X509Certificate[chain.length];
+                for (int i = 0; i < chain.length; i++) {
+                    certificates[i] = (X509Certificate) chain[i];
+                }
+                String certName = "CERT." + ("RSA".equals(privateKey.getAlgorithm()) ? "RSA"
+                        : "EC".equals(privateKey.getAlgorithm()) ? "EC" : "DSA");
+                return new ApkSigner(privateKey, certificates, certName);
+            } catch (IOException e) {
+                // 密码错误或keystore类型不对，继续尝试下一种类型
+                Debug.w("load keystore failure (" + type + ") : " + e.getMessage());
+            } catch (GeneralSecurityException e) {
+                Debug.w("load keystore failure (" + type + ") : " + e.getMessage());
+            } finally {
+                IO.close(in);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 签名apk
+     * @param apk    未签名（或需要重新签名）的apk，原有的签名文件会被去掉
+     * @param outApk 已签名并对齐的apk，不能和输入相同
+     * @return 是否成功
+     */
+    public boolean sign(File apk, File outApk) {
+        ApkAssembler assembler = new ApkAssembler();
+        try {
+            assembler.addAll(assembler.open(apk));
+            return sign(assembler, outApk);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            assembler.close();
+        }
+        return false;
+    }
+
+    /**
+     * 签名并写出组装好的apk
+     * @param assembler 所有条目，原有的签名文件会被去掉
+     * @param outApk    已签名并对齐的apk
+     * @return 是否成功
+     */
+    public boolean sign(ApkAssembler assembler, File outApk) {
+        ZipWriter writer = null;
+        ExecutorService executor = newExecutor();
+        try {
+            assembler.removeSignatureFiles();
+            List<String> names = assembler.getNames();
+
+            /**
+             * 1.v1
+             */
+            List<String> digests = digestEntries(executor, assembler, names);
+            List<byte[]> sections = createManifestSections(names, digests);
+            byte[] manifest = concat(sections.toArray(new byte[sections.size()][]));
+            byte[] signatureFile = createSignatureFile(manifest, names, sections);
+            byte[] signatureBlock = createSignatureBlock(signatureFile);
+
+            writer = new ZipWriter(outApk);
+            writer.setAlign(true);
+            writer.putBytes(MANIFEST_NAME, manifest, true);
+            writer.putBytes(SIGNATURE_FILE_NAME, signatureFile, true);
+            writer.putBytes("META-INF/" + certName, signatureBlock, true);
+            assembler.writeEntries(writer);
+
+            /**
+             * 2.v2 + v3
+             */
+            writer.close(new SigningBlockCreator(executor));
+            writer = null;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+        } finally {
+            executor.shutdownNow();
+            IO.close(writer);
+        }
+        outApk.delete();
+        return false;
+    }
+
+    private static ExecutorService newExecutor() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jiagu-sign-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks) throws IOException {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        List<T> result = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                result.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        return result;
+    }
+
+    /* ---------------- v1 ---------------- */
+
+    /**
+     * 并行计算每个条目解压后数据的SHA1
+     */
+    private static List<String> digestEntries(ExecutorService executor, final ApkAssembler assembler, List<String> names) throws IOException {
+        List<Callable<String>> tasks = new ArrayList<>(names.size());
+        for (final String name : names) {
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                    InputStream in = assembler.openStream(name);
+                    try {
+                        byte[] buffer = new byte[64 * 1024];
+                        int len;
+                        while ((len = in.read(buffer)) != -1) {
+                            digest.update(buffer, 0, len);
+                        }
+                    } finally {
+                        IO.close(in);
+                    }
+                    return base64(digest.digest());
+                }
+            });
+        }
+        return invokeAll(executor, tasks);
+    }
+
+    /**
+     * MANIFEST.MF按段生成：第一段是主属性，后面每个条目一段
+     */
+    private static List<byte[]> createManifestSections(List<String> names, List<String> digests) {
+        List<byte[]> sections = new ArrayList<>(names.size() + 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeAttribute(out, "Manifest-Version", "1.0");
+        writeAttribute(out, "Created-By", CREATED_BY);
+        writeNewLine(out);
+        sections.add(out.toByteArray());
+        for (int i = 0; i < names.size(); i++) {
+            out.reset();
+            writeAttribute(out, "Name", names.get(i));
+            writeAttribute(out, "SHA1-Digest", digests.get(i));
+            writeNewLine(out);
+            sections.add(out.toByteArray());
+        }
+        return sections;
+    }
+
+    /**
+     * CERT.SF：MANIFEST.MF整体和每个条目段的SHA1
+     */
+    private static byte[] createSignatureFile(byte[] manifest, List<String> names, List<byte[]> sections) throws GeneralSecurityException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeAttribute(out, "Signature-Version", "1.0");
+        writeAttribute(out, "Created-By", CREATED_BY);
+        writeAttribute(out, "SHA1-Digest-Manifest", base64(MessageDigest.getInstance("SHA-1").digest(manifest)));
+        // 防止去掉v2/v3签名后只用v1校验
+        writeAttribute(out, "X-Android-APK-Signed", "2, 3");
+        writeNewLine(out);
+        for (int i = 0; i < names.size(); i++) {
+            writeAttribute(out, "Name", names.get(i));
+            writeAttribute(out, "SHA1-Digest", base64(MessageDigest.getInstance("SHA-1").digest(sections.get(i + 1))));
+            writeNewLine(out);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeNewLine(ByteArrayOutputStream out) {
+        out.write('\r');
+        out.write('\n');
+    }
+
+    /**
+     * 写入属性，每行不超过72字节，超出的部分以空格开头续行
+     */
+    private static void writeAttribute(ByteArrayOutputStream out, String name, String value) {
+        byte[] line = (name + ": " + value).getBytes(UTF_8);
+        int pos = 0;
+        int max = 70;
+        while (pos < line.length) {
+            int len = Math.min(max, line.length - pos);
+            if (pos > 0) {
+                out.write(' ');
+            }
+            out.write(line, pos, len);
+            writeNewLine(out);
+            pos += len;
+            max = 69;
+        }
+    }
+
+    /**
+     * CERT.RSA：PKCS#7 SignedData（不含签名属性，content为空）
+     */
+    private byte[] createSignatureBlock(byte[] signatureFile) throws GeneralSecurityException {
+        String keyAlgorithm = privateKey.getAlgorithm();
+        Signature signature = Signature.getInstance("SHA1with" + ("EC".equals(keyAlgorithm) ? "ECDSA" : keyAlgorithm));
+        signature.initSign(privateKey);
+        signature.update(signatureFile);
+        byte[] signed = signature.sign();
+
+        byte[] sha1 = Der.sequence(Der.oid("1.3.14.3.2.26"), Der.NULL);
+        byte[] encryption;
+        if ("RSA".equals(keyAlgorithm)) {
+            encryption = Der.sequence(Der.oid("1.2.840.113549.1.1.1"), Der.NULL);
+        } else if ("EC".equals(keyAlgorithm)) {
+            encryption = Der.sequence(Der.oid("1.2.840.10045.4.1"));
+        } else {
+            encryption = Der.sequence(Der.oid("1.2.840.10040.4.3"));
+        }
+        X509Certificate cert = certificates[0];
+        byte[] signerInfo = Der.sequence(
+                Der.integer(BigInteger.ONE),
+                Der.sequence(cert.getIssuerX500Principal().getEncoded(), Der.integer(cert.getSerialNumber())),
+                sha1,
+                encryption,
+                Der.tag(0x04, signed));
+        byte[][] certs = new byte[certificates.length][];
+        for (int i = 0; i < certificates.length; i++) {
+            certs[i] = certificates[i].getEncoded();
+        }
+        byte[] signedData = Der.sequence(
+                Der.integer(BigInteger.ONE),
+                Der.set(sha1),
+                Der.sequence(Der.oid("1.2.840.113549.1.7.1")),
+                Der.tag(0xa0, concat(certs)),
+                Der.set(signerInfo));
+        return Der.sequence(Der.oid("1.2.840.113549.1.7.2"), Der.tag(0xa0, signedData));
+    }
+
+    private static String base64(byte[] data) {
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    /* ---------------- v2 / v3 ---------------- */
+
+    private class SigningBlockCreator implements ZipWriter.SigningBlock {
+
+        private final ExecutorService executor;
+
+        SigningBlockCreator(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public ByteBuffer create(FileChannel channel, long entriesEnd, ByteBuffer centralDirectory, ByteBuffer eocd) throws IOException {
+            try {
+                byte[] digest = digestContents(executor, channel, entriesEnd, centralDirectory, eocd);
+                byte[] v2 = createSignerBlock(digest, false);
+                byte[] v3 = createSignerBlock(digest, true);
+                return createApkSigningBlock(v2, v3);
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * 内容摘要：条目、中央目录、EOCD按1MB分块，所有块并行计算
+     * <p>
+     * 块摘要 = SHA256(0xa5 | 块长度 | 块)，总摘要 = SHA256(0x5a | 块数 | 块摘要...)
+     */
+    private static byte[] digestContents(ExecutorService executor, final FileChannel channel, long entriesEnd,
+                                         ByteBuffer centralDirectory, ByteBuffer eocd) throws IOException, GeneralSecurityException {
+        List<Callable<byte[]>> tasks = new ArrayList<>();
+        for (long position = 0; position < entriesEnd; position += CHUNK_SIZE) {
+            final long chunkStart = position;
+            final int chunkSize = (int) Math.min(CHUNK_SIZE, entriesEnd - position);
+            tasks.add(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    ByteBuffer chunk = ByteBuffer.allocate(chunkSize);
+                    long pos = chunkStart;
+                    while (chunk.hasRemaining()) {
+                        int len = channel.read(chunk, pos);
+                        if (len < 0) {
+                            throw new IOException("unexpected end of apk at " + pos);
+                        }
+                        pos += len;
+                    }
+                    chunk.flip();
+                    return digestChunk(chunk);
+                }
+            });
+        }
+        for (final ByteBuffer section : new ByteBuffer[]{centralDirectory, eocd}) {
+            for (int position = section.position(); position < section.limit(); position += CHUNK_SIZE) {
+                ByteBuffer slice = section.duplicate();
+                slice.position(position);
+                slice.limit(Math.min(section.limit(), position + CHUNK_SIZE));
+                final ByteBuffer chunk = slice.slice();
+                tasks.add(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return digestChunk(chunk);
+                    }
+                });
+            }
+        }
+        List<byte[]> chunkDigests = invokeAll(executor, tasks);
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        ByteBuffer header = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 0x5a).putInt(chunkDigests.size());
+        digest.update(header.array());
+        for (byte[] chunkDigest : chunkDigests) {
+            digest.update(chunkDigest);
+        }
+        return digest.digest();
+    }
+
+    private static byte[] digestChunk(ByteBuffer chunk) throws GeneralSecurityException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        ByteBuffer header = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 0xa5).putInt(chunk.remaining());
+        digest.update(header.array());
+        digest.update(chunk);
+        return digest.digest();
+    }
+
+    private int signatureAlgorithmId() {
+        String keyAlgorithm = privateKey.getAlgorithm();
+        if ("RSA".equals(keyAlgorithm)) {
+            return SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA256;
+        } else if ("EC".equals(keyAlgorithm)) {
+            return SIGNATURE_ECDSA_WITH_SHA256;
+        }
+        return SIGNATURE_DSA_WITH_SHA256;
+    }
+
+    /**
+     * v2/v3的签名者块（只有一个签名者）
+     */
+    private byte[] createSignerBlock(byte[] contentDigest, boolean v3) throws GeneralSecurityException {
+        int algorithmId = signatureAlgorithmId();
+        byte[][] certs = new byte[certificates.length][];
+        for (int i = 0; i < certificates.length; i++) {
+            certs[i] = prefixed(certificates[i].getEncoded());
+        }
+        byte[] attributes;
+        if (v3) {
+            attributes = new byte[0];
+        } else {
+            // v2中声明同时有v3签名，防止v3签名被去掉
+            attributes = prefixed(concat(int32(STRIPPING_PROTECTION_ATTR_ID), int32(3)));
+        }
+        byte[] signedData = concat(
+                prefixed(prefixed(concat(int32(algorithmId), prefixed(contentDigest)))),
+                prefixed(concat(certs)),
+                v3 ? concat(int32(V3_MIN_SDK), int32(V3_MAX_SDK)) : new byte[0],
+                prefixed(attributes));
+
+        String keyAlgorithm = privateKey.getAlgorithm();
+        Signature signature = Signature.getInstance("SHA256with" + ("EC".equals(keyAlgorithm) ? "ECDSA" : keyAlgorithm));
+        signature.initSign(privateKey);
+        signature.update(signedData);
+        byte[] signatures = prefixed(prefixed(concat(int32(algorithmId), prefixed(signature.sign()))));
+
+        byte[] signer = concat(
+                prefixed(signedData),
+                v3 ? concat(int32(V3_MIN_SDK), int32(V3_MAX_SDK)) : new byte[0],
+                signatures,
+                prefixed(certificates[0].getPublicKey().getEncoded()));
+        return prefixed(prefixed(signer));
+    }
+
+    /**
+     * APK Signing Block：size | (长度 | id | 值)... | size | magic
+     */
+    private static ByteBuffer createApkSigningBlock(byte[] v2, byte[] v3) {
+        long size = 8 + 4 + v2.length + 8 + 4 + v3.length + 8 + 16;
+        ByteBuffer block = ByteBuffer.allocate((int) (size + 8)).order(ByteOrder.LITTLE_ENDIAN);
+        block.putLong(size);
+        block.putLong(4 + v2.length).putInt(APK_SIGNATURE_SCHEME_V2_BLOCK_ID).put(v2);
+        block.putLong(4 + v3.length).putInt(APK_SIGNATURE_SCHEME_V3_BLOCK_ID).put(v3);
+        block.putLong(size);
+        block.putLong(APK_SIG_BLOCK_MAGIC_LO).putLong(APK_SIG_BLOCK_MAGIC_HI);
+        block.flip();
+        return block;
+    }
+
+    private static byte[] int32(int value) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+    }
+
+    private static byte[] prefixed(byte[] data) {
+        return concat(int32(data.length), data);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int pos = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, pos, part.length);
+            pos += part.length;
+        }
+        return result;
+    }
+
+    /**
+     * 生成PKCS#7需要的DER编码
+     */
+    private static class Der {
+
+        static final byte[] NULL = {0x05, 0x00};
+
+        static byte[] tag(int tag, byte[] content) {
+            int length = content.length;
+            byte[] lengthBytes;
+            if (length < 0x80) {
+                lengthBytes = new byte[]{(byte) length};
+            } else {
+                int n = 0;
+                for (int l = length; l > 0; l >>>= 8) {
+                    n++;
+                }
+                lengthBytes = new byte[n + 1];
+                lengthBytes[0] = (byte) (0x80 | n);
+                for (int i = n; i > 0; i--) {
+                    lengthBytes[i] = (byte) length;
+                    length >>>= 8;
+                }
+            }
+            return concat(new byte[]{(byte) tag}, lengthBytes, content);
+        }
+
+        static byte[] sequence(byte[]... items) {
+            return tag(0x30, concat(items));
+        }
+
+        static byte[] set(byte[]... items) {
+            return tag(0x31, concat(items));
+        }
+
+        static byte[] integer(BigInteger value) {
+            return tag(0x02, value.toByteArray());
+        }
+
+        static byte[] oid(String oid) {
+            String[] parts = oid.split("\\.");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(Integer.parseInt(parts[0]) * 40 + Integer.parseInt(parts[1]));
+            for (int i = 2; i < parts.length; i++) {
+                long value = Long.parseLong(parts[i]);
+                byte[] tmp = new byte[10];
+                int n = 0;
+                do {
+                    tmp[n++] = (byte) (value & 0x7f);
+                    value >>>= 7;
+                } while (value > 0);
+                for (int j = n - 1; j >= 0; j--) {
+                    out.write(j > 0 ? (tmp[j] | 0x80) : tmp[j]);
+                }
+            }
+            return tag(0x06, out.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.library.dexknife.shell.jiagu;
+
+import com.library.dexknife.shell.utils.DataProtector;
+import com.library.dexknife.shell.utils.Debug;
+import com.library.dexknife.shell.utils.HASH;
+import com.library.dexknife.shell.utils.IO;
+import com.library.dexknife.shell.utils.ZipIndex;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 加密apk中的dex
+ * <p>
+ * 所有dex共享同一个{@link ZipIndex}，在有界线程池中并行地从apk流式读取并加密，
+ * 输出文件名固定为classes{N+1}.dex，与线程执行顺序无关
+ */
+class DexEncryptor {
+
+    public static final String TAG = DexEncryptor.class.getSimpleName();
+
+    static final Pattern DEX_PATTERN = Pattern.compile("classes(\\d*)\\.dex");
+
+    /**
+     * 按classes.dex、classes2.dex...的顺序列出dex
+     */
+    static List<ZipIndex.Entry> listDex(ZipIndex index) {
+        List<ZipIndex.Entry> list = index.list(DEX_PATTERN.pattern());
+        Collections.sort(list, new Comparator<ZipIndex.Entry>() {
+            @Override
+            public int compare(ZipIndex.Entry o1, ZipIndex.Entry o2) {
+                return dexNumber(o1.getName()) - dexNumber(o2.getName());
+            }
+        });
+        return list;
+    }
+
+    /**
+     * classes.dex -> 1，classesN.dex -> N
+     */
+    static int dexNumber(String name) {
+        Matcher matcher = DEX_PATTERN.matcher(name);
+        if (!matcher.matches() || matcher.group(1).isEmpty()) {
+            return 1;
+        }
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    /**
+     * 加密后的文件名：classesN.dex -> classes(N+1).dex
+     */
+    static String encryptedName(String dexName) {
+        return "classes" + (dexNumber(dexName) + 1) + ".dex";
+    }
+
+    /**
+     * 线程数，不超过CPU核数和dex数量
+     * @param dexThreads 配置的线程数，0表示使用CPU核数
+     */
+    static int threadCount(int dexThreads, int dexCount) {
+        int threads = dexThreads > 0 ? dexThreads : Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(threads, dexCount));
+    }
+
+    /**
+     * 并行加密dex
+     * @param index   apk索引
+     * @param dexEntries 需要加密的dex
+     * @param outDir  输出目录
+     * @param config  线程数和缓存配置
+     * @return 加密后的文件，顺序与dexEntries一致；失败返回null
+     */
+    static List<File> encrypt(ZipIndex index, List<ZipIndex.Entry> dexEntries, File outDir, JiaGuConfig config) {
+        outDir.mkdirs();
+        final File cacheDir = config.cache ? config.cacheDir : null;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount(config.dexThreads, dexEntries.size()), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jiagu-dex-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<File>> futures = new ArrayList<>(dexEntries.size());
+            for (ZipIndex.Entry dexEntry : dexEntries) {
+                futures.add(executor.submit(new EncryptTask(index, dexEntry, outDir, cacheDir, config.cacheMaxSizeMB)));
+            }
+            List<File> result = new ArrayList<>(futures.size());
+            for (Future<File> future : futures) {
+                File file = future.get();
+                if (file == null) {
+                    return null;
+                }
+                result.add(file);
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } finally {
+            executor.shutdownNow();
+        }
+        return null;
+    }
+
+    private static class EncryptTask implements Callable<File> {
+
+        private final ZipIndex index;
+        private final ZipIndex.Entry dexEntry;
+        private final File outDir;
+        private final File cacheDir;
+        private final int cacheMaxSizeMB;
+
+        EncryptTask(ZipIndex index, ZipIndex.Entry dexEntry, File outDir, File cacheDir, int cacheMaxSizeMB) {
+            this.index = index;
+            this.dexEntry = dexEntry;
+            this.outDir = outDir;
+            this.cacheDir = cacheDir;
+            this.cacheMaxSizeMB = cacheMaxSizeMB;
+        }
+
+        @Override
+        public File call() throws Exception {
+            File encryptFile = new File(outDir, encryptedName(dexEntry.getName()));
+            String dexHash = null;
+            if (cacheDir != null) {
+                InputStream in = index.openStream(dexEntry);
+                try {
+                    dexHash = HASH.sha256(in);
+                } finally {
+                    IO.close(in);
+                }
+                if (JiaGuCache.restorePayload(cacheDir, dexHash, encryptFile)) {
+                    return encryptFile;
+                }
+            }
+            InputStream in = index.openStream(dexEntry);
+            try {
+                // 直接从apk中流式读取并加密，不需要先解压
+                DataProtector.encrypt(in, encryptFile.getName(), encryptFile);
+            } finally {
+                IO.close(in);
+            }
+            if (!encryptFile.exists()) {
+                Debug.e("encrypt failure : " + dexEntry.getName());
+                return null;
+            }
+            if (dexHash != null) {
+                JiaGuCache.savePayload(cacheDir, dexHash, encryptFile, cacheMaxSizeMB);
+            }
+            return encryptFile;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.library.dexknife.shell.jiagu;
+
+import com.library.dexknife.shell.utils.Debug;
+import com.library.dexknife.shell.utils.FileHelper;
+import com.library.dexknife.shell.utils.ZipIndex;
+
+import org.apache.commons.io.FileUtils;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.writer.io.FileDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * dex合并
+ * <p>
+ * 壳dex与不加密的dex（{@link JiaGuConfig#mergeDex}）合并为输出apk的classes.dex，
+ * 类重复时保留前面的dex中的类（壳优先）。
+ */
+public class DexMerger {
+
+    public static final String TAG = DexMerger.class.getSimpleName();
+
+    //brut/androlib/ApkDecoder.mApi default value is 15
+    private static final int API = 15;
+
+    /**
+     * 合并dex
+     * @param dexFiles 输入，类重复时前面的优先
+     * @param outDex   输出
+     * @return 是否成功
+     */
+    public static boolean merge(List<File> dexFiles, File outDex) {
+        try {
+            DexPool pool = DexPool.makeDexPool(API);
+            Set<String> types = new HashSet<>();
+            for (File dexFile : dexFiles) {
+                DexFile dex = DexFileFactory.loadDexFile(dexFile, API, false);
+                for (ClassDef classDef : dex.getClasses()) {
+                    if (types.add(classDef.getType())) {
+                        pool.internClass(classDef);
+                    } else {
+                        Debug.w("duplicate class " + classDef.getType() + " in " + dexFile.getName() + ", skipped");
+                    }
+                }
+            }
+            outDex.delete();
+            pool.writeTo(new FileDataStore(outDex));
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            //方法数超过65536等
+            e.printStackTrace();
+        }
+        outDex.delete();
+        return false;
+    }
+
+    /**
+     * 输出apk中的classes.dex：壳dex，有不加密的dex时与它们合并
+     * @param template      壳模板
+     * @param index         原apk
+     * @param mergeEntries  不加密的dex
+     * @param tempDir       临时目录
+     * @return 失败返回null
+     */
+    static byte[] shellDex(ShellTemplate template, ZipIndex index, List<ZipIndex.Entry> mergeEntries, File tempDir) {
+        byte[] shellDex = template.getShellDex();
+        if (shellDex == null || mergeEntries.isEmpty()) {
+            return shellDex;
+        }
+        File mergeDir = new File(tempDir, "merge");
+        FileHelper.delete(mergeDir);
+        mergeDir.mkdirs();
+        try {
+            List<File> dexFiles = new ArrayList<>();
+            File shellFile = new File(mergeDir, "shell.dex");
+            FileUtils.writeByteArrayToFile(shellFile, shellDex);
+            dexFiles.add(shellFile);
+            for (ZipIndex.Entry entry : mergeEntries) {
+                File dexFile = new File(mergeDir, entry.getName());
+                index.extract(entry, dexFile);
+                dexFiles.add(dexFile);
+            }
+            File outDex = new File(mergeDir, "classes.dex");
+            if (!merge(dexFiles, outDex)) {
+                Debug.e("merge shell dex failure : " + index.getFile().getAbsolutePath());
+                return null;
+            }
+            return FileUtils.readFileToByteArray(outDex);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            FileHelper.delete(mergeDir);
+        }
+    }
+
+    /**
+     * 拆分dex列表
+     * @param dexEntries 所有dex
+     * @param config     加固配置
+     * @param merge      输出，不加密、与壳合并的dex
+     * @return 需要加密的dex
+     */
+    static List<ZipIndex.Entry> split(List<ZipIndex.Entry> dexEntries, JiaGuConfig config, List<ZipIndex.Entry> merge) {
+        List<ZipIndex.Entry> encrypt = new ArrayList<>(dexEntries.size());
+        for (ZipIndex.Entry entry : dexEntries) {
+            if (config.mergeDex.contains(entry.getName())) {
+                merge.add(entry);
+            } else {
+                encrypt.add(entry);
+            }
+        }
+        return encrypt;
+    }
+}
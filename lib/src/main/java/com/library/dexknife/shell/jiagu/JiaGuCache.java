@@ -0,0 +1,225 @@
+package com.library.dexknife.shell.jiagu;
+
+import com.library.dexknife.shell.utils.Debug;
+import com.library.dexknife.shell.utils.FileHelper;
+import com.library.dexknife.shell.utils.HASH;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 加固缓存（内容寻址）
+ * <p>
+ * 1.整个输出：key = sha256(输入apk + 壳模板版本 + 签名配置 + 加固配置)，输入不变时直接返回上次的结果；
+ * 2.单个dex的加密结果：key = sha256(dex) + 加密后的文件名，只有改变了的dex才需要重新加密。
+ * <p>
+ * 缓存文件先写临时文件再重命名，多个进程同时使用同一个缓存目录也不会读到不完整的文件。
+ * 每次写入后按最近使用时间（mtime，命中时更新）删除最旧的文件，使缓存总大小不超过上限
+ */
+public class JiaGuCache {
+
+    public static final String TAG = JiaGuCache.class.getSimpleName();
+
+    /**
+     * 缓存格式或加固流程改变时修改，使旧缓存失效
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * 缓存大小上限的默认值（MB）
+     */
+    public static final int DEFAULT_MAX_SIZE_MB = 1024;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static File getOutputDir(File cacheDir) {
+        return new File(cacheDir, "output");
+    }
+
+    private static File getPayloadDir(File cacheDir) {
+        return new File(cacheDir, "dex");
+    }
+
+    /**
+     * 整个输出的缓存key
+     * @param apk      输入apk
+     * @param templateVersion 壳模板版本
+     * @param keystore 签名配置，可以为null
+     * @param config   加固配置
+     * @return
+     */
+    static String outputKey(File apk, String templateVersion, KeystoreConfig keystore, JiaGuConfig config) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("version=").append(VERSION).append('\n');
+        builder.append("apk=").append(HASH.sha256(apk)).append('\n');
+        builder.append("jiagu=").append(templateVersion).append('\n');
+        builder.append("keystore=").append(keystore != null ? keystore.fingerprint() : "").append('\n');
+        builder.append("proxy=").append(config.proxyApplicationName).append('\n');
+        builder.append("shell=").append(config.isShell).append('\n');
+        builder.append("shellName=").append(config.shellApkName).append('\n');
+        builder.append("directPatch=").append(config.directPatch).append('\n');
+        //合并的dex改变classes.dex和加密的dex，与配置顺序无关
+        builder.append("mergeDex=").append(new TreeSet<>(config.mergeDex)).append('\n');
+        builder.append("andResGuard=").append(config.andResGuard).append('\n');
+        if (config.andResGuard) {
+            builder.append("andResConfig=").append(hashIfExists(new File(config.andResConfig))).append('\n');
+            builder.append("andResMapping=").append(hashIfExists(new File(config.andResMapping))).append('\n');
+        }
+        return HASH.sha256(builder.toString());
+    }
+
+    private static String hashIfExists(File file) throws IOException {
+        return file.isFile() ? HASH.sha256(file) : "";
+    }
+
+    /**
+     * 从缓存中恢复输出
+     * @return 没有缓存返回false
+     */
+    static boolean restoreOutput(File cacheDir, String key, File outFile) {
+        return restore(new File(getOutputDir(cacheDir), key + ".apk"), outFile);
+    }
+
+    /**
+     * @param maxSizeMB 缓存大小上限，0表示不限制
+     */
+    static void saveOutput(File cacheDir, String key, File file, int maxSizeMB) {
+        if (file.isFile() && copy(file, new File(getOutputDir(cacheDir), key + ".apk"))) {
+            trim(cacheDir, maxSizeMB);
+        }
+    }
+
+    private static File payloadFile(File cacheDir, String dexHash, String name) {
+        return new File(getPayloadDir(cacheDir), dexHash + "_" + name);
+    }
+
+    /**
+     * 从缓存中恢复加密后的dex
+     * @param dexHash 原dex的sha256
+     * @param outFile 加密后的文件，文件名也是key的一部分（加密文件中的条目名）
+     * @return 没有缓存返回false
+     */
+    static boolean restorePayload(File cacheDir, String dexHash, File outFile) {
+        return restore(payloadFile(cacheDir, dexHash, outFile.getName()), outFile);
+    }
+
+    /**
+     * @param maxSizeMB 缓存大小上限，0表示不限制
+     */
+    static void savePayload(File cacheDir, String dexHash, File file, int maxSizeMB) {
+        if (file.isFile() && copy(file, payloadFile(cacheDir, dexHash, file.getName()))) {
+            trim(cacheDir, maxSizeMB);
+        }
+    }
+
+    /**
+     * 命中时更新mtime，淘汰时按最近使用的顺序保留
+     */
+    private static boolean restore(File cacheFile, File outFile) {
+        if (!cacheFile.isFile()) {
+            return false;
+        }
+        cacheFile.setLastModified(System.currentTimeMillis());
+        return copy(cacheFile, outFile);
+    }
+
+    /**
+     * 删除最久没有使用的缓存文件，直到总大小不超过上限
+     * <p>
+     * 多个进程同时删除同一个文件时delete失败也没有关系，正在写入的临时文件不会被删除
+     * @param maxSizeMB 缓存大小上限，0表示不限制
+     */
+    static void trim(File cacheDir, int maxSizeMB) {
+        if (maxSizeMB <= 0) {
+            return;
+        }
+        final List<File> files = new ArrayList<>();
+        long total = 0;
+        for (File dir : new File[]{getOutputDir(cacheDir), getPayloadDir(cacheDir)}) {
+            File[] list = dir.listFiles();
+            if (list == null) {
+                continue;
+            }
+            for (File file : list) {
+                if (file.isFile() && !file.getName().endsWith(TEMP_SUFFIX)) {
+                    files.add(file);
+                    total += file.length();
+                }
+            }
+        }
+        long maxBytes = maxSizeMB * 1024L * 1024L;
+        if (total <= maxBytes) {
+            return;
+        }
+        //排序过程中mtime可能被其他进程修改，先取出来
+        final Map<File, Long> lastModified = new HashMap<>();
+        for (File file : files) {
+            lastModified.put(file, file.lastModified());
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(lastModified.get(o1), lastModified.get(o2));
+            }
+        });
+        for (File file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                Debug.i("jiagu cache evict : " + file.getName());
+            }
+        }
+    }
+
+    /**
+     * 删除所有缓存
+     */
+    public static void clear() {
+        clear(JiaGu.CACHE_DIR);
+    }
+
+    public static void clear(File cacheDir) {
+        FileHelper.delete(cacheDir);
+    }
+
+    /**
+     * 先拷贝到临时文件再重命名
+     */
+    private static boolean copy(File src, File dest) {
+        File parent = dest.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        //临时文件名在所有进程中唯一，多个进程同时写同一个key也不会互相覆盖
+        File temp;
+        try {
+            temp = File.createTempFile(dest.getName(), TEMP_SUFFIX, parent);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        try {
+            if (!FileHelper.copyFile(src, temp)) {
+                return false;
+            }
+            dest.delete();
+            if (!temp.renameTo(dest)) {
+                Debug.w("jiagu cache rename failure : " + dest.getAbsolutePath());
+                return false;
+            }
+            return true;
+        } finally {
+            temp.delete();
+        }
+    }
+}
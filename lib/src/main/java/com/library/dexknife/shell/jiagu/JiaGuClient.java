@@ -0,0 +1,141 @@
+package com.library.dexknife.shell.jiagu;
+
+import com.library.dexknife.shell.Callback;
+import com.library.dexknife.shell.utils.Debug;
+import com.library.dexknife.shell.utils.IO;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Properties;
+
+/**
+ * {@link JiaGuDaemon}的客户端，每个请求都带上守护进程写入{@link JiaGuDaemon#tokenFile}的令牌
+ */
+public class JiaGuClient {
+
+    public static final String TAG = JiaGuClient.class.getSimpleName();
+
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    /**
+     * 守护进程是否在运行
+     * @param port
+     * @return
+     */
+    public static boolean isRunning(int port) {
+        HttpURLConnection connection = null;
+        try {
+            connection = open(port, "/ping");
+            connection.setReadTimeout(CONNECT_TIMEOUT);
+            return connection.getResponseCode() == 200;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 提交加固任务，阻塞直到完成，进度通过callback返回
+     * @param port
+     * @param apk
+     * @param keystore 签名配置，为null时不签名
+     * @param config
+     * @param callback 可以为null
+     * @return 加固后的apk，加固失败返回null
+     * @throws IOException 无法连接守护进程
+     */
+    public static File encrypt(int port, File apk, KeystoreConfig keystore, JiaGuConfig config,
+                               Callback<JiaGu.Event> callback) throws IOException {
+        HttpURLConnection connection = open(port, "/encrypt");
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(0);
+            connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+            Properties props = JiaGuDaemon.toProperties(apk, keystore, config);
+            Writer writer = new OutputStreamWriter(connection.getOutputStream(), JiaGuDaemon.UTF8);
+            try {
+                props.store(writer, null);
+            } finally {
+                IO.close(writer);
+            }
+            if (connection.getResponseCode() != 200) {
+                Debug.e("jiagu daemon error : " + connection.getResponseCode());
+                return null;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), JiaGuDaemon.UTF8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("EVENT ")) {
+                        if (callback != null) {
+                            try {
+                                callback.callback(JiaGu.Event.valueOf(line.substring(6)));
+                            } catch (IllegalArgumentException e) {
+                                Debug.w("unknown event : " + line);
+                            }
+                        }
+                    } else if (line.startsWith("OK ")) {
+                        return new File(line.substring(3));
+                    } else if (line.equals("FAIL")) {
+                        return null;
+                    }
+                }
+            } finally {
+                IO.close(reader);
+            }
+            Debug.e("jiagu daemon closed connection : " + apk.getAbsolutePath());
+            return null;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * 停止守护进程
+     * @param port
+     * @return
+     */
+    public static boolean shutdown(int port) {
+        HttpURLConnection connection = null;
+        try {
+            connection = open(port, "/shutdown");
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            OutputStream out = connection.getOutputStream();
+            IO.close(out);
+            return connection.getResponseCode() == 200;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @throws IOException 没有令牌文件（守护进程没有运行）或无法读取
+     */
+    private static HttpURLConnection open(int port, String path) throws IOException {
+        String token = JiaGuDaemon.readToken(port);
+        if (token == null) {
+            throw new IOException("jiagu daemon token not found : " + JiaGuDaemon.tokenFile(port).getAbsolutePath());
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setUseCaches(false);
+        connection.setRequestProperty(JiaGuDaemon.TOKEN_HEADER, token);
+        return connection;
+    }
+}
@@ -0,0 +1,58 @@
+package com.library.dexknife.shell.jiagu;
+
+import com.library.dexknife.shell.AppManager;
+
+import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 单次加固的配置
+ * <p>
+ * 每个{@link JiaGuEngine}持有自己的一份，多个apk可以在同一个JVM中使用不同配置同时加固。
+ */
+public class JiaGuConfig {
+
+    public static final String TAG = JiaGuConfig.class.getSimpleName();
+
+    public static final String DEFAULT_JIAGU_ZIP_PATH = JiaGu.class.getPackage().getName().replaceAll("\\.", "/") + "/" + JiaGu.JIAGU_ZIP;
+    public static final String DEFAULT_PROXY_APPLICATION_NAME = "jungle.battery.fast.BaseApplication";
+
+    public boolean isShell;//是否开启加固
+    public String shellApkName;//加固后的apk名
+    public boolean andResGuard;//是否开启资源混淆
+    public String andResConfig = "";//资源混淆配置
+    public String andResMapping = "";//资源混淆map路径
+    public boolean directPatch;//是否直接修改apk（不经过apktool反编译/回编译）
+    public int dexThreads;//加密dex的线程数，0表示使用CPU核数
+    public Set<String> mergeDex = new LinkedHashSet<>();//不加密的dex（如classes2.dex），与壳dex合并为classes.dex
+    public boolean cache = true;//是否使用加固缓存
+    public File cacheDir = new File(AppManager.getTempDir(), "jiagu_cache");//加固缓存目录，可以多个任务共享
+    public int cacheMaxSizeMB = JiaGuCache.DEFAULT_MAX_SIZE_MB;//加固缓存大小上限（MB），超过时删除最久没有使用的，0表示不限制
+    public boolean report = true;//是否输出各阶段的耗时报告
+    public String proxyApplicationName = DEFAULT_PROXY_APPLICATION_NAME;//壳Application
+    public String jiaguZipPath = DEFAULT_JIAGU_ZIP_PATH;//壳文件，classpath中的资源或文件路径
+    public String apktoolPath;//apktool.jar，为null时使用AppManager中的apktool
+    public File workDir = new File(AppManager.getTempDir(), "jiagu");//工作目录，每个任务在其中使用独立的子目录
+
+    public JiaGuConfig copy() {
+        JiaGuConfig config = new JiaGuConfig();
+        config.isShell = isShell;
+        config.shellApkName = shellApkName;
+        config.andResGuard = andResGuard;
+        config.andResConfig = andResConfig;
+        config.andResMapping = andResMapping;
+        config.directPatch = directPatch;
+        config.dexThreads = dexThreads;
+        config.mergeDex = new LinkedHashSet<>(mergeDex);
+        config.cache = cache;
+        config.cacheDir = cacheDir;
+        config.cacheMaxSizeMB = cacheMaxSizeMB;
+        config.report = report;
+        config.proxyApplicationName = proxyApplicationName;
+        config.jiaguZipPath = jiaguZipPath;
+        config.apktoolPath = apktoolPath;
+        config.workDir = workDir;
+        return config;
+    }
+}
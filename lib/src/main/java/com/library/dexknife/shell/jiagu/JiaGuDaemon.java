@@ -0,0 +1,431 @@
+package com.library.dexknife.shell.jiagu;
+
+import com.library.dexknife.shell.AppManager;
+import com.library.dexknife.shell.Callback;
+import com.library.dexknife.shell.utils.HASH;
+import com.library.dexknife.shell.utils.IO;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 加固守护进程
+ * <p>
+ * 常驻一个JVM，省去每次加固的JVM启动、类加载、apktool初始化和keystore加载，
+ * 热点代码也保持JIT编译后的状态。只监听127.0.0.1的HTTP端口：
+ * <pre>
+ * GET  /ping      返回 OK
+ * POST /encrypt   请求体为Properties格式的任务（见{@link #toProperties}），
+ *                 响应逐行返回进度：EVENT 阶段名，最后一行为 OK 输出apk路径 或 FAIL
+ * POST /shutdown  停止守护进程
+ * </pre>
+ * 客户端见{@link JiaGuClient}，设置{@link JiaGu#DAEMON_PORT}后JiaGu.encrypt会优先提交到守护进程。
+ * <p>
+ * 请求体中包含apk路径和keystore密码，所以每个请求都要验证：
+ * <ul>
+ * <li>启动时生成随机令牌，写入只有当前用户可读的{@link #tokenFile}，请求头{@link #TOKEN_HEADER}必须与之相同</li>
+ * <li>带Origin头的请求（浏览器中的网页发出的）和Host不是127.0.0.1:端口的请求（DNS rebinding）都拒绝</li>
+ * </ul>
+ */
+public class JiaGuDaemon {
+
+    public static final String TAG = JiaGuDaemon.class.getSimpleName();
+
+    public static final int DEFAULT_PORT = 17070;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final String TOKEN_HEADER = "X-JiaGu-Token";
+
+    private final int port;
+    private final Semaphore jobs;
+    private String token;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param port    监听端口
+     * @param threads 同时加固的数量，0表示CPU核数的一半
+     */
+    public JiaGuDaemon(int port, int threads) {
+        this.port = port;
+        if (threads <= 0) {
+            threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        }
+        this.jobs = new Semaphore(threads, true);
+    }
+
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        AppManager.initApkTool();
+        token = writeToken(port);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jiagu-daemon-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/ping", guard(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, "OK\n");
+            }
+        }));
+        server.createContext("/encrypt", guard(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleEncrypt(exchange);
+            }
+        }));
+        server.createContext("/shutdown", guard(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    respond(exchange, 405, "FAIL\n");
+                    return;
+                }
+                respond(exchange, 200, "OK\n");
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        stop();
+                    }
+                }, "jiagu-daemon-stop").start();
+            }
+        }));
+        server.start();
+        System.out.println("加固守护进程已启动==:127.0.0.1:" + port);
+    }
+
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        server.stop(1);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+        //新的守护进程可能已经写入了自己的令牌
+        if (token.equals(readToken(port))) {
+            tokenFile(port).delete();
+        }
+        token = null;
+        notifyAll();
+        System.out.println("加固守护进程已停止==:127.0.0.1:" + port);
+    }
+
+    /**
+     * 阻塞直到{@link #stop()}
+     */
+    public synchronized void await() throws InterruptedException {
+        while (server != null) {
+            wait();
+        }
+    }
+
+    /**
+     * 验证请求后再交给handler处理，验证失败返回403
+     */
+    private HttpHandler guard(final HttpHandler handler) {
+        return new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (!isAuthorized(exchange)) {
+                    respond(exchange, 403, "FAIL\n");
+                    return;
+                }
+                handler.handle(exchange);
+            }
+        };
+    }
+
+    private synchronized boolean isAuthorized(HttpExchange exchange) {
+        Headers headers = exchange.getRequestHeaders();
+        //浏览器跨域请求（包括不需要预检的text/plain POST）都带Origin
+        if (headers.containsKey("Origin")) {
+            return false;
+        }
+        if (!("127.0.0.1:" + port).equals(headers.getFirst("Host"))) {
+            return false;
+        }
+        String requestToken = headers.getFirst(TOKEN_HEADER);
+        return token != null && requestToken != null
+                && MessageDigest.isEqual(token.getBytes(UTF8), requestToken.getBytes(UTF8));
+    }
+
+    /**
+     * 守护进程的令牌文件：~/.dexknife/jiagu-daemon-端口.token
+     */
+    static File tokenFile(int port) {
+        return new File(new File(System.getProperty("user.home"), ".dexknife"), "jiagu-daemon-" + port + ".token");
+    }
+
+    /**
+     * @return 守护进程没有运行或没有权限读取时返回null
+     */
+    static String readToken(int port) {
+        File file = tokenFile(port);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(file.toPath()), UTF8).trim();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 生成随机令牌，先写入权限为0600的临时文件再重命名，其他用户任何时候都读不到
+     */
+    private static String writeToken(int port) throws IOException {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        String token = HASH.toHex(bytes);
+        File file = tokenFile(port);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("mkdirs failure : " + dir.getAbsolutePath());
+        }
+        Path temp;
+        try {
+            temp = Files.createTempFile(dir.toPath(), file.getName(), ".tmp",
+                    PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+        } catch (UnsupportedOperationException e) {
+            //Windows没有POSIX权限，用户目录默认只有当前用户可以访问
+            temp = Files.createTempFile(dir.toPath(), file.getName(), ".tmp");
+            File tempFile = temp.toFile();
+            tempFile.setReadable(false, false);
+            tempFile.setReadable(true, true);
+            tempFile.setWritable(false, false);
+            tempFile.setWritable(true, true);
+        }
+        FileOutputStream out = new FileOutputStream(temp.toFile());
+        try {
+            out.write(token.getBytes(UTF8));
+        } finally {
+            IO.close(out);
+        }
+        try {
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return token;
+    }
+
+    private void handleEncrypt(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "FAIL\n");
+            return;
+        }
+        Properties props = new Properties();
+        try {
+            props.load(new InputStreamReader(exchange.getRequestBody(), UTF8));
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, "FAIL\n");
+            return;
+        }
+        String apkPath = props.getProperty("apk");
+        if (apkPath == null || apkPath.isEmpty()) {
+            respond(exchange, 400, "FAIL\n");
+            return;
+        }
+        File apk = new File(apkPath);
+        KeystoreConfig keystore = keystoreFromProperties(props);
+        JiaGuConfig config = configFromProperties(props);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(200, 0);
+        final Writer writer = new OutputStreamWriter(exchange.getResponseBody(), UTF8);
+        File result = null;
+        try {
+            jobs.acquire();
+            try {
+                result = new JiaGuEngine(config).encrypt(apk, keystore, new Callback<JiaGu.Event>() {
+                    @Override
+                    public void callback(JiaGu.Event event) {
+                        try {
+                            writer.write("EVENT " + event.name() + "\n");
+                            writer.flush();
+                        } catch (IOException e) {
+                            //客户端断开不影响加固
+                        }
+                    }
+                });
+            } finally {
+                jobs.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                writer.write(result != null ? "OK " + result.getAbsolutePath() + "\n" : "FAIL\n");
+                writer.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            IO.close(writer);
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] data = body.getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(code, data.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(data);
+        } finally {
+            IO.close(out);
+            exchange.close();
+        }
+    }
+
+    /**
+     * 任务转换为请求体，路径都转换为绝对路径（守护进程的工作目录可能不同）
+     */
+    static Properties toProperties(File apk, KeystoreConfig keystore, JiaGuConfig config) {
+        Properties props = new Properties();
+        props.setProperty("apk", apk.getAbsolutePath());
+        if (keystore != null) {
+            putPath(props, "keystorePath", keystore.keystorePath);
+            putString(props, "keystorePassword", keystore.keystorePassword);
+            putString(props, "alias", keystore.alias);
+            putString(props, "aliasPassword", keystore.aliasPassword);
+        }
+        props.setProperty("isShell", String.valueOf(config.isShell));
+        putString(props, "shellApkName", config.shellApkName);
+        props.setProperty("andResGuard", String.valueOf(config.andResGuard));
+        putPath(props, "andResConfig", config.andResConfig);
+        putPath(props, "andResMapping", config.andResMapping);
+        props.setProperty("directPatch", String.valueOf(config.directPatch));
+        props.setProperty("dexThreads", String.valueOf(config.dexThreads));
+        if (!config.mergeDex.isEmpty()) {
+            props.setProperty("mergeDex", join(config.mergeDex));
+        }
+        props.setProperty("cache", String.valueOf(config.cache));
+        putPath(props, "cacheDir", config.cacheDir.getPath());
+        props.setProperty("cacheMaxSizeMB", String.valueOf(config.cacheMaxSizeMB));
+        props.setProperty("report", String.valueOf(config.report));
+        putString(props, "proxyApplicationName", config.proxyApplicationName);
+        putPath(props, "jiaguZipPath", config.jiaguZipPath);
+        putPath(props, "apktoolPath", config.apktoolPath != null ? config.apktoolPath : AppManager.APKTOOLJARPATH);
+        putPath(props, "workDir", config.workDir.getPath());
+        return props;
+    }
+
+    static KeystoreConfig keystoreFromProperties(Properties props) {
+        if (props.getProperty("keystorePath") == null) {
+            return null;
+        }
+        KeystoreConfig keystore = new KeystoreConfig();
+        keystore.keystorePath = props.getProperty("keystorePath");
+        keystore.keystorePassword = props.getProperty("keystorePassword");
+        keystore.alias = props.getProperty("alias");
+        keystore.aliasPassword = props.getProperty("aliasPassword");
+        return keystore;
+    }
+
+    static JiaGuConfig configFromProperties(Properties props) {
+        JiaGuConfig config = new JiaGuConfig();
+        config.isShell = Boolean.parseBoolean(props.getProperty("isShell"));
+        config.shellApkName = props.getProperty("shellApkName");
+        config.andResGuard = Boolean.parseBoolean(props.getProperty("andResGuard"));
+        config.andResConfig = props.getProperty("andResConfig", config.andResConfig);
+        config.andResMapping = props.getProperty("andResMapping", config.andResMapping);
+        config.directPatch = Boolean.parseBoolean(props.getProperty("directPatch"));
+        try {
+            config.dexThreads = Integer.parseInt(props.getProperty("dexThreads", "0"));
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+        }
+        for (String name : props.getProperty("mergeDex", "").split(",")) {
+            if (!name.isEmpty()) {
+                config.mergeDex.add(name);
+            }
+        }
+        config.cache = !"false".equals(props.getProperty("cache"));
+        if (props.getProperty("cacheDir") != null) {
+            config.cacheDir = new File(props.getProperty("cacheDir"));
+        }
+        try {
+            config.cacheMaxSizeMB = Integer.parseInt(props.getProperty("cacheMaxSizeMB", String.valueOf(config.cacheMaxSizeMB)));
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+        }
+        config.report = !"false".equals(props.getProperty("report"));
+        config.proxyApplicationName = props.getProperty("proxyApplicationName", config.proxyApplicationName);
+        config.jiaguZipPath = props.getProperty("jiaguZipPath", config.jiaguZipPath);
+        config.apktoolPath = props.getProperty("apktoolPath");
+        if (props.getProperty("workDir") != null) {
+            config.workDir = new File(props.getProperty("workDir"));
+        }
+        return config;
+    }
+
+    private static String join(Iterable<String> values) {
+        StringBuilder builder = new StringBuilder();
+        for (String value : values) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    private static void putString(Properties props, String key, String value) {
+        if (value != null) {
+            props.setProperty(key, value);
+        }
+    }
+
+    /**
+     * 存在的文件转换为绝对路径，不存在的（如类路径资源）保持不变
+     */
+    private static void putPath(Properties props, String key, String path) {
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+        File file = new File(path);
+        props.setProperty(key, file.exists() ? file.getAbsolutePath() : path);
+    }
+}
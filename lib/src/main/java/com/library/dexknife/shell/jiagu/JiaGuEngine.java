@@ -0,0 +1,748 @@
+package com.library.dexknife.shell.jiagu;
+
+import com.library.dexknife.shell.ApkToolPlus;
+import com.library.dexknife.shell.Callback;
+import com.library.dexknife.shell.apkparser.ApkParser;
+import com.library.dexknife.shell.apkparser.bean.CertificateMeta;
+import com.library.dexknife.shell.apkparser.parser.BinaryXmlEditor;
+import com.library.dexknife.shell.apkparser.struct.AndroidConstants;
+import com.library.dexknife.shell.res.util.FileOperation;
+import com.library.dexknife.shell.utils.Debug;
+import com.library.dexknife.shell.utils.FileHelper;
+import com.library.dexknife.shell.utils.IO;
+import com.library.dexknife.shell.utils.ZipHelper;
+import com.library.dexknife.shell.utils.ZipIndex;
+
+import org.apache.commons.io.FileUtils;
+import org.dom4j.Attribute;
+import org.dom4j.Element;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.SAXReader;
+import org.dom4j.io.XMLWriter;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import brut.androlib.AndrolibException;
+import brut.directory.DirectoryException;
+
+/**
+ * 加固引擎
+ * <p>
+ * 所有状态都在实例和每次加固的工作目录中，不使用全局变量，
+ * 多个apk（不同的渠道、变体）可以在同一个JVM中同时加固，见{@link #encryptAll(List, int)}。
+ * {@link JiaGu}中的静态方法使用全局配置创建引擎，保持原来的用法不变。
+ */
+public class JiaGuEngine {
+
+    public static final String TAG = JiaGuEngine.class.getSimpleName();
+
+    static final String JIAGU_DATA_BIN = "libprotected.jar";
+    private static final String METADATA_SRC_APPLICATION = "apktoolplus_jiagu_app";
+
+    private final JiaGuConfig config;
+
+    /**
+     * @param config 加固配置，会复制一份，之后修改不影响引擎
+     */
+    public JiaGuEngine(JiaGuConfig config) {
+        this.config = config.copy();
+    }
+
+    public JiaGuConfig getConfig() {
+        return config.copy();
+    }
+
+    /**
+     * 一次加固的工作空间
+     */
+    private static class Workspace {
+        File dir;
+        ShellTemplate template;
+        JiaGuReport report;
+        Callback<JiaGu.Event> callback;
+    }
+
+    /**
+     * 批量加固的任务
+     */
+    public static class Job {
+        public File apk;
+        public KeystoreConfig keystore;//签名配置，可以为null
+        public JiaGuConfig config;
+        public Callback<JiaGu.Event> callback;//可以为null
+
+        public Job() {
+        }
+
+        public Job(File apk, KeystoreConfig keystore, JiaGuConfig config) {
+            this.apk = apk;
+            this.keystore = keystore;
+            this.config = config;
+        }
+    }
+
+    /**
+     * 在有界线程池中同时加固多个apk
+     * @param jobs    任务
+     * @param threads 同时加固的数量，0表示CPU核数的一半（每个任务内部也会并行）
+     * @return 每个任务的结果，顺序与jobs一致，失败为null
+     */
+    public static List<File> encryptAll(List<Job> jobs, int threads) {
+        List<File> results = new ArrayList<>(jobs.size());
+        if (jobs.isEmpty()) {
+            return results;
+        }
+        if (threads <= 0) {
+            threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, jobs.size()), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jiagu-job-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<File>> futures = new ArrayList<>(jobs.size());
+            for (final Job job : jobs) {
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() {
+                        return new JiaGuEngine(job.config).encrypt(job.apk, job.keystore, job.callback);
+                    }
+                }));
+            }
+            for (Future<File> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
+                    results.add(null);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            e.printStackTrace();
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    public static boolean isEncrypted(File apk) {
+        return ZipHelper.hasFile(apk, "assets/" + JIAGU_DATA_BIN);
+    }
+
+    /**
+     * 开始加固，可以在多个线程中同时调用
+     * @param apk
+     * @param keystore 签名配置，为null时不签名
+     * @param callback
+     * @return 加固后的apk（签名时为对齐后的*_zipalign.apk），失败返回null
+     */
+    public File encrypt(File apk, KeystoreConfig keystore, Callback<JiaGu.Event> callback) {
+
+        if (!FileHelper.exists(apk) || isEncrypted(apk)) {
+            return null;
+        }
+        String shellNanme = FileHelper.getNoSuffixName(apk) + "_encrypted.apk";
+        if (config.isShell && config.shellApkName != null && config.shellApkName.length() > 0) {
+            shellNanme = FileHelper.getNoSuffixName(apk) + "_" + config.shellApkName + ".apk";
+        }
+        File encryptedApk = new File(apk.getParentFile(), shellNanme);
+        boolean replaceSource = keystore != null && config.isShell && (config.shellApkName == null || config.shellApkName.length() < 1);
+        File outputApk = encryptedApk;
+        if (keystore != null) {
+            outputApk = new File((replaceSource ? apk : encryptedApk).getAbsolutePath().replace(".apk", "_zipalign.apk"));
+        }
+
+        Workspace ws = new Workspace();
+        ws.callback = callback;
+        try {
+            config.workDir.mkdirs();
+            ws.dir = Files.createTempDirectory(config.workDir.toPath(), FileHelper.getNoSuffixName(apk) + "_").toFile();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        try {
+            if (!config.report) {
+                return encrypt(ws, apk, outputApk, replaceSource, keystore);
+            }
+            ws.report = new JiaGuReport(ws.dir, apk);
+            File result = null;
+            try {
+                result = encrypt(ws, apk, outputApk, replaceSource, keystore);
+            } finally {
+                ws.report.finish(outputApk, result != null);
+                File reportFile = JiaGuReport.reportFile(outputApk);
+                if (ws.report.write(reportFile)) {
+                    System.out.println("加固报告==:" + reportFile.getAbsolutePath());
+                }
+            }
+            return result;
+        } finally {
+            FileHelper.delete(ws.dir);
+        }
+    }
+
+    private File encrypt(Workspace ws, File apk, File outputApk, boolean replaceSource,
+                         KeystoreConfig keystore) {
+        /**
+         * 0.输入和配置都没有改变时直接使用缓存
+         */
+        String cacheKey = null;
+        if (config.cache && loadTemplate(ws)) {
+            try {
+                cacheKey = JiaGuCache.outputKey(apk, ws.template.getVersion(), keystore, config);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (cacheKey != null && JiaGuCache.restoreOutput(config.cacheDir, cacheKey, outputApk)) {
+                System.out.println("加固缓存命中==:" + outputApk.getAbsolutePath());
+                if (ws.report != null) {
+                    ws.report.setCacheHit(true);
+                }
+                if (replaceSource) {
+                    apk.delete();
+                }
+                return outputApk;
+            }
+        }
+        //各阶段只登记条目，最后只写一次输出
+        ApkAssembler assembler = new ApkAssembler();
+        try {
+            /**
+             * 1-3.直接修改apk，不需要反编译和回编译
+             */
+            boolean patched = false;
+            if (config.directPatch) {
+                handleCallback(ws, JiaGu.Event.ENCRYPTING);
+                patched = directPatch(ws, apk, assembler);
+                if (!patched) {
+                    Debug.w("direct patch failure, fallback to apktool : " + apk.getAbsolutePath());
+                    assembler.close();
+                    assembler = new ApkAssembler();
+                }
+            }
+            if (!patched) {
+                File recompiledApk = new File(ws.dir, "recompiled.apk");
+                assembler.deleteOnClose(recompiledApk);
+                if (!apktoolEncrypt(ws, apk, recompiledApk)) {
+                    return null;
+                }
+                assembler.addAll(assembler.open(recompiledApk));
+            }
+            /**
+             * 4.资源混淆
+             */
+            if (config.andResGuard) {
+                handleCallback(ws, JiaGu.Event.ANDROIDRES);
+                if (!new File(config.andResConfig).exists()) {
+                    System.err.println("请添加资源混淆文件andresguard.xml，具体见说明");
+                } else if (!new File(config.andResMapping).exists()) {
+                    System.err.println("请添加资源混淆文件resource_mapping.txt，具体见说明");
+                } else {
+                    //资源混淆需要读取apk文件
+                    File andResInput = new File(ws.dir, "andresguard_input.apk");
+                    if (!assembler.write(andResInput, null)) {
+                        return null;
+                    }
+                    assembler.close();
+                    assembler = new ApkAssembler();
+                    assembler.deleteOnClose(andResInput);
+                    if (!andResGuard(ws, andResInput, keystore, assembler)) {
+                        Debug.w("andresguard failure, resources are not obfuscated : " + apk.getAbsolutePath());
+                        assembler.addAll(assembler.open(andResInput));
+                    }
+                }
+            }
+            /**
+             * 5.sign apk
+             * 6.zipalign
+             * 签名和对齐在写出时一起完成
+             */
+            if (keystore != null) {
+                handleCallback(ws, JiaGu.Event.SIGNING);
+                boolean signed = assembler.write(outputApk, keystore);
+                handleCallback(ws, JiaGu.Event.ZIPALIGN);
+                if (!signed) {
+                    return null;
+                }
+                if (replaceSource) {
+                    apk.delete();
+                    System.out.println("is shell 加固apk完成地址==:" + outputApk.getAbsolutePath());
+                } else {
+                    System.out.println("加固apk完成地址==:" + outputApk.getAbsolutePath());
+                }
+            } else {
+                handleCallback(ws, JiaGu.Event.ZIPALIGN);
+                if (!assembler.write(outputApk, null)) {
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            assembler.close();
+        }
+
+        if (cacheKey != null) {
+            JiaGuCache.saveOutput(config.cacheDir, cacheKey, outputApk, config.cacheMaxSizeMB);
+        }
+        return outputApk;
+    }
+
+    /**
+     * 通过apktool反编译、加固、回编译
+     * @param apk
+     * @param encryptedApk 未签名的加固apk
+     * @return
+     */
+    private boolean apktoolEncrypt(final Workspace ws, File apk, File encryptedApk) {
+        File decompile = new File(ws.dir, "decompile");
+        File apkTool = config.apktoolPath != null ? new File(config.apktoolPath) : null;
+        /**
+         * 1.decompile apk
+         */
+        handleCallback(ws, JiaGu.Event.DECOMPILEING);
+        FileHelper.cleanDirectory(decompile);
+        //dex直接从apk中读取并加密，不需要反编译成smali
+        boolean decompileResult = ApkToolPlus.decompile(apkTool, apk, decompile, true, new Callback<Exception>() {
+            @Override
+            public void callback(Exception e) {
+                handleCallback(ws, JiaGu.Event.DECOMPILE_FAIL);
+            }
+        });
+        if (!decompileResult) {
+            return false;
+        }
+        /**
+         * 2.加固
+         */
+        handleCallback(ws, JiaGu.Event.ENCRYPTING);
+
+        //加密dex
+        if (!encryptDex(apk, decompile)) {
+            handleCallback(ws, JiaGu.Event.ENCRYPT_FAIL);
+            return false;
+        }
+        //加固转移
+        if (!jiagu(ws, apk, decompile)) {
+            handleCallback(ws, JiaGu.Event.ENCRYPT_FAIL);
+            return false;
+        }
+        //保存签名信息
+        signatureProtect(apk, decompile);
+
+        //修改配置文件
+        if (!updateMenifest(new File(decompile, "AndroidManifest.xml"))) {
+            handleCallback(ws, JiaGu.Event.MENIFEST_FAIL);
+            return false;
+        }
+
+        /**
+         * 3.recompile apk
+         */
+        handleCallback(ws, JiaGu.Event.RECOMPILING);
+        return ApkToolPlus.recompile(apkTool, decompile, encryptedApk, new Callback<Exception>() {
+            @Override
+            public void callback(Exception e) {
+                handleCallback(ws, JiaGu.Event.RECOMPILE_FAIL);
+            }
+        });
+    }
+
+    /**
+     * 资源混淆
+     * @param apkFile
+     * @param assembler 混淆后的条目
+     * @return 是否成功
+     */
+    private boolean andResGuard(Workspace ws, File apkFile, KeystoreConfig keystore, ApkAssembler assembler) {
+        File andResGuardDir = new File(ws.dir, "AndResGuard");
+        if (!andResGuardDir.exists()) {
+            andResGuardDir.mkdir();
+        }
+        //资源混淆
+        try {
+            com.library.dexknife.shell.res.Configuration configuration = new com.library.dexknife.shell.res.Configuration(new File(config.andResConfig), new File(config.andResMapping), new File(keystore.keystorePath), keystore.keystorePassword, keystore.alias, keystore.aliasPassword);
+            com.library.dexknife.shell.res.ApkDecoder apkDecoder = new com.library.dexknife.shell.res.ApkDecoder(configuration);
+            apkDecoder.setApkFile(apkFile);
+            apkDecoder.setOutDir(andResGuardDir);
+            apkDecoder.decode();
+
+            generalUnsignApk(apkDecoder.getCompressData(), apkDecoder.getOutDir(), assembler, apkDecoder.getConfig());
+            return true;
+        } catch (AndrolibException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (DirectoryException e) {
+            e.printStackTrace();
+        } catch (ParserConfigurationException e) {
+            e.printStackTrace();
+        } catch (SAXException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * 生成apk文件（登记到assembler中，最后统一写出）
+     * @param compressData
+     * @param mOutDir
+     * @param assembler
+     * @param config
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private static void generalUnsignApk(HashMap<String, Integer> compressData, File mOutDir, ApkAssembler assembler, com.library.dexknife.shell.res.Configuration config) throws IOException, InterruptedException {
+        File tempOutDir = new File(mOutDir.getAbsolutePath(), com.library.dexknife.shell.res.util.TypedValue.UNZIP_FILE_PATH);
+        if (!tempOutDir.exists()) {
+            throw new IOException("Missing apk unzip files, path=" + tempOutDir.getAbsolutePath());
+        }
+
+        File[] unzipFiles = tempOutDir.listFiles();
+        List<File> collectFiles = new ArrayList<>();
+        for (File f : unzipFiles) {
+            String name = f.getName();
+            if (name.equals("res") || name.equals(config.mMetaName) || name.equals("resources.arsc")) {
+                continue;
+            }
+            collectFiles.add(f);
+        }
+
+        File destResDir = new File(mOutDir.getAbsolutePath(), "res");
+        //添加修改后的res文件
+        if (!config.mKeepRoot && FileOperation.getlist(destResDir) == 0) {
+            destResDir = new File(mOutDir.getAbsolutePath(), com.library.dexknife.shell.res.util.TypedValue.RES_FILE_PATH);
+        }
+
+        /**
+         * NOTE:文件数量应该是一样的，如果不一样肯定有问题
+         */
+        File rawResDir = new File(tempOutDir.getAbsolutePath() + File.separator + "res");
+        System.out.printf("DestResDir %d rawResDir %d\n", FileOperation.getlist(destResDir), FileOperation.getlist(rawResDir));
+        if (FileOperation.getlist(destResDir) != FileOperation.getlist(rawResDir)) {
+            throw new IOException(String.format(
+                    "the file count of %s, and the file count of %s is not equal, there must be some problem\n",
+                    rawResDir.getAbsolutePath(), destResDir.getAbsolutePath()));
+        }
+        if (!destResDir.exists()) {
+            throw new IOException("Missing res files, path=" + destResDir.getAbsolutePath());
+        }
+        //这个需要检查混淆前混淆后，两个res的文件数量是否相等
+        collectFiles.add(destResDir);
+        File rawARSCFile = new File(mOutDir.getAbsolutePath() + File.separator + "resources.arsc");
+        if (!rawARSCFile.exists()) {
+            throw new IOException("Missing resources.arsc files, path=" + rawARSCFile.getAbsolutePath());
+        }
+        collectFiles.add(rawARSCFile);
+        for (File f : collectFiles) {
+            if (f.exists()) {
+                addFile(f, "", assembler, compressData);
+            }
+        }
+    }
+
+    /**
+     * 和FileOperation.zipFiles相同的条目名和压缩方式
+     */
+    private static void addFile(File resFile, String rootpath, ApkAssembler assembler, HashMap<String, Integer> compressData) {
+        rootpath = rootpath + (rootpath.length() == 0 ? "" : "/") + resFile.getName();
+        if (resFile.isDirectory()) {
+            for (File file : resFile.listFiles()) {
+                addFile(file, rootpath, assembler, compressData);
+            }
+        } else {
+            Integer compressMethod = compressData.get(rootpath);
+            if (compressMethod == null) {
+                System.err.printf(String.format("do not have the compress data path =%s in resource.asrc\n", rootpath));
+                return;
+            }
+            assembler.addFile(rootpath, resFile, compressMethod == java.util.zip.ZipEntry.DEFLATED);
+        }
+    }
+
+    /**
+     * 获取签名存入
+     * @param apk
+     * @param decompile
+     */
+    private static void signatureProtect(File apk, File decompile) {
+        byte[] encryptData = signatureKey(apk);
+        if (encryptData == null) {
+            return;
+        }
+        try {
+            FileUtils.writeByteArrayToFile(new File(decompile, "assets/app.key"), encryptData);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 加密后的签名信息（assets/app.key的内容）
+     * @param apk
+     * @return 获取失败返回null
+     */
+    private static byte[] signatureKey(File apk) {
+        try (ApkParser parser = new ApkParser(apk)) {
+            List<CertificateMeta> certList = parser.getCertificateMetaList();
+            String certMD5 = certList.get(0).getCertMd5();
+            return com.library.dexknife.shell.utils.DataProtector.encryptXXTEA(certMD5.getBytes());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 直接修改apk加固（不经过apktool）
+     * @param apk
+     * @param assembler 输出
+     * @return 失败时返回false，需要走apktool流程
+     */
+    private boolean directPatch(Workspace ws, File apk, ApkAssembler assembler) {
+        if (!loadTemplate(ws)) {
+            return false;
+        }
+        return ApkPatcher.patch(apk, assembler, ws.dir, ws.template, JIAGU_DATA_BIN, signatureKey(apk), config);
+    }
+
+    private static void handleCallback(Workspace ws, JiaGu.Event event) {
+        if (ws.report != null) {
+            switch (event) {
+                case DECOMPILE_FAIL:
+                case RECOMPILE_FAIL:
+                case ENCRYPT_FAIL:
+                case MENIFEST_FAIL:
+                    ws.report.fail(event.name());
+                    break;
+                default:
+                    ws.report.begin(event.name());
+                    break;
+            }
+        }
+        if (ws.callback != null) {
+            ws.callback.callback(event);
+        }
+    }
+
+    /**
+     * 更新xml
+     * @param menifest
+     * @return
+     */
+    private boolean updateMenifest(File menifest) {
+        XMLWriter writer = null;
+        try {
+            SAXReader reader = new SAXReader();
+            org.dom4j.Document document = reader.read(menifest);
+            Element rootElement = document.getRootElement();
+
+            Element applicationElement = rootElement.element("application");
+            Attribute appNameAttribute = applicationElement.attribute("name");
+            if (appNameAttribute != null) {
+                String appName = appNameAttribute.getValue();
+                appNameAttribute.setValue(config.proxyApplicationName);
+                applicationElement.addElement("meta-data")
+                        .addAttribute("android:name", METADATA_SRC_APPLICATION)
+                        .addAttribute("android:value", appName);
+            } else {
+                applicationElement.addAttribute("android:name", config.proxyApplicationName);
+            }
+            OutputFormat format = OutputFormat.createPrettyPrint();
+            // OutputFormat format = OutputFormat.createCompactFormat();
+            format.setEncoding("UTF-8");
+            writer = new XMLWriter(new FileOutputStream(menifest), format);
+            writer.write(document);
+            writer.close();
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 更新二进制xml，不需要反编译资源
+     * @param menifest 二进制AndroidManifest.xml
+     * @param proxyApplicationName 壳Application
+     * @return 失败返回null
+     */
+    static byte[] updateMenifest(byte[] menifest, String proxyApplicationName) {
+        try {
+            BinaryXmlEditor editor = new BinaryXmlEditor(menifest);
+            String appName = editor.getAttributeValue("application", AndroidConstants.ATTR_ID_NAME);
+            if (appName == null && editor.hasAttribute("application", AndroidConstants.ATTR_ID_NAME)) {
+                // android:name不是字符串（如引用），无法写入meta-data，交给apktool处理
+                Debug.w("application android:name is not a string");
+                return null;
+            }
+            if (!editor.setAttributeValue("application", "name", AndroidConstants.ATTR_ID_NAME, proxyApplicationName)) {
+                Debug.e("application not found in AndroidManifest.xml");
+                return null;
+            }
+            if (appName != null) {
+                editor.appendChild("application", "meta-data",
+                        new String[]{"name", "value"},
+                        new int[]{AndroidConstants.ATTR_ID_NAME, AndroidConstants.ATTR_ID_VALUE},
+                        new String[]{METADATA_SRC_APPLICATION, appName});
+            }
+            return editor.toByteArray();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 获取壳模板，同一个jiagu.zip只加载一次
+     * @return
+     */
+    private boolean loadTemplate(Workspace ws) {
+        if (ws.template == null) {
+            ws.template = ShellTemplate.get(config.jiaguZipPath);
+        }
+        return ws.template != null;
+    }
+
+    /**
+     * 加固
+     * @param apk
+     * @param decompileDir
+     * @return
+     */
+    private boolean jiagu(Workspace ws, File apk, File decompileDir) {
+        if (!loadTemplate(ws)) {
+            return false;
+        }
+        byte[] shellDex = shellDex(ws, apk);
+        if (shellDex == null) {
+            return false;
+        }
+
+        File smali = new File(decompileDir, "smali");
+        FileHelper.delete(smali);
+        File lib = new File(decompileDir, "lib");
+        String[] platforms = lib.list();
+        boolean isHasLib = lib.exists() && platforms != null && platforms.length > 0;
+
+        //壳dex放在反编译目录中，回编译时原样打包，不需要再由smali编译
+        try {
+            FileUtils.writeByteArrayToFile(new File(decompileDir, ShellTemplate.SHELL_DEX), shellDex);
+            ws.template.extract("libs", decompileDir);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        File libs = new File(decompileDir, "libs");
+        if (isHasLib) {
+            for (String platform : platforms) {
+                File libFile = new File(libs, platform + "/libprotected.so");
+                File libSOFile = new File(lib, platform + "/" + libFile.getName());
+                if (libFile.exists() && !libSOFile.exists()) {
+                    FileHelper.move(libFile, new File(lib, platform + "/" + libFile.getName()));
+                }
+            }
+        } else {
+            FileHelper.move(libs, lib);
+        }
+        FileHelper.delete(libs);
+        return true;
+    }
+
+    /**
+     * 壳dex，与不加密的dex合并
+     * @param apk
+     * @return
+     */
+    private byte[] shellDex(Workspace ws, File apk) {
+        ZipIndex index = null;
+        try {
+            index = new ZipIndex(apk);
+            List<ZipIndex.Entry> mergeEntries = new ArrayList<>();
+            DexMerger.split(DexEncryptor.listDex(index), config, mergeEntries);
+            return DexMerger.shellDex(ws.template, index, mergeEntries, ws.dir);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            IO.close(index);
+        }
+    }
+
+    /**
+     * 加密dex
+     * @param apk
+     * @param decompileDir
+     * @return
+     */
+    private boolean encryptDex(File apk, File decompileDir) {
+        //删除反编译出的smali目录（不带-s反编译时）
+        String[] filenames = decompileDir.list();
+        if (filenames != null) {
+            for (String filename : filenames) {
+                if (filename.startsWith("smali_")) {
+                    FileHelper.delete(new File(decompileDir, filename));
+                }
+            }
+        }
+        File encryptDir = new File(decompileDir, "assets/" + JIAGU_DATA_BIN);
+        FileHelper.delete(encryptDir);
+        encryptDir.mkdirs();
+
+        //从中央目录获取dex列表：classes.dex、classes2.dex...，并行解压加密
+        ZipIndex index = null;
+        try {
+            index = new ZipIndex(apk);
+            List<ZipIndex.Entry> dexEntries = DexEncryptor.listDex(index);
+            if (dexEntries.isEmpty()) {
+                Debug.e("classes.dex not found : " + apk.getAbsolutePath());
+                return false;
+            }
+            //apktool -s 会把原dex拷贝到反编译目录，回编译时会优先使用，需要删除
+            for (ZipIndex.Entry dexEntry : dexEntries) {
+                new File(decompileDir, dexEntry.getName()).delete();
+            }
+            dexEntries = DexMerger.split(dexEntries, config, new ArrayList<ZipIndex.Entry>());
+            return DexEncryptor.encrypt(index, dexEntries, encryptDir, config) != null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            IO.close(index);
+        }
+    }
+}
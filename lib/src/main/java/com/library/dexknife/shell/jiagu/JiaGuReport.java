@@ -0,0 +1,305 @@
+package com.library.dexknife.shell.jiagu;
+
+import com.library.dexknife.shell.utils.FileHelper;
+import com.library.dexknife.shell.utils.IO;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 加固各阶段的耗时报告
+ * <p>
+ * 每个阶段记录：耗时、CPU时间（整个进程，包含并行的工作线程）、读写字节数和临时目录的峰值大小，
+ * 加固完成后以json写在输出apk旁边，用于跟踪每次发布的加固成本。
+ * <p>
+ * 读写字节数来自/proc/self/io，不包含外部进程（如apktool命令行），不支持的系统为-1；
+ * 临时目录大小在阶段切换时和后台每隔{@link #SAMPLE_INTERVAL}毫秒采样一次。
+ * <p>
+ * CPU时间和读写字节数都是整个进程的，同一进程中同时有其他加固任务时（encryptAll、守护进程）
+ * 会包含其他任务的开销，这时报告和阶段中的concurrentJobs为true，不能用于比较单个任务的成本。
+ */
+public class JiaGuReport {
+
+    public static final String TAG = JiaGuReport.class.getSimpleName();
+
+    private static final long SAMPLE_INTERVAL = 500;
+    private static final File PROC_IO = new File("/proc/self/io");
+    //正在统计的报告，用于标记同时运行的任务
+    private static final List<JiaGuReport> ACTIVE = new ArrayList<>();
+    //ACTIVE的大小，不需要ACTIVE锁就可以读取（持有报告的锁时不能再获取ACTIVE锁）
+    private static volatile int activeCount;
+
+    private final File tempDir;
+    private final List<Stage> stages = new ArrayList<>();
+    private final long startNanos;
+    private final long startCpu;
+    private Stage current;
+    private Thread sampler;
+    private boolean cacheHit;
+    private boolean success;
+    private final long inputBytes;
+    private long outputBytes;
+    private long wallNanos = -1;
+    private long cpuNanos = -1;
+    private int peakJobs;
+
+    private static class Stage {
+        String name;
+        boolean failed;
+        long startNanos;
+        long wallNanos;
+        long startCpu;
+        long cpuNanos;
+        long startRead;
+        long startWrite;
+        long bytesRead = -1;
+        long bytesWritten = -1;
+        long peakTempBytes;
+        int peakJobs;
+    }
+
+    /**
+     * @param tempDir 需要统计大小的临时目录
+     * @param input   输入apk
+     */
+    public JiaGuReport(File tempDir, File input) {
+        this.tempDir = tempDir;
+        this.inputBytes = input != null && input.isFile() ? input.length() : 0;
+        this.startNanos = System.nanoTime();
+        this.startCpu = cpuTime();
+        sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    sampleTempDir();
+                    try {
+                        Thread.sleep(SAMPLE_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "jiagu-report");
+        sampler.setDaemon(true);
+        sampler.start();
+        synchronized (ACTIVE) {
+            ACTIVE.add(this);
+            activeCount = ACTIVE.size();
+            updateJobs();
+        }
+    }
+
+    /**
+     * 同时运行的任务数改变时更新所有正在统计的报告，调用时持有ACTIVE锁
+     */
+    private static void updateJobs() {
+        int jobs = ACTIVE.size();
+        for (JiaGuReport report : ACTIVE) {
+            synchronized (report) {
+                report.peakJobs = Math.max(report.peakJobs, jobs);
+                if (report.current != null) {
+                    report.current.peakJobs = Math.max(report.current.peakJobs, jobs);
+                }
+            }
+        }
+    }
+
+    private static int activeJobs() {
+        return activeCount;
+    }
+
+    /**
+     * 开始一个阶段，同时结束上一个阶段
+     */
+    public synchronized void begin(String name) {
+        endStage();
+        Stage stage = new Stage();
+        stage.name = name;
+        stage.startNanos = System.nanoTime();
+        stage.startCpu = cpuTime();
+        stage.peakJobs = activeJobs();
+        long[] io = readProcIo();
+        stage.startRead = io[0];
+        stage.startWrite = io[1];
+        stages.add(stage);
+        current = stage;
+        sampleTempDir();
+    }
+
+    /**
+     * 当前阶段失败
+     */
+    public synchronized void fail(String name) {
+        if (current != null) {
+            current.failed = true;
+        } else {
+            begin(name);
+            current.failed = true;
+        }
+    }
+
+    public synchronized void setCacheHit(boolean cacheHit) {
+        this.cacheHit = cacheHit;
+    }
+
+    /**
+     * 结束统计
+     * @param output  输出apk，失败时可以为null
+     * @param success 是否成功
+     */
+    public void finish(File output, boolean success) {
+        synchronized (ACTIVE) {
+            ACTIVE.remove(this);
+            activeCount = ACTIVE.size();
+        }
+        finishStats(output, success);
+    }
+
+    private synchronized void finishStats(File output, boolean success) {
+        endStage();
+        if (sampler != null) {
+            sampler.interrupt();
+            sampler = null;
+        }
+        this.wallNanos = System.nanoTime() - startNanos;
+        this.cpuNanos = cpuTime() - startCpu;
+        this.success = success;
+        this.outputBytes = output != null && output.isFile() ? output.length() : 0;
+    }
+
+    private void endStage() {
+        if (current == null) {
+            return;
+        }
+        sampleTempDir();
+        current.wallNanos = System.nanoTime() - current.startNanos;
+        current.cpuNanos = cpuTime() - current.startCpu;
+        long[] io = readProcIo();
+        if (current.startRead >= 0 && io[0] >= 0) {
+            current.bytesRead = io[0] - current.startRead;
+            current.bytesWritten = io[1] - current.startWrite;
+        }
+        current = null;
+    }
+
+    private void sampleTempDir() {
+        long size = tempDir != null ? FileHelper.sizeOf(tempDir) : 0;
+        synchronized (this) {
+            if (current != null && size > current.peakTempBytes) {
+                current.peakTempBytes = size;
+            }
+        }
+    }
+
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"success\": ").append(success).append(",\n");
+        json.append("  \"cacheHit\": ").append(cacheHit).append(",\n");
+        json.append("  \"concurrentJobs\": ").append(peakJobs > 1).append(",\n");
+        json.append("  \"peakJobs\": ").append(peakJobs).append(",\n");
+        json.append("  \"inputBytes\": ").append(inputBytes).append(",\n");
+        json.append("  \"outputBytes\": ").append(outputBytes).append(",\n");
+        json.append("  \"wallMillis\": ").append(millis(wallNanos >= 0 ? wallNanos : System.nanoTime() - startNanos)).append(",\n");
+        json.append("  \"cpuMillis\": ").append(millis(cpuNanos >= 0 ? cpuNanos : cpuTime() - startCpu)).append(",\n");
+        json.append("  \"stages\": [");
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"name\": \"").append(stage.name).append('"');
+            json.append(", \"failed\": ").append(stage.failed);
+            json.append(", \"concurrentJobs\": ").append(stage.peakJobs > 1);
+            json.append(", \"wallMillis\": ").append(millis(stage.wallNanos));
+            json.append(", \"cpuMillis\": ").append(millis(stage.cpuNanos));
+            json.append(", \"bytesRead\": ").append(stage.bytesRead);
+            json.append(", \"bytesWritten\": ").append(stage.bytesWritten);
+            json.append(", \"peakTempBytes\": ").append(stage.peakTempBytes);
+            json.append('}');
+        }
+        json.append(stages.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    /**
+     * 写出json报告
+     */
+    public boolean write(File file) {
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            out.write(toJson().getBytes(Charset.forName("UTF-8")));
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IO.close(out);
+        }
+        return false;
+    }
+
+    /**
+     * 报告文件：输出apk同目录，xxx.apk -> xxx_report.json
+     */
+    public static File reportFile(File outputApk) {
+        return new File(outputApk.getParentFile(), FileHelper.getNoSuffixName(outputApk) + "_report.json");
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1000000;
+    }
+
+    /**
+     * 进程的CPU时间，不支持时使用当前线程的CPU时间
+     */
+    private static long cpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long time = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            if (time >= 0) {
+                return time;
+            }
+        }
+        ThreadMXBean thread = ManagementFactory.getThreadMXBean();
+        return thread.isCurrentThreadCpuTimeSupported() ? thread.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * 进程读写的字节数 {rchar, wchar}，不支持时为-1
+     */
+    private static long[] readProcIo() {
+        long[] io = {-1, -1};
+        if (!PROC_IO.canRead()) {
+            return io;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(PROC_IO));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("rchar:")) {
+                    io[0] = Long.parseLong(line.substring(6).trim());
+                } else if (line.startsWith("wchar:")) {
+                    io[1] = Long.parseLong(line.substring(6).trim());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+        } finally {
+            IO.close(reader);
+        }
+        return io;
+    }
+}
@@ -8,6 +8,26 @@ public class KeystoreConfig {
     public String keystorePassword;
     public String alias;
     public String aliasPassword;
+
+    /**
+     * 配置指纹，用于加固缓存的key（包含keystore文件内容）
+     * @return
+     */
+    public String fingerprint() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("keystorePath=").append(keystorePath).append('\n');
+        builder.append("keystorePassword=").append(keystorePassword).append('\n');
+        builder.append("alias=").append(alias).append('\n');
+        builder.append("aliasPassword=").append(aliasPassword).append('\n');
+        if (keystorePath != null && new java.io.File(keystorePath).isFile()) {
+            try {
+                builder.append("keystore=").append(com.library.dexknife.shell.utils.HASH.sha256(new java.io.File(keystorePath))).append('\n');
+            } catch (java.io.IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return com.library.dexknife.shell.utils.HASH.sha256(builder.toString());
+    }
 }
 
 
@@ -0,0 +1,203 @@
+package com.library.dexknife.shell.jiagu;
+
+import com.library.dexknife.shell.ApkToolPlus;
+import com.library.dexknife.shell.AppManager;
+import com.library.dexknife.shell.utils.ClassHelper;
+import com.library.dexknife.shell.utils.Debug;
+import com.library.dexknife.shell.utils.FileHelper;
+import com.library.dexknife.shell.utils.HASH;
+import com.library.dexknife.shell.utils.IO;
+import com.library.dexknife.shell.utils.ZipIndex;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 壳模板（jiagu.zip）
+ * <p>
+ * 格式：classes.dex（编译好的壳dex）+ libs/[abi]/*.so，由{@link com.library.dexknife.doaction.UpdateZipTask}生成；
+ * 旧格式的smali/仍然支持，壳dex在第一次使用时由smali编译一次。
+ * <p>
+ * 只读取一次，条目保存在内存中，版本为jiagu.zip的sha256。
+ * 各个任务直接从内存写入输出apk，
+ * 不再每次释放jiagu.zip并解压到工作目录。同一路径的文件改变后自动重新加载。
+ */
+public class ShellTemplate {
+
+    public static final String TAG = ShellTemplate.class.getSimpleName();
+
+    public static final String SHELL_DEX = "classes.dex";
+    private static final String SMALI_PREFIX = "smali/";
+    private static final String LIBS_PREFIX = "libs/";
+    private static final String SHELL_LIB_NAME = "libprotected.so";
+
+    private static final Map<String, ShellTemplate> TEMPLATES = new HashMap<>();
+
+    private final String path;
+    private final long length;
+    private final long lastModified;
+    private final String version;
+    private final Map<String, byte[]> entries;
+    private byte[] shellDex;
+
+    private ShellTemplate(String path, File zip, long length, long lastModified) throws IOException {
+        this.path = path;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.version = HASH.sha256(zip);
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        //按中央目录读取（jiagu.zip中存储的条目带有数据描述符，ZipInputStream无法读取）
+        ZipIndex index = new ZipIndex(zip);
+        try {
+            for (ZipIndex.Entry entry : index.getEntries()) {
+                if (!entry.isDirectory()) {
+                    entries.put(entry.getName().replace('\\', '/'), index.readBytes(entry));
+                }
+            }
+        } finally {
+            IO.close(index);
+        }
+        this.entries = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * 获取壳模板，同一个文件只加载一次
+     * @param jiaguZipPath 文件路径或类路径中的资源
+     * @return 加载失败返回null
+     */
+    public static ShellTemplate get(String jiaguZipPath) {
+        File file = new File(jiaguZipPath);
+        synchronized (TEMPLATES) {
+            ShellTemplate template = TEMPLATES.get(jiaguZipPath);
+            if (template != null && (!file.isFile()
+                    || (file.length() == template.length && file.lastModified() == template.lastModified))) {
+                return template;
+            }
+            try {
+                if (file.isFile()) {
+                    template = new ShellTemplate(jiaguZipPath, file, file.length(), file.lastModified());
+                } else {
+                    InputStream in = ClassHelper.getResourceAsStream(jiaguZipPath);
+                    if (in == null) {
+                        Debug.e("jiagu.zip not found : " + jiaguZipPath);
+                        return null;
+                    }
+                    File temp = File.createTempFile("jiagu", ".zip", AppManager.getTempDir());
+                    try {
+                        FileUtils.copyInputStreamToFile(in, temp);
+                        template = new ShellTemplate(jiaguZipPath, temp, -1, -1);
+                    } finally {
+                        IO.close(in);
+                        temp.delete();
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            TEMPLATES.put(jiaguZipPath, template);
+            return template;
+        }
+    }
+
+    /**
+     * 版本（jiagu.zip的sha256）
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public List<String> getNames() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    public byte[] getBytes(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * 壳的so，abi -> libprotected.so
+     */
+    public Map<String, byte[]> getShellLibs() {
+        Map<String, byte[]> libs = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            String name = entry.getKey();
+            if (name.startsWith(LIBS_PREFIX) && name.endsWith("/" + SHELL_LIB_NAME)) {
+                libs.put(name.substring(LIBS_PREFIX.length(), name.length() - SHELL_LIB_NAME.length() - 1), entry.getValue());
+            }
+        }
+        return libs;
+    }
+
+    /**
+     * 壳dex，旧格式在第一次调用时由smali编译
+     * @return 编译失败返回null
+     */
+    public synchronized byte[] getShellDex() {
+        if (shellDex != null) {
+            return shellDex;
+        }
+        if (entries.containsKey(SHELL_DEX)) {
+            shellDex = entries.get(SHELL_DEX);
+            return shellDex;
+        }
+        File buildDir = new File(AppManager.getTempDir(), "shell_template_" + version.substring(0, 16) + "_" + System.nanoTime());
+        try {
+            if (extract(SMALI_PREFIX, buildDir) == 0) {
+                Debug.e("shell smali not found : " + path);
+                return null;
+            }
+            File dexFile = new File(buildDir, "classes.dex");
+            if (!ApkToolPlus.smali2dex(new File(buildDir, "smali").getPath(), dexFile.getPath()) || !dexFile.isFile()) {
+                Debug.e("shell smali2dex failure");
+                return null;
+            }
+            shellDex = FileUtils.readFileToByteArray(dexFile);
+            return shellDex;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            FileHelper.delete(buildDir);
+        }
+    }
+
+    /**
+     * 把指定前缀的条目写到目录中（apktool回编译需要文件）
+     * @param prefix 如smali/、libs/
+     * @param outDir
+     * @return 写出的文件数
+     */
+    public int extract(String prefix, File outDir) throws IOException {
+        int count = 0;
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                FileUtils.writeByteArrayToFile(new File(outDir, entry.getKey()), entry.getValue());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 清除已加载的模板
+     */
+    public static void clear() {
+        synchronized (TEMPLATES) {
+            TEMPLATES.clear();
+        }
+    }
+}
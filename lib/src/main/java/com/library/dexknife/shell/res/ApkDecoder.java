@@ -16,7 +16,10 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import brut.androlib.AndrolibException;
@@ -39,6 +42,9 @@ public class ApkDecoder {
     private       HashMap<String, Integer> mCompressData;
 
     private final HashSet<Path>            mRawResourceFiles = new HashSet<>();
+    //每个ApkDecoder单独记录，同一进程中的多个加固任务互不影响
+    private final Map<Integer, String>      mTableStringsProguard = new LinkedHashMap<>();
+    private final Map<Integer, Set<String>> mExistTypeNames = new HashMap<>();
 
     private void copyOtherResFiles() throws IOException {
         if (mRawResourceFiles.isEmpty())
@@ -178,6 +184,20 @@ public class ApkDecoder {
         return mResMappingFile;
     }
 
+    /**
+     * 已经混淆的全局字符串，key为resources.arsc全局字符串池中的索引
+     */
+    public Map<Integer, String> getTableStringsProguard() {
+        return mTableStringsProguard;
+    }
+
+    /**
+     * resources.arsc中已有的资源名，混淆时不能使用
+     */
+    public Set<String> getExistTypeSpecNameStrings(int type) {
+        return mExistTypeNames.get(type);
+    }
+
 
     public void decode() throws AndrolibException, IOException, DirectoryException {
         if (hasResources()) {
@@ -185,7 +205,7 @@ public class ApkDecoder {
             // read the resources.arsc checking for STORED vs DEFLATE compression
             // this will determine whether we compress on rebuild or not.
             System.out.printf("decoding resources.arsc\n");
-            RawARSCDecoder.decode(mApkFile.getDirectory().getFileInput("resources.arsc"));
+            RawARSCDecoder.decode(mApkFile.getDirectory().getFileInput("resources.arsc"), mExistTypeNames);
             ResPackage[] pkgs = com.library.dexknife.shell.res.decoder.ARSCDecoder.decode(mApkFile.getDirectory().getFileInput("resources.arsc"), this);
 
             //把没有纪录在resources.arsc的资源文件也拷进dest目录
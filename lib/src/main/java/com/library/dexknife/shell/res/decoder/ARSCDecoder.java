@@ -58,8 +58,6 @@ public class ARSCDecoder {
     private static final Logger LOGGER             = Logger.getLogger(ARSCDecoder.class.getName());
     private static final int    KNOWN_CONFIG_BYTES = 56;
 
-    public static Map<Integer, String> mTableStringsProguard = new LinkedHashMap<>();
-
     private ExtDataInput mIn;
     private com.library.dexknife.shell.res.util.ExtDataOutput mOut;
     private Header        mHeader;
@@ -209,7 +207,7 @@ public class ARSCDecoder {
         int packageCount = mIn.readInt();
         mOut.writeInt(packageCount);
 
-        mTableLenghtChange += StringBlock.writeTableNameStringBlock(mIn, mOut, mTableStringsProguard);
+        mTableLenghtChange += StringBlock.writeTableNameStringBlock(mIn, mOut, mApkDecoder.getTableStringsProguard());
         writeNextChunk(0);
         if (packageCount != mPkgs.length) {
             throw new AndrolibException(
@@ -383,7 +381,7 @@ public class ARSCDecoder {
             mProguardBuilder.reset();
             mCurTypeID = id;
 
-            Set<String> existNames = com.library.dexknife.shell.res.decoder.RawARSCDecoder.getExistTypeSpecNameStrings(mCurTypeID);
+            Set<String> existNames = mApkDecoder.getExistTypeSpecNameStrings(mCurTypeID);
             mProguardBuilder.removeStrings(existNames);
         }
         //是否混淆文件路径
@@ -625,7 +623,7 @@ public class ARSCDecoder {
 
         //这里面有几个限制，一对于string ,id, array我们是知道肯定不用改的，第二看要那个type是否对应有文件路径
         if (mPkg.isCanProguard() && flags && type == com.library.dexknife.shell.res.util.TypedValue.TYPE_STRING && mShouldProguardForType && mShouldProguardTypeSet.contains(mType.getName())) {
-            if (mTableStringsProguard.get(data) == null) {
+            if (mApkDecoder.getTableStringsProguard().get(data) == null) {
                 String raw = mTableStrings.get(data).toString();
                 if (StringUtil.isBlank(raw)) return;
 
@@ -685,7 +683,7 @@ public class ARSCDecoder {
                     FileOperation.copyFileUsingStream(resRawFile, resDestFile);
                     //already copied
                     mApkDecoder.removeCopiedResFile(resRawFile.toPath());
-                    mTableStringsProguard.put(data, result);
+                    mApkDecoder.getTableStringsProguard().put(data, result);
                 }
             }
         }
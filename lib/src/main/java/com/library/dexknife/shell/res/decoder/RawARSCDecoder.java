@@ -24,7 +24,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
-import java.util.HashMap;
+import java.util.Map;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -41,7 +41,7 @@ public class RawARSCDecoder {
     private static final Logger LOGGER             = Logger.getLogger(ARSCDecoder.class.getName());
     private static final int    KNOWN_CONFIG_BYTES = 56;
 
-    private static HashMap<Integer, Set<String>> mExistTypeNames;
+    private final Map<Integer, Set<String>> mExistTypeNames;
 
     private com.library.dexknife.shell.res.util.ExtDataInput mIn;
     private Header       mHeader;
@@ -54,16 +54,19 @@ public class RawARSCDecoder {
     private int          mResId;
 
 
-    private RawARSCDecoder(InputStream arscStream) throws AndrolibException, IOException {
+    private RawARSCDecoder(InputStream arscStream, Map<Integer, Set<String>> existTypeNames) throws AndrolibException, IOException {
         mIn = new com.library.dexknife.shell.res.util.ExtDataInput(new LEDataInputStream(arscStream));
-        mExistTypeNames = new HashMap<>();
+        mExistTypeNames = existTypeNames;
     }
 
-    public static com.library.dexknife.shell.res.data.ResPackage[] decode(InputStream arscStream
+    /**
+     * @param existTypeNames 输出：每个type中已有的资源名
+     */
+    public static com.library.dexknife.shell.res.data.ResPackage[] decode(InputStream arscStream, Map<Integer, Set<String>> existTypeNames
     )
         throws AndrolibException {
         try {
-            RawARSCDecoder decoder = new RawARSCDecoder(arscStream);
+            RawARSCDecoder decoder = new RawARSCDecoder(arscStream, existTypeNames);
             System.out.printf("parse to get the exist names in the resouces.arsc first\n");
 
             com.library.dexknife.shell.res.data.ResPackage[] pkgs = decoder.readTable();
@@ -74,10 +77,6 @@ public class RawARSCDecoder {
         }
     }
 
-    public static Set<String> getExistTypeSpecNameStrings(int type) {
-        return mExistTypeNames.get(type);
-    }
-
     private com.library.dexknife.shell.res.data.ResPackage[] readTable() throws IOException, AndrolibException {
         nextChunkCheckType(Header.TYPE_TABLE);
         int packageCount = mIn.readInt();
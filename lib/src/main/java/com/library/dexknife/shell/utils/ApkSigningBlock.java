@@ -0,0 +1,252 @@
+package com.library.dexknife.shell.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * APK Signing Block（v2/v3签名块）中的渠道信息
+ * <p>
+ * v2/v3签名覆盖签名块之前的zip内容、中央目录和结束记录（其中中央目录偏移按签名块的位置计算），
+ * 签名块本身不在签名范围内。渠道作为一个ID-value对写入签名块，只需要修正结束记录中的中央目录偏移，
+ * 签名仍然有效，不需要重新签名。
+ * <pre>
+ * [zip内容][签名块][中央目录][结束记录]
+ * 签名块：uint64 大小 | (uint64 长度, uint32 ID, value)... | uint64 大小 | "APK Sig Block 42"
+ * </pre>
+ */
+public class ApkSigningBlock {
+
+    public static final String TAG = ApkSigningBlock.class.getSimpleName();
+
+    /**
+     * 渠道的ID，"!ZXK"（与zip注释的MAGIC相同）
+     */
+    public static final int MARKET_ID = 0x4b585a21;
+    static final int V2_SIGNATURE_ID = 0x7109871a;
+    static final int V3_SIGNATURE_ID = 0xf05368c0;
+    //apksigner按4096字节对齐时添加的填充
+    static final int PADDING_ID = 0x42726577;
+    static final int PADDING_ALIGNMENT = 4096;
+
+    private static final long MAGIC_LO = 0x20676953204b5041L; //"APK Sig "
+    private static final long MAGIC_HI = 0x3234206b636f6c42L; //"Block 42"
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int EOCD_LENGTH = 22;
+    private static final int EOCD_CD_SIZE_OFFSET = 12;
+    private static final int EOCD_CD_OFFSET_OFFSET = 16;
+    private static final int EOCD_COMMENT_LENGTH_OFFSET = 20;
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+    //uint64 大小 + uint64 大小 + magic
+    private static final int BLOCK_OVERHEAD = 8 + 8 + 16;
+    //uint64 长度 + uint32 ID
+    private static final int PAIR_OVERHEAD = 8 + 4;
+
+    /**
+     * apk的结构
+     */
+    public static class Layout {
+        /**
+         * 签名块的起始位置，没有签名块时等于cdOffset
+         */
+        public final long blockOffset;
+        public final long cdOffset;
+        public final long eocdOffset;
+        /**
+         * 签名块中的ID-value对，按原顺序
+         */
+        public final Map<Integer, byte[]> pairs;
+
+        Layout(long blockOffset, long cdOffset, long eocdOffset, Map<Integer, byte[]> pairs) {
+            this.blockOffset = blockOffset;
+            this.cdOffset = cdOffset;
+            this.eocdOffset = eocdOffset;
+            this.pairs = pairs;
+        }
+
+        public boolean hasSigningBlock() {
+            return blockOffset < cdOffset;
+        }
+
+        /**
+         * 有v2或v3签名
+         */
+        public boolean isSchemeV2Signed() {
+            return pairs.containsKey(V2_SIGNATURE_ID) || pairs.containsKey(V3_SIGNATURE_ID);
+        }
+
+        public String getMarket() throws IOException {
+            byte[] value = pairs.get(MARKET_ID);
+            return value == null ? null : new String(value, PackerNg.Helper.UTF_8);
+        }
+    }
+
+    public static Layout parse(File apk) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(apk, "r");
+        try {
+            return parse(raf);
+        } finally {
+            IO.close(raf);
+        }
+    }
+
+    public static Layout parse(RandomAccessFile raf) throws IOException {
+        long eocdOffset = findEocd(raf);
+        ByteBuffer eocd = read(raf, eocdOffset, EOCD_LENGTH);
+        long cdOffset = eocd.getInt(EOCD_CD_OFFSET_OFFSET) & 0xffffffffL;
+        long cdSize = eocd.getInt(EOCD_CD_SIZE_OFFSET) & 0xffffffffL;
+        if (cdOffset + cdSize != eocdOffset) {
+            throw new IOException("central directory not followed by end of central directory");
+        }
+        Map<Integer, byte[]> pairs = new LinkedHashMap<>();
+        if (cdOffset < 8 + 16) {
+            return new Layout(cdOffset, cdOffset, eocdOffset, pairs);
+        }
+        ByteBuffer footer = read(raf, cdOffset - 24, 24);
+        if (footer.getLong(8) != MAGIC_LO || footer.getLong(16) != MAGIC_HI) {
+            return new Layout(cdOffset, cdOffset, eocdOffset, pairs);
+        }
+        long blockSize = footer.getLong(0);
+        long blockOffset = cdOffset - blockSize - 8;
+        if (blockSize < 24 || blockSize > Integer.MAX_VALUE - 8 || blockOffset < 0) {
+            throw new IOException("APK Signing Block size out of range : " + blockSize);
+        }
+        ByteBuffer block = read(raf, blockOffset, (int) (blockSize + 8));
+        if (block.getLong(0) != blockSize) {
+            throw new IOException("APK Signing Block sizes do not match");
+        }
+        block.position(8);
+        block.limit(block.capacity() - 24);
+        while (block.hasRemaining()) {
+            if (block.remaining() < 8) {
+                throw new IOException("APK Signing Block pair truncated");
+            }
+            long length = block.getLong();
+            if (length < 4 || length > block.remaining()) {
+                throw new IOException("APK Signing Block pair size out of range : " + length);
+            }
+            int id = block.getInt();
+            byte[] value = new byte[(int) length - 4];
+            block.get(value);
+            pairs.put(id, value);
+        }
+        return new Layout(blockOffset, cdOffset, eocdOffset, pairs);
+    }
+
+    /**
+     * 签名块中的渠道
+     * @return 没有签名块或没有渠道时返回null
+     */
+    public static String readMarket(File apk) throws IOException {
+        return parse(apk).getMarket();
+    }
+
+    /**
+     * 把渠道写入签名块（已有渠道时替换），修改原文件
+     * @throws IOException 没有签名块
+     */
+    public static void writeMarket(File apk, String market) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(apk, "rw");
+        try {
+            Layout layout = parse(raf);
+            byte[] tail = buildTail(raf, layout, market);
+            raf.setLength(layout.blockOffset);
+            raf.seek(layout.blockOffset);
+            raf.write(tail);
+        } finally {
+            IO.close(raf);
+        }
+    }
+
+    /**
+     * 签名块之后的全部内容：写入渠道后的签名块 + 中央目录 + 修正了中央目录偏移的结束记录，
+     * 接在原apk的[0, blockOffset)之后即为渠道包
+     */
+    public static byte[] buildTail(RandomAccessFile raf, Layout layout, String market) throws IOException {
+        return buildTail(layout, readCentralDirectory(raf, layout), market);
+    }
+
+    /**
+     * @param cdAndEocd {@link #readCentralDirectory}的结果，生成多个渠道时只需读取一次
+     */
+    public static byte[] buildTail(Layout layout, byte[] cdAndEocd, String market) throws IOException {
+        if (!layout.hasSigningBlock()) {
+            throw new IOException("APK Signing Block not found");
+        }
+        Map<Integer, byte[]> pairs = new LinkedHashMap<>(layout.pairs);
+        pairs.remove(MARKET_ID);
+        pairs.put(MARKET_ID, market.getBytes(PackerNg.Helper.UTF_8));
+        byte[] block = buildBlock(pairs);
+        ByteBuffer tail = ByteBuffer.allocate(block.length + cdAndEocd.length).order(ByteOrder.LITTLE_ENDIAN);
+        tail.put(block);
+        tail.put(cdAndEocd);
+        int eocdPosition = block.length + (int) (layout.eocdOffset - layout.cdOffset);
+        tail.putInt(eocdPosition + EOCD_CD_OFFSET_OFFSET, (int) (layout.blockOffset + block.length));
+        return tail.array();
+    }
+
+    /**
+     * 中央目录和结束记录（到文件末尾）
+     */
+    public static byte[] readCentralDirectory(RandomAccessFile raf, Layout layout) throws IOException {
+        return read(raf, layout.cdOffset, (int) (raf.length() - layout.cdOffset)).array();
+    }
+
+    /**
+     * 原来有对齐填充时重新计算填充，保持签名块大小为4096的倍数
+     */
+    static byte[] buildBlock(Map<Integer, byte[]> pairs) {
+        boolean padded = pairs.remove(PADDING_ID) != null;
+        int size = BLOCK_OVERHEAD;
+        for (byte[] value : pairs.values()) {
+            size += PAIR_OVERHEAD + value.length;
+        }
+        if (padded) {
+            int padding = (PADDING_ALIGNMENT - (size + PAIR_OVERHEAD) % PADDING_ALIGNMENT) % PADDING_ALIGNMENT;
+            pairs.put(PADDING_ID, new byte[padding]);
+            size += PAIR_OVERHEAD + padding;
+        }
+        ByteBuffer block = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        block.putLong(size - 8);
+        for (Map.Entry<Integer, byte[]> pair : pairs.entrySet()) {
+            block.putLong(4 + pair.getValue().length);
+            block.putInt(pair.getKey());
+            block.put(pair.getValue());
+        }
+        block.putLong(size - 8);
+        block.putLong(MAGIC_LO);
+        block.putLong(MAGIC_HI);
+        return block.array();
+    }
+
+    /**
+     * 从文件末尾向前查找结束记录，注释长度必须与位置吻合
+     */
+    private static long findEocd(RandomAccessFile raf) throws IOException {
+        long length = raf.length();
+        if (length < EOCD_LENGTH) {
+            throw new IOException("not a zip file");
+        }
+        int maxCommentLength = (int) Math.min(MAX_COMMENT_LENGTH, length - EOCD_LENGTH);
+        ByteBuffer buffer = read(raf, length - EOCD_LENGTH - maxCommentLength, EOCD_LENGTH + maxCommentLength);
+        for (int commentLength = 0; commentLength <= maxCommentLength; commentLength++) {
+            int position = maxCommentLength - commentLength;
+            if (buffer.getInt(position) == EOCD_SIG
+                    && (buffer.getShort(position + EOCD_COMMENT_LENGTH_OFFSET) & 0xffff) == commentLength) {
+                return length - EOCD_LENGTH - commentLength;
+            }
+        }
+        throw new IOException("end of central directory not found");
+    }
+
+    private static ByteBuffer read(RandomAccessFile raf, long offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        raf.seek(offset);
+        raf.readFully(data);
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -1,10 +1,20 @@
 package com.library.dexknife.shell.utils;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 执行外部命令，由{@link ProcessRunner}运行
+ */
 public class Cmd {
 
+    public static long TIMEOUT = 10 * 60 * 1000;//外部命令默认超时（毫秒），0表示不限制；耗时长的命令用run(command, workDir, timeoutMillis)
+
     public static boolean exec(String cmd){
         return exec(cmd, true);
     }
@@ -21,72 +31,99 @@ public class Cmd {
         return exec(cmd, null, workDir, isOutput);
     }
 
+    /**
+     * @param cmd      命令，按空白拆分参数（同Runtime.exec）
+     * @param env      环境变量，name=value，不为null时替换而不是追加到当前进程的环境变量（同Runtime.exec）
+     * @param workDir  工作目录
+     * @param isOutput false时不等待命令结束，也不限制运行时间（如启动编辑器）
+     * @return 退出码为0
+     */
     public static boolean exec(String cmd, String[] env, File workDir, boolean isOutput){
-       Debug.d( "exec=" + cmd);
-        boolean isSuccess  = true;
         if(FileHelper.exists(workDir) && OS.isWindows()){
             cmd = String.format("cmd /c %s",cmd);
         }
-        Runtime runtime = Runtime.getRuntime();
-        try {
-            if (!isOutput){
-                runtime.exec(cmd, env, workDir);
-                return true;
+        ProcessRunner runner = runner(split(cmd), workDir);
+        if (env != null) {
+            Map<String, String> envMap = new HashMap<>();
+            for (String item : env) {
+                int index = item.indexOf('=');
+                if (index > 0) {
+                    envMap.put(item.substring(0, index), item.substring(index + 1));
+                }
             }
-            Process proc = runtime.exec(cmd, env, workDir);
+            runner.setEnv(envMap, false);
+        }
+        if (!isOutput){
+            Debug.d("exec=" + cmd);
+            //输出仍然在后台读取，避免管道写满阻塞子进程
+            runner.setTimeout(0, TimeUnit.MILLISECONDS).start();
+            return true;
+        }
+        return run(runner).isSuccess();
+    }
 
-            String encoding = System.getProperty("sun.jnu.encoding");
-            BufferedReader stdInput = new BufferedReader(new
-                    InputStreamReader(proc.getInputStream(),encoding));
-            BufferedReader stdError = new BufferedReader(new
-                    InputStreamReader(proc.getErrorStream(),encoding));
+    /**
+     * 执行命令并等待结束，参数不再拆分（路径中可以有空格）
+     * @param command
+     * @param workDir 可以为null
+     * @return 失败时已输出日志
+     */
+    public static ProcessRunner.Result run(List<String> command, File workDir){
+        return run(runner(command, workDir));
+    }
 
-            // read the _out from the command
-            //Debug.d("Here is the standard _out of the command:\n");
-            String s;
-            while ((s = stdInput.readLine()) != null) {
-               Debug.d(s);
-            }
+    /**
+     * 使用单独的超时执行命令，不受{@link #TIMEOUT}限制
+     * @param timeoutMillis 超时（毫秒），0表示不限制
+     */
+    public static ProcessRunner.Result run(List<String> command, File workDir, long timeoutMillis){
+        return run(runner(command, workDir).setTimeout(timeoutMillis, TimeUnit.MILLISECONDS));
+    }
 
-            // read any errors from the attempted command
-            //Debug.e( "Here is the standard error of the command (if any):\n");
-            while ((s = stdError.readLine()) != null) {
-               Debug.e(s);
-                isSuccess = false;
-            }
-        } catch (Exception e) {
-            isSuccess = false;
-            e.printStackTrace();
+    private static ProcessRunner runner(List<String> command, File workDir){
+        return new ProcessRunner(command)
+                .setWorkDir(workDir)
+                .setTimeout(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private static ProcessRunner.Result run(ProcessRunner runner){
+        Debug.d("exec=" + runner.getCommand());
+        ProcessRunner.Result result = runner.run();
+        if (result.isSuccess()) {
+            Debug.d("exit 0 in " + result.durationMillis + "ms");
+        } else {
+            Debug.e(result.describe());
         }
-        return isSuccess;
+        return result;
     }
 
+    private static List<String> split(String cmd){
+        List<String> command = new ArrayList<>();
+        StringTokenizer tokenizer = new StringTokenizer(cmd);
+        while (tokenizer.hasMoreTokens()) {
+            command.add(tokenizer.nextToken());
+        }
+        return command;
+    }
+
+    /**
+     * 执行命令并返回标准输出
+     * @param cmd
+     * @return 失败返回null
+     */
     public static String execAndGetOutput(String cmd){
-        BufferedReader br = null;
-        try {
-            Process p = Runtime.getRuntime().exec(cmd);
-            br = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            String line = null;
-            StringBuilder sb = new StringBuilder();
-            while ((line = br.readLine()) != null) {
-                sb.append(line + "\n");
-            }
-            System.out.println(sb.toString());
-        } catch (Exception e) {
-            e.printStackTrace();
+        ProcessRunner.Result result = runner(split(cmd), null)
+                .setMaxLines(Integer.MAX_VALUE)
+                .run();
+        if (!result.isSuccess()) {
+            Debug.e(result.describe());
+            return null;
         }
-        finally
-        {
-            if (br != null)
-            {
-                try {
-                    br.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+        StringBuilder sb = new StringBuilder();
+        for (String line : result.stdout) {
+            sb.append(line).append("\n");
         }
-        return null;
+        return sb.toString();
     }
 
 }
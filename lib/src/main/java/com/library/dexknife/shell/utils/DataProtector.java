@@ -1,17 +1,49 @@
 package com.library.dexknife.shell.utils;
 
 
-import net.lingala.zip4j.core.ZipFile;
-import net.lingala.zip4j.model.ZipParameters;
-import net.lingala.zip4j.util.Zip4jConstants;
-
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 
 public class DataProtector {
 
 	private static final int BUFF_SIZE = 1024*1024*5; // 10MB
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final String PASSWORD = "libprotected";
+	private static final int LOCAL_HEADER_SIG = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+	private static final int END_HEADER_SIG = 0x06054b50;
+	// WinZip AES
+	private static final int AES_METHOD = 99;
+	private static final int AES_VERSION = 51;
+	private static final int AES_EXTRA_ID = 0x9901;
+	private static final int AES_EXTRA_LENGTH = 11;
+	private static final int AES_SALT_LENGTH = 16;
+	private static final int AES_KEY_LENGTH = 32;
+	private static final int AES_VERIFIER_LENGTH = 2;
+	private static final int AES_MAC_LENGTH = 10;
+	private static final int AES_ITERATIONS = 1000;
+	// 与zip4j的DEFLATE_LEVEL_NORMAL相同
+	private static final int DEFLATE_LEVEL = 5;
 
 	public static byte[] encryptXXTEA(byte[] data){
 		return XXTEA.encrypt(data,"lcl_apktoolplus");
@@ -45,44 +77,212 @@ public class DataProtector {
 			com.library.dexknife.shell.utils.Debug.e("file not exists!!! : " + file.getAbsolutePath());
 			return;
 		}
+		InputStream in = null;
 		try {
-
-
-//			ByteArrayOutputStream byteOutput=new ByteArrayOutputStream();
-//			FileInputStream fis = new FileInputStream(file);
-//			byte[] bytes = new byte[1024];
-//			int n;
-//			while ((n = fis.read(bytes)) != -1) {
-//				byteOutput.write(bytes, 0, n);
-//			}
-//			fis.close();
-//			byteOutput.close();
-//			FileOutputStream out=new FileOutputStream(outFile) ;
-//			byte[] encryptData = encryptXXTEA(byteOutput.toByteArray());
-//			out.write(encryptData);
-//			out.flush();
-
-
-
-			File file1=new File(file.getParent(),outFile.getName());
-			FileHelper.copy(file,file1);
-			file.delete();
-			ZipFile zipFile=new ZipFile(outFile.getAbsolutePath());
-			ZipParameters parameters = new ZipParameters();
-			parameters.setCompressionMethod(Zip4jConstants.COMP_DEFLATE);
-			parameters.setCompressionLevel(Zip4jConstants.DEFLATE_LEVEL_NORMAL);
-
-			// Set password
-			parameters.setEncryptFiles(true);
-			parameters.setEncryptionMethod(Zip4jConstants.ENC_METHOD_AES);
-			parameters.setAesKeyStrength(Zip4jConstants.AES_STRENGTH_256);
-			parameters.setPassword("libprotected");
-			zipFile.addFile(file1,parameters);
-			file1.delete();
+			in = new FileInputStream(file);
+			encrypt(in, outFile.getName(), outFile);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			IO.close(in);
+		}
+	}
+
+	/**
+	 * 流式加密：输入数据压缩后用AES-256加密，直接写成只包含一个条目的zip（WinZip AES，AE-2格式，与zip4j相同），
+	 * 运行时仍然用zip4j解压。数据只读写一次，不产生临时文件
+	 * @param in 原数据
+	 * @param entryName zip中的条目名称
+	 * @param outFile
+	 */
+	public static void encrypt(InputStream in, String entryName, File outFile) throws IOException, GeneralSecurityException {
+		byte[] salt = new byte[AES_SALT_LENGTH];
+		new SecureRandom().nextBytes(salt);
+		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+		byte[] derivedKey = factory.generateSecret(new PBEKeySpec(PASSWORD.toCharArray(), salt, AES_ITERATIONS,
+				(AES_KEY_LENGTH * 2 + AES_VERIFIER_LENGTH) * 8)).getEncoded();
+		Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(derivedKey, 0, AES_KEY_LENGTH, "AES"));
+		Mac mac = Mac.getInstance("HmacSHA1");
+		mac.init(new SecretKeySpec(derivedKey, AES_KEY_LENGTH, AES_KEY_LENGTH, "HmacSHA1"));
+
+		byte[] name = entryName.getBytes("UTF-8");
+		RandomAccessFile raf = new RandomAccessFile(outFile, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			OutputStream out = Channels.newOutputStream(channel);
+			// 本地文件头，大小写完数据后回填
+			out.write(aesHeader(LOCAL_HEADER_SIG, name, 0, 0, 0));
+			out.write(salt);
+			out.write(derivedKey, AES_KEY_LENGTH * 2, AES_VERIFIER_LENGTH);
+
+			AesCtrOutputStream aesOut = new AesCtrOutputStream(out, cipher, mac);
+			Deflater deflater = new Deflater(DEFLATE_LEVEL, true);
+			long size = 0;
+			try {
+				DeflaterOutputStream deflaterOut = new DeflaterOutputStream(aesOut, deflater, BUFFER_SIZE);
+				byte[] buff = new byte[BUFFER_SIZE];
+				int len;
+				while ((len = in.read(buff)) != -1) {
+					deflaterOut.write(buff, 0, len);
+					size += len;
+				}
+				deflaterOut.finish();
+				aesOut.finish();
+			} finally {
+				deflater.end();
+			}
+			out.write(mac.doFinal(), 0, AES_MAC_LENGTH);
+			long compressedSize = AES_SALT_LENGTH + AES_VERIFIER_LENGTH + aesOut.getCount() + AES_MAC_LENGTH;
+			if (size > 0xffffffffL || compressedSize > 0xffffffffL) {
+				throw new IOException("zip64 is not supported : " + entryName);
+			}
+
+			// 中央目录
+			long cdOffset = channel.position();
+			out.write(aesHeader(CENTRAL_HEADER_SIG, name, compressedSize, size, 0));
+			long cdSize = channel.position() - cdOffset;
+			ByteBuffer eocd = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+			eocd.putInt(END_HEADER_SIG);
+			eocd.putShort((short) 0);
+			eocd.putShort((short) 0);
+			eocd.putShort((short) 1);
+			eocd.putShort((short) 1);
+			eocd.putInt((int) cdSize);
+			eocd.putInt((int) cdOffset);
+			eocd.putShort((short) 0);
+			out.write(eocd.array());
+
+			// 回填本地文件头中的大小
+			ByteBuffer sizes = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			sizes.putInt((int) compressedSize);
+			sizes.putInt((int) size);
+			sizes.flip();
+			channel.write(sizes, 18);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * 本地文件头或中央目录文件头（包含AES扩展字段）
+	 */
+	private static byte[] aesHeader(int signature, byte[] name, long compressedSize, long size, long localHeaderOffset) {
+		boolean central = signature == CENTRAL_HEADER_SIG;
+		ByteBuffer header = ByteBuffer.allocate((central ? 46 : 30) + name.length + AES_EXTRA_LENGTH)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(signature);
+		if (central) {
+			header.putShort((short) AES_VERSION);
+		}
+		header.putShort((short) AES_VERSION);
+		// bit 0: 加密
+		header.putShort((short) 1);
+		header.putShort((short) AES_METHOD);
+		header.putShort((short) ZipWriter.DEFAULT_DOS_TIME);
+		header.putShort((short) ZipWriter.DEFAULT_DOS_DATE);
+		// AE-2不保存crc，由HMAC校验
+		header.putInt(0);
+		header.putInt((int) compressedSize);
+		header.putInt((int) size);
+		header.putShort((short) name.length);
+		header.putShort((short) AES_EXTRA_LENGTH);
+		if (central) {
+			header.putShort((short) 0);
+			header.putShort((short) 0);
+			header.putShort((short) 0);
+			header.putInt(0);
+			header.putInt((int) localHeaderOffset);
 		}
-    }
+		header.put(name);
+		header.putShort((short) AES_EXTRA_ID);
+		header.putShort((short) (AES_EXTRA_LENGTH - 4));
+		header.putShort((short) 2);
+		header.put((byte) 'A');
+		header.put((byte) 'E');
+		// 3: AES-256
+		header.put((byte) 3);
+		header.putShort((short) Deflater.DEFLATED);
+		return header.array();
+	}
+
+	/**
+	 * WinZip AES的CTR模式：计数器为小端序，从1开始；同时计算密文的HMAC-SHA1
+	 */
+	private static class AesCtrOutputStream extends OutputStream {
+
+		private final OutputStream out;
+		private final Cipher cipher;
+		private final Mac mac;
+		// 缓冲区大小是16的整数倍，除最后一次外每次都按整块加密
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private final byte[] counters = new byte[BUFFER_SIZE];
+		private final byte[] keyStream = new byte[BUFFER_SIZE];
+		private int pos;
+		private long counter = 1;
+		private long count;
+
+		AesCtrOutputStream(OutputStream out, Cipher cipher, Mac mac) {
+			this.out = out;
+			this.cipher = cipher;
+			this.mac = mac;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int n = Math.min(len, buffer.length - pos);
+				System.arraycopy(b, off, buffer, pos, n);
+				pos += n;
+				off += n;
+				len -= n;
+				if (pos == buffer.length) {
+					encryptBuffer();
+				}
+			}
+		}
+
+		void finish() throws IOException {
+			encryptBuffer();
+			out.flush();
+		}
+
+		private void encryptBuffer() throws IOException {
+			if (pos == 0) {
+				return;
+			}
+			int blocks = (pos + 15) / 16;
+			Arrays.fill(counters, 0, blocks * 16, (byte) 0);
+			for (int i = 0; i < blocks; i++) {
+				long value = counter++;
+				for (int j = 0; j < 8; j++) {
+					counters[i * 16 + j] = (byte) (value >>> (8 * j));
+				}
+			}
+			try {
+				cipher.update(counters, 0, blocks * 16, keyStream, 0);
+			} catch (GeneralSecurityException e) {
+				throw new IOException(e);
+			}
+			for (int i = 0; i < pos; i++) {
+				buffer[i] ^= keyStream[i];
+			}
+			mac.update(buffer, 0, pos);
+			out.write(buffer, 0, pos);
+			count += pos;
+			pos = 0;
+		}
+	}
 
 	/**
 	 * 写入临时文件
@@ -158,6 +158,24 @@ public class FileHelper {
         return file != null && file.exists();
     }
 
+    /**
+     * 文件或目录的总大小，遍历过程中被删除的文件忽略
+     */
+    public static long sizeOf(File file){
+        if(file.isFile()){
+            return file.length();
+        }
+        File[] files = file.listFiles();
+        if(files == null){
+            return 0;
+        }
+        long size = 0;
+        for(File f : files){
+            size += sizeOf(f);
+        }
+        return size;
+    }
+
     public static boolean move(File file, File dest){
         if(!exists(file)){
             return false;
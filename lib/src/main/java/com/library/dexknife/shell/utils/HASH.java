@@ -1,14 +1,23 @@
 package com.library.dexknife.shell.utils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * User: mcxiaoke
@@ -17,30 +26,23 @@ import java.security.NoSuchAlgorithmException;
  */
 public final class HASH {
     private static final String ENC_UTF8 = "UTF-8";
-    private static final String MD5 = "MD5";
-    private static final String SHA_1 = "SHA-1";
-    private static final String SHA_256 = "SHA-256";
+    public static final String MD5 = "MD5";
+    public static final String SHA_1 = "SHA-1";
+    public static final String SHA_256 = "SHA-256";
     private static final char[] DIGITS_LOWER = {'0', '1', '2', '3', '4',
             '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
     private static final char[] DIGITS_UPPER = {'0', '1', '2', '3', '4',
             '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
 
     private static final int IO_BUF_SIZE = 0x1000; // 4K
-
-    private static long copy(InputStream in, OutputStream out)
-            throws IOException {
-        byte[] buf = new byte[IO_BUF_SIZE];
-        long total = 0;
-        while (true) {
-            int r = in.read(buf);
-            if (r == -1) {
-                break;
-            }
-            out.write(buf, 0, r);
-            total += r;
+    //文件摘要的读取缓冲，每个线程一个，不随文件大小增长
+    private static final int FILE_BUF_SIZE = 0x40000; // 256K
+    private static final ThreadLocal<ByteBuffer> FILE_BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(FILE_BUF_SIZE);
         }
-        return total;
-    }
+    };
 
     private static byte[] getRawBytes(String text) {
         try {
@@ -50,22 +52,6 @@ public final class HASH {
         }
     }
 
-    private static byte[] getRawBytes(File file) throws IOException {
-        FileInputStream fis = null;
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ;
-        try {
-            fis = new FileInputStream(file);
-            copy(fis, bos);
-        } finally {
-            bos.close();
-            if (fis != null) {
-                fis.close();
-            }
-        }
-        return bos.toByteArray();
-    }
-
     private static String getString(byte[] data) {
         try {
             return new String(data, ENC_UTF8);
@@ -75,7 +61,7 @@ public final class HASH {
     }
 
     public static String md5(File file) throws IOException {
-        return md5(getRawBytes(file));
+        return digest(file, MD5)[0];
     }
 
     public static String md5(byte[] data) {
@@ -91,7 +77,7 @@ public final class HASH {
     }
 
     public static String sha1(File file) throws IOException {
-        return sha1(getRawBytes(file));
+        return digest(file, SHA_1)[0];
     }
 
     public static String sha1(byte[] data) {
@@ -107,7 +93,20 @@ public final class HASH {
     }
 
     public static String sha256(File file) throws IOException {
-        return sha256(getRawBytes(file));
+        return digest(file, SHA_256)[0];
+    }
+
+    /**
+     * 流式计算，不需要把数据全部读入内存
+     */
+    public static String sha256(InputStream in) throws IOException {
+        MessageDigest digest = getDigest(SHA_256);
+        byte[] buf = new byte[IO_BUF_SIZE * 16];
+        int r;
+        while ((r = in.read(buf)) != -1) {
+            digest.update(buf, 0, r);
+        }
+        return new String(encodeHex(digest.digest()));
     }
 
     public static String sha256(byte[] data) {
@@ -122,6 +121,112 @@ public final class HASH {
         return getDigest(SHA_256).digest(data);
     }
 
+    /**
+     * 读取一次文件同时计算多个摘要，使用固定大小的直接缓冲区（不使用mmap，Windows上映射的文件在GC前无法重命名/删除）
+     * <pre>
+     * String[] hash = HASH.digest(apk, HASH.MD5, HASH.SHA_1);
+     * </pre>
+     * @return 小写十六进制，与algorithms顺序相同
+     */
+    public static String[] digest(File file, String... algorithms) throws IOException {
+        MessageDigest[] digests = digests(file, file.length(), algorithms);
+        String[] result = new String[digests.length];
+        for (int i = 0; i < digests.length; i++) {
+            result[i] = toHex(digests[i].digest());
+        }
+        return result;
+    }
+
+    /**
+     * 用文件的前length字节更新摘要
+     * @return 未结束的摘要，可以继续update或clone
+     */
+    public static MessageDigest[] digests(File file, long length, String... algorithms) throws IOException {
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            digests[i] = getDigest(algorithms[i]);
+        }
+        ByteBuffer buffer = FILE_BUFFER.get();
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    throw new IOException("unexpected end of file : " + file.getAbsolutePath());
+                }
+                buffer.flip();
+                for (MessageDigest digest : digests) {
+                    buffer.position(0);
+                    digest.update(buffer);
+                }
+                remaining -= read;
+            }
+        } finally {
+            channel.close();
+        }
+        return digests;
+    }
+
+    /**
+     * 并行计算多个文件的摘要
+     * @param threads 线程数，0表示CPU核数
+     * @return 与files顺序相同，每项与algorithms顺序相同
+     */
+    public static List<String[]> digest(List<File> files, int threads, final String... algorithms) throws IOException {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "hash-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<String[]>> futures = new ArrayList<>(files.size());
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<String[]>() {
+                    @Override
+                    public String[] call() throws Exception {
+                        return digest(file, algorithms);
+                    }
+                }));
+            }
+            List<String[]> result = new ArrayList<>(files.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    result.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause
+                            : new IOException("hash failed : " + files.get(i).getAbsolutePath(), cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 摘要转换为小写十六进制字符串，与md5(File)等的结果格式相同
+     */
+    public static String toHex(byte[] digest) {
+        return new String(encodeHex(digest));
+    }
+
     private static MessageDigest getDigest(String algorithm) {
         try {
             return MessageDigest.getInstance(algorithm);
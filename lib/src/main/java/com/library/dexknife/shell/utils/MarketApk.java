@@ -0,0 +1,195 @@
+package com.library.dexknife.shell.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 不落地的渠道包
+ * <p>
+ * 渠道包 = 原apk的公共部分 + 渠道相关的末尾部分（与{@link PackerNg.Helper#writeMarket}的结果相同）：
+ * <ul>
+ * <li>v1签名：原apk去掉最后2字节（注释长度）+ 渠道注释</li>
+ * <li>v2/v3签名：原apk签名块之前的内容 + 写入了渠道的签名块、中央目录和结束记录（见{@link ApkSigningBlock}）</li>
+ * </ul>
+ * 公共部分用FileChannel.transferTo直接从原apk输出，末尾部分在内存中生成，不需要为每个渠道保存一个文件。
+ * <pre>
+ * MarketApk apk = MarketApk.open(new File("app-release.apk"));
+ * apk.writeTo("huawei", outputStream);
+ * </pre>
+ * 打开后原apk不能再修改，修改后用{@link #isModified()}检查并重新打开。可以在多个线程中同时使用。
+ */
+public class MarketApk {
+
+    public static final String TAG = MarketApk.class.getSimpleName();
+
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int EOCD_LENGTH = 22;
+    private static final int SHORT_LENGTH = 2;
+
+    private final File baseApk;
+    private final long baseLength;
+    private final long baseLastModified;
+    private final long prefixLength;
+    private final ApkSigningBlock.Layout layout;
+    /**
+     * v2/v3签名时的中央目录和结束记录，v1签名时为null
+     */
+    private final byte[] cdAndEocd;
+
+    private MarketApk(File baseApk, long baseLength, long baseLastModified, long prefixLength,
+                      ApkSigningBlock.Layout layout, byte[] cdAndEocd) {
+        this.baseApk = baseApk;
+        this.baseLength = baseLength;
+        this.baseLastModified = baseLastModified;
+        this.prefixLength = prefixLength;
+        this.layout = layout;
+        this.cdAndEocd = cdAndEocd;
+    }
+
+    /**
+     * @param baseApk 已签名的apk，v1签名时不能有zip注释
+     * @throws PackerNg.MarketExistsException 原apk已有渠道
+     */
+    public static MarketApk open(File baseApk) throws IOException {
+        long lastModified = baseApk.lastModified();
+        RandomAccessFile raf = new RandomAccessFile(baseApk, "r");
+        try {
+            long length = raf.length();
+            ApkSigningBlock.Layout layout = ApkSigningBlock.parse(raf);
+            if (layout.isSchemeV2Signed()) {
+                if (layout.getMarket() != null) {
+                    throw new PackerNg.MarketExistsException("Market already exists in APK Signing Block : " + baseApk.getAbsolutePath());
+                }
+                return new MarketApk(baseApk, length, lastModified, layout.blockOffset, layout,
+                        ApkSigningBlock.readCentralDirectory(raf, layout));
+            }
+            if (PackerNg.Helper.hasZipCommentMagic(baseApk)) {
+                throw new PackerNg.MarketExistsException("Zip comment already exists : " + baseApk.getAbsolutePath());
+            }
+            return new MarketApk(baseApk, length, lastModified, checkNoComment(raf, baseApk), layout, null);
+        } finally {
+            IO.close(raf);
+        }
+    }
+
+    public File getBaseApk() {
+        return baseApk;
+    }
+
+    /**
+     * 所有渠道相同的部分的长度
+     */
+    public long getPrefixLength() {
+        return prefixLength;
+    }
+
+    /**
+     * 原apk在打开后被修改（重新打包）
+     */
+    public boolean isModified() {
+        return baseApk.length() != baseLength || baseApk.lastModified() != baseLastModified;
+    }
+
+    /**
+     * 渠道相关的末尾部分，接在公共部分之后
+     */
+    public byte[] tail(String market) throws IOException {
+        return cdAndEocd != null ? ApkSigningBlock.buildTail(layout, cdAndEocd, market) : commentTail(market);
+    }
+
+    /**
+     * 渠道包的大小，可用于Content-Length
+     */
+    public long length(String market) throws IOException {
+        return prefixLength + tail(market).length;
+    }
+
+    /**
+     * 输出渠道包，目标为FileChannel或socket时公共部分由内核复制
+     * @return 输出的字节数
+     */
+    public long writeTo(String market, WritableByteChannel out) throws IOException {
+        return write(tail(market), out);
+    }
+
+    /**
+     * @param tail {@link #tail}的结果
+     */
+    long write(byte[] tail, WritableByteChannel out) throws IOException {
+        FileChannel in = new FileInputStream(baseApk).getChannel();
+        try {
+            if (in.size() != baseLength) {
+                throw new IOException("apk modified : " + baseApk.getAbsolutePath());
+            }
+            long position = 0;
+            while (position < prefixLength) {
+                long count = in.transferTo(position, prefixLength - position, out);
+                if (count <= 0) {
+                    throw new IOException("write failed : " + baseApk.getAbsolutePath());
+                }
+                position += count;
+            }
+        } finally {
+            IO.close(in);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(tail);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        return prefixLength + tail.length;
+    }
+
+    /**
+     * 输出渠道包，不关闭out
+     */
+    public long writeTo(String market, OutputStream out) throws IOException {
+        long count = writeTo(market, Channels.newChannel(out));
+        out.flush();
+        return count;
+    }
+
+    /**
+     * 与PackerNg.Helper.writeZipComment写入的内容相同：注释长度 + 渠道 + 渠道长度 + MAGIC
+     */
+    static byte[] commentTail(String market) throws IOException {
+        byte[] data = market.getBytes(PackerNg.Helper.UTF_8);
+        byte[] magic = PackerNg.Helper.MAGIC;
+        int commentLength = data.length + SHORT_LENGTH + magic.length;
+        if (commentLength > PackerNg.Helper.ZIP_COMMENT_MAX_LENGTH) {
+            throw new IOException("market too long : " + market);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(SHORT_LENGTH + commentLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) commentLength);
+        buffer.put(data);
+        buffer.putShort((short) data.length);
+        buffer.put(magic);
+        return buffer.array();
+    }
+
+    /**
+     * 原apk必须以没有注释的中央目录结束记录结尾
+     * @return 公共部分的长度（去掉注释长度字段）
+     */
+    private static long checkNoComment(RandomAccessFile raf, File apk) throws IOException {
+        long length = raf.length();
+        if (length < EOCD_LENGTH) {
+            throw new IOException("not a zip file : " + apk.getAbsolutePath());
+        }
+        byte[] eocd = new byte[EOCD_LENGTH];
+        raf.seek(length - EOCD_LENGTH);
+        raf.readFully(eocd);
+        ByteBuffer buffer = ByteBuffer.wrap(eocd).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != EOCD_SIG || buffer.getShort(EOCD_LENGTH - SHORT_LENGTH) != 0) {
+            throw new IOException("apk already has a zip comment : " + apk.getAbsolutePath());
+        }
+        return length - SHORT_LENGTH;
+    }
+}
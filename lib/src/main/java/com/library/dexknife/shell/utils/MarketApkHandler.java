@@ -0,0 +1,108 @@
+package com.library.dexknife.shell.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+/**
+ * 按渠道下载apk的HTTP处理器，渠道包由{@link MarketApk}实时生成，不占用磁盘
+ * <pre>
+ * GET  /apk/渠道名   返回该渠道的apk
+ * HEAD /apk/渠道名   只返回Content-Length等头
+ * </pre>
+ * 原apk重新打包后自动重新打开。
+ */
+public class MarketApkHandler implements HttpHandler {
+
+    public static final String TAG = MarketApkHandler.class.getSimpleName();
+
+    public static final String CONTEXT_PATH = "/apk/";
+    private static final String CONTENT_TYPE = "application/vnd.android.package-archive";
+
+    private final File baseApk;
+    private final Set<String> markets;
+    private MarketApk apk;
+
+    /**
+     * @param baseApk 已签名的apk
+     * @param markets 允许的渠道，null表示不限制
+     */
+    public MarketApkHandler(File baseApk, List<String> markets) {
+        this.baseApk = baseApk;
+        this.markets = markets == null ? null : new HashSet<>(markets);
+    }
+
+    /**
+     * 只监听127.0.0.1，由分发服务器转发
+     */
+    public static HttpServer serve(File baseApk, int port, List<String> markets) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext(CONTEXT_PATH, new MarketApkHandler(baseApk, markets));
+        server.start();
+        return server;
+    }
+
+    private synchronized MarketApk getApk() throws IOException {
+        if (apk == null || apk.isModified()) {
+            apk = MarketApk.open(baseApk);
+        }
+        return apk;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String market = path.startsWith(CONTEXT_PATH) ? path.substring(CONTEXT_PATH.length()) : "";
+            if (market.isEmpty() || market.indexOf('/') >= 0 || (markets != null && !markets.contains(market))) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            MarketApk apk;
+            long length;
+            try {
+                apk = getApk();
+                length = apk.length(market);
+            } catch (IOException e) {
+                e.printStackTrace();
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            String fileName = PackerNg.Helper.getBaseName(baseApk.getName()) + "-" + market + ".apk";
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename*=UTF-8''"
+                    + URLEncoder.encode(fileName, PackerNg.Helper.UTF_8).replace("+", "%20"));
+            if ("HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, length);
+            OutputStream out = exchange.getResponseBody();
+            try {
+                apk.writeTo(market, out);
+            } finally {
+                IO.close(out);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.library.dexknife.shell.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多渠道包并行生成
+ * <p>
+ * 每个渠道包由{@link MarketApk}写入输出目录（公共部分用FileChannel.transferTo复制，Linux上由内核完成，
+ * 支持的文件系统上不实际复制数据）。md5和sha1对公共部分只计算一次，每个渠道复制摘要状态后再计算末尾部分，
+ * 不需要再读取输出文件。
+ */
+public class MarketPacker {
+
+    public static final String TAG = MarketPacker.class.getSimpleName();
+
+    //并发复制时主要受磁盘带宽限制
+    private static final int MAX_DEFAULT_THREADS = 4;
+
+    private final File baseApk;
+    private final File outputDir;
+    private final int threads;
+
+    /**
+     * @param baseApk   已签名的apk，v1签名时不能有zip注释
+     * @param outputDir 输出目录
+     * @param threads   线程数，0表示CPU核数，最多4个
+     */
+    public MarketPacker(File baseApk, File outputDir, int threads) {
+        this.baseApk = baseApk;
+        this.outputDir = outputDir;
+        if (threads <= 0) {
+            threads = Math.min(MAX_DEFAULT_THREADS, Runtime.getRuntime().availableProcessors());
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * 一个渠道包
+     */
+    public static class Result {
+        public final String market;
+        /**
+         * 输出目录中的[渠道].tmp，由调用者重命名
+         */
+        public final File file;
+        public final String md5;
+        public final String sha1;
+
+        Result(String market, File file, String md5, String sha1) {
+            this.market = market;
+            this.file = file;
+            this.md5 = md5;
+            this.sha1 = sha1;
+        }
+    }
+
+    /**
+     * 生成所有渠道包，任何一个失败时删除已生成的文件
+     * @param markets
+     * @return 与markets顺序相同
+     * @throws IOException 原apk已有渠道、有zip注释，或某个渠道生成/校验失败
+     */
+    public List<Result> pack(List<String> markets) throws IOException {
+        final MarketApk apk = MarketApk.open(baseApk);
+        final MessageDigest[] prefixDigests = HASH.digests(baseApk, apk.getPrefixLength(), HASH.MD5, HASH.SHA_1);
+        outputDir.mkdirs();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, markets.size())), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "packer-ng-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        List<Future<Result>> futures = new ArrayList<>(markets.size());
+        List<Result> results = new ArrayList<>(markets.size());
+        try {
+            for (final String market : markets) {
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws Exception {
+                        return packMarket(apk, market, prefixDigests);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause
+                            : new IOException(markets.get(i) + " apk generate failed", cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+            }
+            return results;
+        } catch (IOException e) {
+            for (Future<Result> future : futures) {
+                future.cancel(true);
+            }
+            for (String market : markets) {
+                tempFile(market).delete();
+            }
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private File tempFile(String market) {
+        return new File(outputDir, market + ".tmp");
+    }
+
+    private Result packMarket(MarketApk apk, String market, MessageDigest[] prefixDigests) throws IOException {
+        File tempFile = tempFile(market);
+        byte[] tail = apk.tail(market);
+        long length;
+        FileChannel out = new FileOutputStream(tempFile).getChannel();
+        try {
+            length = apk.write(tail, out);
+        } finally {
+            IO.close(out);
+        }
+        if (tempFile.length() != length || !PackerNg.Helper.verifyMarket(tempFile, market)) {
+            throw new IOException(market + " apk verify failed.");
+        }
+        MessageDigest md5 = cloneDigest(prefixDigests[0]);
+        MessageDigest sha1 = cloneDigest(prefixDigests[1]);
+        md5.update(tail);
+        sha1.update(tail);
+        return new Result(market, tempFile, HASH.toHex(md5.digest()), HASH.toHex(sha1.digest()));
+    }
+
+    private static MessageDigest cloneDigest(MessageDigest digest) throws IOException {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -282,12 +283,36 @@ public final class PackerNg {
         }
 
 
+        /**
+         * v2/v3签名的apk写入APK Signing Block（修改zip注释会使签名失效），否则写入zip注释
+         */
         public static void writeMarket(final File file, final String market) throws IOException {
-            writeZipComment(file, market);
+            ApkSigningBlock.Layout layout = ApkSigningBlock.parse(file);
+            if (layout.isSchemeV2Signed()) {
+                if (layout.getMarket() != null) {
+                    throw new MarketExistsException("Market already exists in APK Signing Block, ignore.");
+                }
+                ApkSigningBlock.writeMarket(file, market);
+            } else {
+                writeZipComment(file, market);
+            }
         }
 
         public static String readMarket(final File file) throws IOException {
-            return readZipComment(file);
+            String market = null;
+            try {
+                market = ApkSigningBlock.readMarket(file);
+            } catch (IOException e) {
+                // not a valid signing block, fall back to zip comment
+            }
+            return market != null ? market : readZipComment(file);
+        }
+
+        /**
+         * 输出渠道包而不生成文件，多个渠道时直接使用{@link MarketApk}，原apk只解析一次
+         */
+        public static long writeMarketApk(final File apk, final String market, final OutputStream out) throws IOException {
+            return MarketApk.open(apk).writeTo(market, out);
         }
 
         public static boolean verifyMarket(final File file, final String market) throws IOException {
@@ -378,7 +403,68 @@ public final class PackerNg {
     }
 
     private static final String USAGE_TEXT =
-            "Usage: java -jar PackerNg-x.x.x.jar apkFile marketFile [outputDir] ";
+            "Usage: java -jar PackerNg-x.x.x.jar apkFile marketFile [outputDir] \n" +
+                    "       java -jar PackerNg-x.x.x.jar --write apkFile market [outputFile|-] \n" +
+                    "       java -jar PackerNg-x.x.x.jar --serve apkFile [port] [marketFile] ";
+    private static final int DEFAULT_SERVE_PORT = 17071;
+
+    /**
+     * 输出一个渠道包到文件或标准输出（-），不生成中间文件
+     */
+    private static void writeOne(String[] args) {
+        if (args.length < 3) {
+            Helper.println(USAGE_TEXT);
+            System.exit(1);
+            return;
+        }
+        File apkFile = new File(args[1]);
+        String market = args[2];
+        String output = args.length >= 4 ? args[3] : "-";
+        try {
+            MarketApk apk = MarketApk.open(apkFile);
+            if ("-".equals(output)) {
+                apk.writeTo(market, System.out);
+            } else {
+                File destFile = new File(output);
+                FileChannel out = new FileOutputStream(destFile).getChannel();
+                try {
+                    apk.writeTo(market, out);
+                } finally {
+                    out.close();
+                }
+                Helper.printErr("Generating apk " + destFile.getAbsolutePath());
+            }
+        } catch (IOException ex) {
+            Helper.printErr("" + ex);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 在127.0.0.1上按渠道提供下载，见{@link MarketApkHandler}
+     */
+    private static void serve(String[] args) {
+        if (args.length < 2) {
+            Helper.println(USAGE_TEXT);
+            System.exit(1);
+            return;
+        }
+        File apkFile = new File(args[1]);
+        try {
+            int port = args.length >= 3 ? Integer.parseInt(args[2]) : DEFAULT_SERVE_PORT;
+            List<String> markets = args.length >= 4 ? Helper.parseMarkets(new File(args[3])) : null;
+            MarketApk.open(apkFile);
+            MarketApkHandler.serve(apkFile, port, markets);
+            Helper.println("Serving " + apkFile.getAbsolutePath()
+                    + " at http://127.0.0.1:" + port + MarketApkHandler.CONTEXT_PATH + "<market>");
+        } catch (NumberFormatException ex) {
+            Helper.printErr("Invalid port " + args[2]);
+            System.exit(1);
+        } catch (IOException ex) {
+            Helper.printErr("" + ex);
+            System.exit(1);
+        }
+    }
     private static final String INTRO_TEXT =
             "\nAttention: if your app using Android gradle plugin 2.2.0 or later, " +
                     "be sure to install one of the generated Apks to device or emulator, " +
@@ -387,6 +473,14 @@ public final class PackerNg {
                     "https://github.com/mcxiaoke/packer-ng-plugin .\n";
 
     public static void main(String[] args) {
+        if (args.length > 0 && "--write".equals(args[0])) {
+            writeOne(args);
+            return;
+        }
+        if (args.length > 0 && "--serve".equals(args[0])) {
+            serve(args);
+            return;
+        }
         if (args.length < 2) {
             Helper.println(USAGE_TEXT);
             Helper.println(INTRO_TEXT);
@@ -431,11 +525,16 @@ public final class PackerNg {
         final String extName = Helper.getExtension(apkFile.getName());
         int processed = 0;
         try {
+            MarketApk apk = MarketApk.open(apkFile);
             for (final String market : markets) {
                 final String apkName = baseName + "-" + market + "." + extName;
                 File destFile = new File(outputDir, apkName);
-                Helper.copyFile(apkFile, destFile);
-                Helper.writeMarket(destFile, market);
+                FileChannel out = new FileOutputStream(destFile).getChannel();
+                try {
+                    apk.writeTo(market, out);
+                } finally {
+                    out.close();
+                }
                 if (Helper.verifyMarket(destFile, market)) {
                     ++processed;
                     Helper.println("Generating apk " + apkName);
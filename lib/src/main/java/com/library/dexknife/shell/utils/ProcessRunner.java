@@ -0,0 +1,329 @@
+package com.library.dexknife.shell.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 外部进程
+ * <p>
+ * stdout和stderr由两个线程同时读取，输出多的进程不会因为管道写满而卡住；
+ * 每个流只保留最后{@link #setMaxLines(int)}行。支持超时，超时或取消（Future.cancel(true)）时结束进程。
+ * 是否成功只看退出码，不再把stderr有输出当作失败。
+ * <pre>
+ * ProcessRunner.Result result = new ProcessRunner("java", "-jar", "apktool.jar", "if", "framework-res.apk")
+ *         .setTimeout(10, TimeUnit.MINUTES)
+ *         .run();
+ * </pre>
+ */
+public class ProcessRunner {
+
+    public static final String TAG = ProcessRunner.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_LINES = 200;
+    private static final long DRAIN_TIMEOUT = 5000;
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "process-runner-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final List<String> command;
+    private File workDir;
+    private Map<String, String> env;
+    private boolean inheritEnv = true;
+    private long timeoutMillis;
+    private int maxLines = DEFAULT_MAX_LINES;
+    private boolean echo;
+
+    public ProcessRunner(String... command) {
+        this(Arrays.asList(command));
+    }
+
+    public ProcessRunner(List<String> command) {
+        this.command = new ArrayList<>(command);
+    }
+
+    public List<String> getCommand() {
+        return Collections.unmodifiableList(command);
+    }
+
+    public ProcessRunner setWorkDir(File workDir) {
+        this.workDir = workDir;
+        return this;
+    }
+
+    /**
+     * 追加的环境变量
+     */
+    public ProcessRunner setEnv(Map<String, String> env) {
+        return setEnv(env, true);
+    }
+
+    /**
+     * @param env     环境变量
+     * @param inherit false时子进程只有env中的环境变量（同Runtime.exec）
+     */
+    public ProcessRunner setEnv(Map<String, String> env, boolean inherit) {
+        this.env = env;
+        this.inheritEnv = inherit;
+        return this;
+    }
+
+    /**
+     * 超时，0表示不限制
+     */
+    public ProcessRunner setTimeout(long timeout, TimeUnit unit) {
+        this.timeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * 每个流保留的行数
+     */
+    public ProcessRunner setMaxLines(int maxLines) {
+        this.maxLines = Math.max(1, maxLines);
+        return this;
+    }
+
+    /**
+     * 是否把每一行输出到日志（Debug.d/Debug.e）
+     */
+    public ProcessRunner setEcho(boolean echo) {
+        this.echo = echo;
+        return this;
+    }
+
+    /**
+     * 启动并等待进程结束
+     * @return 被中断时cancelled为true
+     */
+    public Result run() {
+        try {
+            return execute();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(command, -1, false, true, Collections.<String>emptyList(), 0,
+                    Collections.<String>emptyList(), 0, 0, null);
+        }
+    }
+
+    /**
+     * 异步启动，多个进程可以同时运行
+     * @return cancel(true)会结束进程
+     */
+    public Future<Result> start() {
+        return EXECUTOR.submit(new Callable<Result>() {
+            @Override
+            public Result call() throws Exception {
+                return execute();
+            }
+        });
+    }
+
+    private Result execute() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        ProcessBuilder builder = new ProcessBuilder(command);
+        if (workDir != null) {
+            builder.directory(workDir);
+        }
+        if (env != null) {
+            if (!inheritEnv) {
+                builder.environment().clear();
+            }
+            builder.environment().putAll(env);
+        }
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            return new Result(command, -1, false, false, Collections.<String>emptyList(), 0,
+                    Collections.<String>emptyList(), 0, System.currentTimeMillis() - start, e);
+        }
+        //不需要输入
+        IO.close(process.getOutputStream());
+        Drain stdout = new Drain(process.getInputStream(), maxLines, echo, false);
+        Drain stderr = new Drain(process.getErrorStream(), maxLines, echo, true);
+        Future<?> stdoutFuture = EXECUTOR.submit(stdout);
+        Future<?> stderrFuture = EXECUTOR.submit(stderr);
+        boolean timedOut = false;
+        try {
+            if (timeoutMillis > 0) {
+                timedOut = !process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+                if (timedOut) {
+                    Debug.e("process timeout (" + timeoutMillis + "ms) : " + command);
+                    process.destroyForcibly();
+                    process.waitFor();
+                }
+            } else {
+                process.waitFor();
+            }
+            await(stdoutFuture, stdout);
+            await(stderrFuture, stderr);
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+        return new Result(command, process.exitValue(), timedOut, false, stdout.lines(), stdout.count,
+                stderr.lines(), stderr.count, System.currentTimeMillis() - start, null);
+    }
+
+    /**
+     * 进程结束后等待输出读完；子进程继承了管道时流不会结束，等待一段时间后直接关闭
+     */
+    private static void await(Future<?> future, Drain drain) throws InterruptedException {
+        try {
+            future.get(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } catch (TimeoutException e) {
+            IO.close(drain.in);
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * 读取一个输出流，只保留最后maxLines行
+     */
+    private static class Drain implements Runnable {
+
+        private final InputStream in;
+        private final int maxLines;
+        private final boolean echo;
+        private final boolean isError;
+        private final ArrayDeque<String> lines = new ArrayDeque<>();
+        private volatile int count;
+
+        Drain(InputStream in, int maxLines, boolean echo, boolean isError) {
+            this.in = in;
+            this.maxLines = maxLines;
+            this.echo = echo;
+            this.isError = isError;
+        }
+
+        @Override
+        public void run() {
+            String encoding = System.getProperty("sun.jnu.encoding", "UTF-8");
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(in, encoding));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (echo) {
+                        if (isError) {
+                            Debug.e(line);
+                        } else {
+                            Debug.d(line);
+                        }
+                    }
+                    synchronized (lines) {
+                        if (lines.size() == maxLines) {
+                            lines.removeFirst();
+                        }
+                        lines.addLast(line);
+                    }
+                    count++;
+                }
+            } catch (IOException e) {
+                //进程被结束时流会关闭
+            } finally {
+                IO.close(reader);
+            }
+        }
+
+        List<String> lines() {
+            synchronized (lines) {
+                return Collections.unmodifiableList(new ArrayList<>(lines));
+            }
+        }
+    }
+
+    /**
+     * 运行结果
+     */
+    public static class Result {
+
+        public final List<String> command;
+        /**
+         * 退出码，未能启动或被取消时为-1
+         */
+        public final int exitCode;
+        public final boolean timedOut;
+        public final boolean cancelled;
+        /**
+         * 最后的若干行
+         */
+        public final List<String> stdout;
+        public final int stdoutLines;
+        public final List<String> stderr;
+        public final int stderrLines;
+        public final long durationMillis;
+        /**
+         * 启动失败的原因
+         */
+        public final IOException error;
+
+        Result(List<String> command, int exitCode, boolean timedOut, boolean cancelled,
+               List<String> stdout, int stdoutLines, List<String> stderr, int stderrLines,
+               long durationMillis, IOException error) {
+            this.command = command;
+            this.exitCode = exitCode;
+            this.timedOut = timedOut;
+            this.cancelled = cancelled;
+            this.stdout = stdout;
+            this.stdoutLines = stdoutLines;
+            this.stderr = stderr;
+            this.stderrLines = stderrLines;
+            this.durationMillis = durationMillis;
+            this.error = error;
+        }
+
+        public boolean isSuccess() {
+            return error == null && !timedOut && !cancelled && exitCode == 0;
+        }
+
+        /**
+         * 失败原因和最后的输出，用于日志和异常信息
+         */
+        public String describe() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(command);
+            if (error != null) {
+                builder.append(" failed to start : ").append(error.getMessage());
+            } else if (timedOut) {
+                builder.append(" timeout after ").append(durationMillis).append("ms");
+            } else if (cancelled) {
+                builder.append(" cancelled");
+            } else {
+                builder.append(" exit ").append(exitCode).append(" in ").append(durationMillis).append("ms");
+            }
+            for (String line : stderr.isEmpty() ? stdout : stderr) {
+                builder.append('\n').append(line);
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package com.library.dexknife.shell.utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * zip中央目录索引
+ * <p>
+ * 只解析一次中央目录，之后按偏移直接读取条目的原始（压缩后）数据，
+ * 可以把条目原样拷贝到另一个zip中而不需要解压再压缩。
+ * 所有读取都是基于位置的，多个线程可以共享同一个索引。
+ */
+public class ZipIndex implements Closeable {
+
+    public static final String TAG = ZipIndex.class.getSimpleName();
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    static final int LOC_SIG = 0x04034b50;
+    static final int CEN_SIG = 0x02014b50;
+    static final int EOCD_SIG = 0x06054b50;
+    static final int LOC_HEADER_SIZE = 30;
+    static final int CEN_HEADER_SIZE = 46;
+    static final int EOCD_SIZE = 22;
+    static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    static final int FLAG_UTF8 = 1 << 11;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final List<Entry> entries;
+    private final Map<String, Entry> entryMap;
+    private long centralDirOffset;
+    private long centralDirSize;
+    private long eocdOffset;
+
+    public ZipIndex(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        try {
+            this.entries = readCentralDirectory();
+        } catch (IOException e) {
+            IO.close(raf);
+            throw e;
+        }
+        Map<String, Entry> map = new LinkedHashMap<>(entries.size() * 2);
+        for (Entry entry : entries) {
+            map.put(entry.name, entry);
+        }
+        this.entryMap = map;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public Entry getEntry(String name) {
+        return entryMap.get(name);
+    }
+
+    public boolean hasEntry(String name) {
+        return entryMap.containsKey(name);
+    }
+
+    public List<Entry> list(String regex) {
+        Pattern p = Pattern.compile(regex);
+        List<Entry> list = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (p.matcher(entry.name).matches()) {
+                list.add(entry);
+            }
+        }
+        return list;
+    }
+
+    public long getCentralDirOffset() {
+        return centralDirOffset;
+    }
+
+    public long getCentralDirSize() {
+        return centralDirSize;
+    }
+
+    public long getEocdOffset() {
+        return eocdOffset;
+    }
+
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * 条目原始数据（未解压）的输入流
+     */
+    public InputStream openRawStream(Entry entry) throws IOException {
+        return new RegionInputStream(channel, getDataOffset(entry), entry.compressedSize);
+    }
+
+    /**
+     * 条目解压后的输入流
+     */
+    public InputStream openStream(Entry entry) throws IOException {
+        InputStream raw = openRawStream(entry);
+        if (entry.method == METHOD_STORED) {
+            return raw;
+        }
+        if (entry.method != METHOD_DEFLATED) {
+            raw.close();
+            throw new IOException("unsupported compression method " + entry.method + " : " + entry.name);
+        }
+        return new EntryInflaterInputStream(raw, entry.size);
+    }
+
+    public byte[] readBytes(Entry entry) throws IOException {
+        if (entry.size > Integer.MAX_VALUE) {
+            throw new IOException("entry too large : " + entry.name);
+        }
+        byte[] data = new byte[(int) entry.size];
+        InputStream in = openStream(entry);
+        try {
+            int off = 0;
+            while (off < data.length) {
+                int len = in.read(data, off, data.length - off);
+                if (len == -1) {
+                    throw new EOFException("unexpected end of entry : " + entry.name);
+                }
+                off += len;
+            }
+        } finally {
+            IO.close(in);
+        }
+        return data;
+    }
+
+    /**
+     * 解压条目到文件
+     */
+    public void extract(Entry entry, File outFile) throws IOException {
+        File parent = outFile.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        InputStream in = openStream(entry);
+        OutputStream out = new FileOutputStream(outFile);
+        try {
+            byte[] buff = new byte[64 * 1024];
+            int len;
+            while ((len = in.read(buff)) != -1) {
+                out.write(buff, 0, len);
+            }
+        } finally {
+            IO.close(in);
+            IO.close(out);
+        }
+    }
+
+    /**
+     * 把条目原始数据直接传输到目标通道
+     */
+    public long transferRaw(Entry entry, WritableByteChannel target) throws IOException {
+        return transfer(getDataOffset(entry), entry.compressedSize, target);
+    }
+
+    /**
+     * 把文件的一段区域直接传输到目标通道
+     */
+    public long transfer(long position, long count, WritableByteChannel target) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long n = channel.transferTo(position + done, count - done, target);
+            if (n <= 0) {
+                throw new EOFException("unexpected end of zip : " + file.getPath());
+            }
+            done += n;
+        }
+        return done;
+    }
+
+    public void read(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n == -1) {
+                throw new EOFException("unexpected end of zip : " + file.getPath());
+            }
+            position += n;
+        }
+    }
+
+    long getDataOffset(Entry entry) throws IOException {
+        long dataOffset = entry.dataOffset;
+        if (dataOffset < 0) {
+            ByteBuffer header = ByteBuffer.allocate(LOC_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            read(header, entry.localHeaderOffset);
+            if (header.getInt(0) != LOC_SIG) {
+                throw new IOException("bad local file header : " + entry.name);
+            }
+            int nameLen = header.getShort(26) & 0xffff;
+            int extraLen = header.getShort(28) & 0xffff;
+            dataOffset = entry.localHeaderOffset + LOC_HEADER_SIZE + nameLen + extraLen;
+            entry.dataOffset = dataOffset;
+        }
+        return dataOffset;
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < EOCD_SIZE) {
+            throw new IOException("not a zip file : " + file.getPath());
+        }
+        int tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        read(tail, fileSize - tailSize);
+        int eocdPos = -1;
+        for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIG
+                    && i + EOCD_SIZE + (tail.getShort(i + 20) & 0xffff) == tailSize) {
+                eocdPos = i;
+                break;
+            }
+        }
+        if (eocdPos == -1) {
+            throw new IOException("zip end of central directory not found : " + file.getPath());
+        }
+        eocdOffset = fileSize - tailSize + eocdPos;
+        int count = tail.getShort(eocdPos + 10) & 0xffff;
+        centralDirSize = tail.getInt(eocdPos + 12) & 0xffffffffL;
+        centralDirOffset = tail.getInt(eocdPos + 16) & 0xffffffffL;
+        if (count == 0xffff || centralDirOffset == 0xffffffffL) {
+            throw new IOException("zip64 is not supported : " + file.getPath());
+        }
+        if (centralDirOffset + centralDirSize > eocdOffset) {
+            throw new IOException("bad central directory offset : " + file.getPath());
+        }
+
+        ByteBuffer cd = ByteBuffer.allocate((int) centralDirSize).order(ByteOrder.LITTLE_ENDIAN);
+        read(cd, centralDirOffset);
+        cd.flip();
+        List<Entry> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (cd.remaining() < CEN_HEADER_SIZE || cd.getInt(cd.position()) != CEN_SIG) {
+                throw new IOException("bad central directory entry " + i + " : " + file.getPath());
+            }
+            int pos = cd.position();
+            Entry entry = new Entry();
+            entry.flags = cd.getShort(pos + 8) & 0xffff;
+            entry.method = cd.getShort(pos + 10) & 0xffff;
+            entry.time = cd.getShort(pos + 12) & 0xffff;
+            entry.date = cd.getShort(pos + 14) & 0xffff;
+            entry.crc = cd.getInt(pos + 16) & 0xffffffffL;
+            entry.compressedSize = cd.getInt(pos + 20) & 0xffffffffL;
+            entry.size = cd.getInt(pos + 24) & 0xffffffffL;
+            int nameLen = cd.getShort(pos + 28) & 0xffff;
+            int extraLen = cd.getShort(pos + 30) & 0xffff;
+            int commentLen = cd.getShort(pos + 32) & 0xffff;
+            entry.externalAttributes = cd.getInt(pos + 38);
+            entry.localHeaderOffset = cd.getInt(pos + 42) & 0xffffffffL;
+            byte[] name = new byte[nameLen];
+            cd.position(pos + CEN_HEADER_SIZE);
+            cd.get(name);
+            entry.name = new String(name, UTF_8);
+            cd.position(pos + CEN_HEADER_SIZE + nameLen + extraLen + commentLen);
+            list.add(entry);
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /**
+     * 中央目录中的一个条目
+     */
+    public static class Entry {
+        String name;
+        int flags;
+        int method;
+        int time;
+        int date;
+        long crc;
+        long compressedSize;
+        long size;
+        int externalAttributes;
+        long localHeaderOffset;
+        volatile long dataOffset = -1;
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * 基于位置读取文件某段区域的输入流，不会改变通道的位置
+     */
+    private static class RegionInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        RegionInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (len > remaining) {
+                len = (int) remaining;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (n == -1) {
+                throw new EOFException();
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.min(n, remaining);
+            position += skipped;
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * 参考java.util.zip.ZipFile，nowrap模式结束时需要补一个空字节
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof;
+        private long remaining;
+
+        EntryInflaterInputStream(InputStream in, long size) {
+            super(in, new Inflater(true), (int) Math.max(512, Math.min(size, 64 * 1024)));
+            this.remaining = size;
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("unexpected end of zip entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
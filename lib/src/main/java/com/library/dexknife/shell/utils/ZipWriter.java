@@ -0,0 +1,406 @@
+package com.library.dexknife.shell.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 顺序写zip文件
+ * <p>
+ * 可以把{@link ZipIndex}中的条目按原始数据直接拷贝（不解压），
+ * 也可以写入新的条目。输出是可随机访问的文件，写完数据后再回填本地文件头中的crc和大小，
+ * 所以不需要data descriptor，数据也只需要写一次。
+ * <p>
+ * 开启对齐后（{@link #setAlign(boolean)}），和zipalign -p 4一样：STORED条目的数据4字节对齐，
+ * STORED的.so和resources.arsc按页（4096）对齐，对齐通过本地文件头的extra字段填充，不需要再单独zipalign。
+ */
+public class ZipWriter implements Closeable {
+
+    public static final String TAG = ZipWriter.class.getSimpleName();
+
+    /**
+     * 新写入条目使用固定的时间（2008-01-01 00:00），保证相同输入得到相同输出
+     */
+    public static final int DEFAULT_DOS_TIME = 0;
+    public static final int DEFAULT_DOS_DATE = ((2008 - 1980) << 9) | (1 << 5) | 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static final int ALIGNMENT = 4;
+    public static final int PAGE_ALIGNMENT = 4096;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final List<Record> records = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private long offset;
+    private boolean closed;
+    private boolean align;
+
+    public ZipWriter(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.raf.setLength(0);
+        this.channel = raf.getChannel();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 是否对齐STORED条目，需要在写入条目前设置
+     */
+    public void setAlign(boolean align) {
+        this.align = align;
+    }
+
+    public boolean isAlign() {
+        return align;
+    }
+
+    /**
+     * 条目数据需要的对齐字节数，不需要对齐返回0
+     */
+    public static int alignment(String name, int method) {
+        if (method != ZipIndex.METHOD_STORED) {
+            return 0;
+        }
+        if (name.endsWith(".so") || name.equals("resources.arsc")) {
+            return PAGE_ALIGNMENT;
+        }
+        return ALIGNMENT;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * 按原始数据拷贝条目，不解压也不重新压缩
+     */
+    public void copyRaw(ZipIndex index, ZipIndex.Entry entry) throws IOException {
+        copyRaw(index, entry, entry.name);
+    }
+
+    public void copyRaw(ZipIndex index, ZipIndex.Entry entry, String name) throws IOException {
+        Record record = newRecord(name);
+        record.method = entry.method;
+        record.flags = (entry.flags & ~ZipIndex.FLAG_DATA_DESCRIPTOR) | (record.flags & ZipIndex.FLAG_UTF8);
+        record.time = entry.time;
+        record.date = entry.date;
+        record.crc = entry.crc;
+        record.compressedSize = entry.compressedSize;
+        record.size = entry.size;
+        record.externalAttributes = entry.externalAttributes;
+        writeLocalHeader(record);
+        channel.position(offset);
+        offset += index.transferRaw(entry, channel);
+        records.add(record);
+    }
+
+    public void putBytes(String name, byte[] data, boolean compress) throws IOException {
+        Record record = newRecord(name);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        record.crc = crc.getValue();
+        record.size = data.length;
+        if (compress) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                record.method = ZipIndex.METHOD_DEFLATED;
+                writeLocalHeader(record);
+                long start = offset;
+                while (!deflater.finished()) {
+                    int len = deflater.deflate(buffer);
+                    write(buffer, 0, len);
+                }
+                record.compressedSize = offset - start;
+                patchLocalHeader(record);
+            } finally {
+                deflater.end();
+            }
+        } else {
+            record.method = ZipIndex.METHOD_STORED;
+            record.compressedSize = data.length;
+            writeLocalHeader(record);
+            write(data, 0, data.length);
+        }
+        records.add(record);
+    }
+
+    public void putFile(String name, File file, boolean compress) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            putStream(name, in, compress);
+        } finally {
+            IO.close(in);
+        }
+    }
+
+    /**
+     * 流式写入条目，写完后回填本地文件头
+     */
+    public void putStream(String name, InputStream in, boolean compress) throws IOException {
+        Record record = newRecord(name);
+        record.method = compress ? ZipIndex.METHOD_DEFLATED : ZipIndex.METHOD_STORED;
+        writeLocalHeader(record);
+        long start = offset;
+        CRC32 crc = new CRC32();
+        long size = 0;
+        Deflater deflater = compress ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+        try {
+            byte[] input = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(input)) != -1) {
+                crc.update(input, 0, len);
+                size += len;
+                if (deflater != null) {
+                    deflater.setInput(input, 0, len);
+                    while (!deflater.needsInput()) {
+                        int n = deflater.deflate(buffer);
+                        write(buffer, 0, n);
+                    }
+                } else {
+                    write(input, 0, len);
+                }
+            }
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    write(buffer, 0, n);
+                }
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        record.crc = crc.getValue();
+        record.size = size;
+        record.compressedSize = offset - start;
+        patchLocalHeader(record);
+        records.add(record);
+    }
+
+    private Record newRecord(String name) throws IOException {
+        if (!names.add(name)) {
+            throw new IOException("duplicate zip entry : " + name);
+        }
+        Record record = new Record();
+        record.name = name.getBytes(UTF_8);
+        record.flags = isAscii(name) ? 0 : ZipIndex.FLAG_UTF8;
+        record.time = DEFAULT_DOS_TIME;
+        record.date = DEFAULT_DOS_DATE;
+        record.localHeaderOffset = offset;
+        return record;
+    }
+
+    private void writeLocalHeader(Record record) throws IOException {
+        int padding = 0;
+        if (align) {
+            int alignment = alignment(new String(record.name, UTF_8), record.method);
+            if (alignment > 0) {
+                long dataOffset = offset + ZipIndex.LOC_HEADER_SIZE + record.name.length;
+                padding = (int) ((alignment - dataOffset % alignment) % alignment);
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(ZipIndex.LOC_HEADER_SIZE + record.name.length + padding)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(ZipIndex.LOC_SIG);
+        header.putShort((short) versionNeeded(record));
+        header.putShort((short) record.flags);
+        header.putShort((short) record.method);
+        header.putShort((short) record.time);
+        header.putShort((short) record.date);
+        header.putInt((int) record.crc);
+        header.putInt((int) record.compressedSize);
+        header.putInt((int) record.size);
+        header.putShort((short) record.name.length);
+        header.putShort((short) padding);
+        header.put(record.name);
+        // extra字段用0填充
+        header.position(header.limit());
+        header.flip();
+        write(header);
+    }
+
+    private void patchLocalHeader(Record record) throws IOException {
+        ByteBuffer patch = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        patch.putInt((int) record.crc);
+        patch.putInt((int) record.compressedSize);
+        patch.putInt((int) record.size);
+        patch.flip();
+        long position = record.localHeaderOffset + 14;
+        while (patch.hasRemaining()) {
+            position += channel.write(patch, position);
+        }
+    }
+
+    /**
+     * 中央目录，localHeaderOffset按写入时的偏移
+     */
+    private ByteBuffer buildCentralDirectory() {
+        int size = 0;
+        for (Record record : records) {
+            size += ZipIndex.CEN_HEADER_SIZE + record.name.length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        for (Record record : records) {
+            header.putInt(ZipIndex.CEN_SIG);
+            header.putShort((short) VERSION_DEFLATED);
+            header.putShort((short) versionNeeded(record));
+            header.putShort((short) record.flags);
+            header.putShort((short) record.method);
+            header.putShort((short) record.time);
+            header.putShort((short) record.date);
+            header.putInt((int) record.crc);
+            header.putInt((int) record.compressedSize);
+            header.putInt((int) record.size);
+            header.putShort((short) record.name.length);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putInt(record.externalAttributes);
+            header.putInt((int) record.localHeaderOffset);
+            header.put(record.name);
+        }
+        header.flip();
+        return header;
+    }
+
+    private ByteBuffer buildEocd(long cdOffset, long cdSize) {
+        ByteBuffer eocd = ByteBuffer.allocate(ZipIndex.EOCD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        eocd.putInt(ZipIndex.EOCD_SIG);
+        eocd.putShort((short) 0);
+        eocd.putShort((short) 0);
+        eocd.putShort((short) records.size());
+        eocd.putShort((short) records.size());
+        eocd.putInt((int) cdSize);
+        eocd.putInt((int) cdOffset);
+        eocd.putShort((short) 0);
+        eocd.flip();
+        return eocd;
+    }
+
+    private void writeCentralDirectory(SigningBlock signingBlock) throws IOException {
+        ByteBuffer centralDirectory = buildCentralDirectory();
+        long cdSize = centralDirectory.remaining();
+        if (records.size() > 0xffff || offset + cdSize > 0xffffffffL) {
+            throw new IOException("zip64 is not supported : " + file.getPath());
+        }
+        long entriesEnd = offset;
+        if (signingBlock != null) {
+            // 签名计算时中央目录的偏移为签名块的起始位置
+            ByteBuffer block = signingBlock.create(channel, entriesEnd,
+                    centralDirectory.asReadOnlyBuffer(), buildEocd(entriesEnd, cdSize).asReadOnlyBuffer());
+            if (block != null) {
+                write(block);
+            }
+        }
+        long cdOffset = offset;
+        write(centralDirectory);
+        write(buildEocd(cdOffset, cdSize));
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        if (len > 0) {
+            write(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        channel.position(offset);
+        while (buf.hasRemaining()) {
+            offset += channel.write(buf);
+        }
+    }
+
+    private static int versionNeeded(Record record) {
+        return record.method == ZipIndex.METHOD_STORED ? VERSION_STORED : VERSION_DEFLATED;
+    }
+
+    private static boolean isAscii(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(null);
+    }
+
+    /**
+     * 写入中央目录并关闭
+     * @param signingBlock 在中央目录前插入的签名块，可以为null
+     */
+    public void close(SigningBlock signingBlock) throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeCentralDirectory(signingBlock);
+            channel.truncate(offset);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * APK签名块（v2/v3），插入在最后一个条目和中央目录之间
+     */
+    public interface SigningBlock {
+        /**
+         * @param channel          输出文件，[0, entriesEnd)为已写入的所有条目，可以并发地按位置读取
+         * @param entriesEnd       条目结束的位置
+         * @param centralDirectory 中央目录
+         * @param eocd             中央目录结束记录，其中的中央目录偏移为entriesEnd
+         * @return 签名块，返回null不插入
+         */
+        ByteBuffer create(FileChannel channel, long entriesEnd, ByteBuffer centralDirectory, ByteBuffer eocd) throws IOException;
+    }
+
+    private static class Record {
+        byte[] name;
+        int flags;
+        int method;
+        int time;
+        int date;
+        long crc;
+        long compressedSize;
+        long size;
+        int externalAttributes;
+        long localHeaderOffset;
+    }
+}
@@ -0,0 +1,72 @@
+package com.library.dexknife.shell.apkparser.parser;
+
+import com.library.dexknife.benchmark.SyntheticApk;
+import com.library.dexknife.shell.apkparser.struct.AndroidConstants;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BinaryXmlEditor修改后的二进制xml用BinaryXmlParser重新解析
+ */
+public class BinaryXmlEditorTest {
+
+    private static final String[] META_DATA_ATTRS = {"name", "value"};
+    private static final int[] META_DATA_IDS = {AndroidConstants.ATTR_ID_NAME, AndroidConstants.ATTR_ID_VALUE};
+
+    private final byte[] manifest = new SyntheticApk(300, 10, 10, 1024, 1).manifest();
+
+    @Test
+    public void unchangedXmlParsesTheSame() {
+        byte[] rebuilt = new BinaryXmlEditor(manifest).toByteArray();
+        assertEquals(parse(manifest), parse(rebuilt));
+    }
+
+    @Test
+    public void editedXmlParses() {
+        BinaryXmlEditor editor = new BinaryXmlEditor(manifest);
+        assertTrue(editor.setAttributeValue("application", "name", AndroidConstants.ATTR_ID_NAME, "com.example.ProxyApplication"));
+        assertTrue(editor.appendChild("application", "meta-data", META_DATA_ATTRS, META_DATA_IDS,
+                new String[]{"APPLICATION_CLASS_NAME", "com.example.Application"}));
+        byte[] edited = editor.toByteArray();
+
+        String xml = parse(edited);
+        assertTrue(xml, xml.contains("<application android:label=\"resourceId:0x7f020000\" android:name=\"com.example.ProxyApplication\">"));
+        assertTrue(xml, xml.contains("<meta-data android:name=\"APPLICATION_CLASS_NAME\" android:value=\"com.example.Application\" />"));
+        //原有的节点不变
+        String origin = parse(manifest);
+        for (String line : origin.split("\n")) {
+            if (!line.contains("<application")) {
+                assertTrue(line, xml.contains(line));
+            }
+        }
+
+        BinaryXmlEditor reparsed = new BinaryXmlEditor(edited);
+        assertEquals("com.example.ProxyApplication", reparsed.getAttributeValue("application", AndroidConstants.ATTR_ID_NAME));
+        assertEquals("com.example.Application", reparsed.getAttributeValue("meta-data", AndroidConstants.ATTR_ID_VALUE));
+    }
+
+    @Test
+    public void editTwice() {
+        BinaryXmlEditor editor = new BinaryXmlEditor(manifest);
+        editor.setAttributeValue("application", "name", AndroidConstants.ATTR_ID_NAME, "com.example.First");
+        editor = new BinaryXmlEditor(editor.toByteArray());
+        editor.setAttributeValue("application", "name", AndroidConstants.ATTR_ID_NAME, "com.example.Second");
+        String xml = parse(editor.toByteArray());
+        assertTrue(xml, xml.contains("android:name=\"com.example.Second\""));
+        assertFalse(xml, xml.contains("com.example.First\""));
+    }
+
+    private static String parse(byte[] xml) {
+        BinaryXmlParser parser = new BinaryXmlParser(ByteBuffer.wrap(xml), null);
+        XmlTranslator translator = new XmlTranslator();
+        parser.setXmlStreamer(translator);
+        parser.parse();
+        return translator.getXml();
+    }
+}
@@ -0,0 +1,129 @@
+package com.library.dexknife.shell.jiagu;
+
+import com.android.apksig.ApkVerifier;
+import com.library.dexknife.benchmark.SyntheticApk;
+import com.library.dexknife.shell.utils.IO;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 签名合成apk，用apksig（apksigner verify使用的校验库）校验v1/v2/v3签名
+ */
+public class ApkSignerTest {
+
+    @ClassRule
+    public static TemporaryFolder temp = new TemporaryFolder();
+
+    private static File apk;
+    private static KeystoreConfig keystore;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        apk = new SyntheticApk(200, 20, 50, 64 * 1024, 1).write(temp.newFile("input.apk"));
+        keystore = new KeystoreConfig();
+        keystore.keystorePath = new File(temp.getRoot(), "test.keystore").getAbsolutePath();
+        keystore.keystorePassword = "android";
+        keystore.alias = "test";
+        keystore.aliasPassword = "android";
+        Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/keytool").getPath(),
+                "-genkeypair", "-keystore", keystore.keystorePath, "-storepass", keystore.keystorePassword,
+                "-alias", keystore.alias, "-keypass", keystore.aliasPassword,
+                "-keyalg", "RSA", "-keysize", "2048", "-validity", "3650", "-dname", "CN=test")
+                .inheritIO()
+                .start();
+        assertEquals("keytool", 0, process.waitFor());
+    }
+
+    @Test
+    public void signedApkVerifies() throws Exception {
+        File signed = sign(apk, "signed.apk");
+        assertVerified(signed);
+        assertSameEntries(apk, signed);
+    }
+
+    @Test
+    public void resignedApkVerifies() throws Exception {
+        //原有的签名文件被替换，重新签名后仍然有效
+        File resigned = sign(sign(apk, "signed_once.apk"), "signed_twice.apk");
+        assertVerified(resigned);
+        assertSameEntries(apk, resigned);
+    }
+
+    private static File sign(File input, String name) throws Exception {
+        File output = temp.newFile(name);
+        ApkSigner signer = ApkSigner.get(keystore);
+        assertNotNull(signer);
+        assertTrue(signer.sign(input, output));
+        return output;
+    }
+
+    private static void assertVerified(File signed) throws Exception {
+        //低于24时才校验v1，v3从28开始
+        //v1使用SHA1（兼容旧版本Android），JDK的JarFile会当作没有签名，所以不用JarFile校验
+        ApkVerifier.Result result = new ApkVerifier.Builder(signed)
+                .setMinCheckedPlatformVersion(18)
+                .build()
+                .verify();
+        assertTrue("apksig : " + result.getAllErrors(), result.isVerified());
+        assertTrue("v1", result.isVerifiedUsingV1Scheme());
+        assertTrue("v2", result.isVerifiedUsingV2Scheme());
+        assertTrue("v3", result.isVerifiedUsingV3Scheme());
+    }
+
+    /**
+     * 签名后除META-INF外的条目与输入相同
+     */
+    private static void assertSameEntries(File input, File signed) throws Exception {
+        ZipFile in = new ZipFile(input);
+        ZipFile out = new ZipFile(signed);
+        try {
+            int count = 0;
+            Enumeration<? extends ZipEntry> entries = out.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().startsWith("META-INF/")) {
+                    continue;
+                }
+                ZipEntry origin = in.getEntry(entry.getName());
+                assertNotNull("unexpected entry : " + entry.getName(), origin);
+                assertEquals(entry.getName(), origin.getMethod(), entry.getMethod());
+                assertArrayEquals(entry.getName(), read(in, origin), read(out, entry));
+                count++;
+            }
+            assertEquals(in.size(), count);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws Exception {
+        InputStream in = zip.getInputStream(entry);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            IO.close(in);
+        }
+    }
+}
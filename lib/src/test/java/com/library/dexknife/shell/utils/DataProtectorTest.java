@@ -0,0 +1,67 @@
+package com.library.dexknife.shell.utils;
+
+import net.lingala.zip4j.core.ZipFile;
+import net.lingala.zip4j.io.ZipInputStream;
+import net.lingala.zip4j.model.FileHeader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * DataProtector.encrypt的输出用zip4j解密（壳中的兼容路径）
+ * <p>
+ * 壳中的流式解密（WinZipAesInputStream）见app模块的WinZipAesInputStreamTest
+ */
+public class DataProtectorTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void encryptedDexDecryptsWithZip4j() throws Exception {
+        byte[] data = new byte[150 * 1024];
+        Random random = new Random(1);
+        byte[] text = "public final class Synthetic { int value; }\n".getBytes("UTF-8");
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i % 3 == 0 ? (byte) random.nextInt() : text[i % text.length];
+        }
+        assertArrayEquals(data, roundTrip(data));
+    }
+
+    @Test
+    public void emptyInput() throws Exception {
+        assertEquals(0, roundTrip(new byte[0]).length);
+    }
+
+    private byte[] roundTrip(byte[] data) throws Exception {
+        File encrypted = new File(temp.getRoot(), "classes2.dex");
+        DataProtector.encrypt(new ByteArrayInputStream(data), encrypted.getName(), encrypted);
+
+        ZipFile zipFile = new ZipFile(encrypted);
+        zipFile.setPassword("libprotected");
+        FileHeader header = zipFile.getFileHeader(encrypted.getName());
+        assertNotNull(header);
+        ZipInputStream in = zipFile.getInputStream(header);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+        } finally {
+            in.close(true);
+        }
+        return out.toByteArray();
+    }
+}